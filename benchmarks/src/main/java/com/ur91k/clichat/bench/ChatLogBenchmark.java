@@ -0,0 +1,110 @@
+package com.ur91k.clichat.bench;
+
+import com.ur91k.clichat.net.Message;
+import com.ur91k.clichat.net.PreparedMessage;
+import com.ur91k.clichat.net.WireFormat;
+import com.ur91k.clichat.store.LogRecord;
+import com.ur91k.clichat.store.LogSettings;
+import com.ur91k.clichat.store.SegmentedLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures chat log write throughput under each fsync policy, and how quickly
+ * the sparse index serves a read from the middle of the log.
+ *
+ * <p>Writers append from several threads, like room lanes do, and retry when
+ * the queue is full, so the figure is what the disk sustains rather than what
+ * the queue absorbs.</p>
+ *
+ * <pre>java -cp target/benchmarks.jar com.ur91k.clichat.bench.ChatLogBenchmark [messages] [threads] [segment bytes]</pre>
+ */
+public class ChatLogBenchmark {
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int segmentBytes = args.length > 2 ? Integer.parseInt(args[2]) : 16 * 1024 * 1024;
+
+        List<ByteBuffer> payloads = new ArrayList<>();
+        for (Message message : DeflateBenchmark.generate(10_000, new Random(42))) {
+            message.setRoom("main_room");
+            payloads.add(new PreparedMessage(message).frame(WireFormat.BINARY).payload());
+        }
+
+        System.out.printf("%d messages from %d threads, %d byte segments%n%n", messages, threads, segmentBytes);
+        System.out.printf("%-9s %12s %10s %12s %10s %9s %14s%n", "fsync", "msgs/s", "MB/s", "msgs/group", "fsyncs",
+            "segments", "mid read (us)");
+        for (LogSettings.FsyncPolicy policy : LogSettings.FsyncPolicy.values()) {
+            run(policy, payloads, messages, threads, segmentBytes);
+        }
+    }
+
+    private static void run(LogSettings.FsyncPolicy policy, List<ByteBuffer> payloads, int messages, int threads,
+            int segmentBytes) throws Exception {
+        Path directory = Files.createTempDirectory("chatlog-bench");
+        LogSettings settings = new LogSettings();
+        settings.setDirectory(directory.toString());
+        settings.setSegmentBytes(segmentBytes);
+        settings.setFsyncPolicy(policy);
+        try {
+            SegmentedLog log = SegmentedLog.open(settings);
+            long bytes = 0;
+            for (int i = 0; i < messages; i++) {
+                bytes += payloads.get(i % payloads.size()).remaining();
+            }
+
+            long start = System.nanoTime();
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                Thread writer = new Thread(() -> {
+                    for (int i = first; i < messages; i += threads) {
+                        ByteBuffer payload = payloads.get(i % payloads.size());
+                        while (!log.tryAppend(payload)) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            while (log.getNextSeq() < messages) {
+                Thread.sleep(1);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long readStart = System.nanoTime();
+            List<LogRecord> middle = log.read(messages / 2, 100);
+            long readMicros = (System.nanoTime() - readStart) / 1000;
+            if (middle.isEmpty() || middle.get(0).seq() != messages / 2) {
+                throw new IllegalStateException("Read from the middle of the log returned the wrong records");
+            }
+
+            System.out.printf("%-9s %12.0f %10.1f %12.1f %10d %9d %14d%n", policy.name().toLowerCase(),
+                messages / (elapsed / 1e9), bytes / (elapsed / 1e9) / (1024 * 1024),
+                (double) messages / log.getGroups(), log.getFsyncs(), log.getSegmentCount(), readMicros);
+            log.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.ur91k.clichat.bench;
+
+import com.ur91k.clichat.util.Logger;
+import org.java_websocket.WebSocketImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One network thread shared by many {@link LoadClient}s: it connects them,
+ * reads what arrives and writes what they queue, all through one selector.
+ *
+ * <p>A client library that gives each connection a reader and a writer
+ * thread needs thousands of threads for thousands of sessions, and the
+ * generator's own scheduling delay then shows up in the latencies it
+ * reports. A few loops carry the same sessions instead.</p>
+ */
+final class ClientLoop implements Runnable {
+    private static final Logger logger = Logger.getLogger(ClientLoop.class);
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(WebSocketImpl.RCVBUF);  // Loop thread only
+
+    ClientLoop(String name) throws IOException {
+        selector = Selector.open();
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Runs a task on the loop thread, after the current round of events. */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /** The selector clients register with; only touched from the loop thread. */
+    Selector selector() { return selector; }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.error("Selector failed: {}", e.getMessage());
+                return;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Client task failed", e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                ((LoadClient) key.attachment()).handle(key, readBuffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.ur91k.clichat.bench;
+
+import com.ur91k.clichat.net.DeflateExtension;
+import com.ur91k.clichat.net.DeflateSettings;
+import com.ur91k.clichat.net.EncodedFrame;
+import com.ur91k.clichat.net.Message;
+import com.ur91k.clichat.net.PreparedMessage;
+import com.ur91k.clichat.net.WireFormat;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+import org.joml.Vector4f;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures bytes on the wire against CPU per message for each permessage-deflate mode.
+ *
+ * <p>Shared mode compresses each broadcast once for the whole room; context takeover
+ * compresses it again for every recipient. The last column is the CPU one broadcast
+ * costs across a room of the given size.</p>
+ *
+ * <pre>java -cp target/benchmarks.jar com.ur91k.clichat.bench.DeflateBenchmark [messages] [rounds] [room size]</pre>
+ */
+public class DeflateBenchmark {
+    private static final String[] WORDS = {
+        "hey", "anyone", "around", "the", "build", "is", "green", "again", "lol", "brb",
+        "did", "you", "see", "that", "server", "restart", "ok", "thanks", "nice", "what",
+        "time", "is", "the", "meeting", "tomorrow", "I", "think", "so", "works", "for", "me"
+    };
+
+    private static int roomSize;
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        roomSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        List<Message> sample = generate(messages, new Random(42));
+
+        System.out.printf("%d messages, %d rounds (best round reported), room of %d%n%n", messages, rounds, roomSize);
+        System.out.printf("%-6s %-28s %12s %10s %12s %16s%n", "format", "mode", "bytes/msg", "ratio", "ns/msg",
+            "ns/msg per room");
+        for (WireFormat format : WireFormat.values()) {
+            List<EncodedFrame> frames = new ArrayList<>(sample.size());
+            for (Message message : sample) {
+                frames.add(new PreparedMessage(message).frame(format));
+            }
+            double plain = averageFrameBytes(frames);
+            report(format, "uncompressed", plain, plain, 0, 0);
+            for (int level : new int[] {1, 6, 9}) {
+                runShared(format, frames, level, 64, rounds, plain);
+            }
+            for (int level : new int[] {1, 6, 9}) {
+                runContextTakeover(format, frames, level, 64, rounds, plain);
+            }
+            System.out.println();
+        }
+    }
+
+    private static void runShared(WireFormat format, List<EncodedFrame> frames, int level, int threshold,
+            int rounds, double plain) {
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int round = 0; round < rounds; round++) {
+            bytes = 0;
+            long start = System.nanoTime();
+            for (EncodedFrame frame : frames) {
+                EncodedFrame out = frame.getPayloadLength() >= threshold ? frame.deflate(level) : frame;
+                bytes += out.getFrameLength();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        long perMessage = best / frames.size();
+        report(format, "shared, level " + level, (double) bytes / frames.size(), plain, perMessage, perMessage);
+    }
+
+    private static void runContextTakeover(WireFormat format, List<EncodedFrame> frames, int level, int threshold,
+            int rounds, double plain) {
+        DeflateSettings settings = new DeflateSettings();
+        settings.setContextTakeover(true);
+        settings.setLevel(level);
+        settings.setThreshold(threshold);
+
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int round = 0; round < rounds; round++) {
+            DeflateExtension connection = new DeflateExtension(settings);
+            bytes = 0;
+            long start = System.nanoTime();
+            for (EncodedFrame frame : frames) {
+                DataFrame data = frame.isText() ? new TextFrame() : new BinaryFrame();
+                data.setPayload(copy(frame.payload()));
+                data.setFin(true);
+                connection.encodeFrame(data);
+                bytes += frameLength(data.getPayloadData().remaining());
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            connection.reset();
+        }
+        long perMessage = best / frames.size();
+        report(format, "context takeover, level " + level, (double) bytes / frames.size(), plain,
+            perMessage, perMessage * roomSize);
+    }
+
+    private static void report(WireFormat format, String mode, double bytesPerMessage, double plain, long nanos,
+            long roomNanos) {
+        System.out.printf("%-6s %-28s %12.1f %9.1f%% %12d %16d%n",
+            format, mode, bytesPerMessage, 100.0 * bytesPerMessage / plain, nanos, roomNanos);
+    }
+
+    private static double averageFrameBytes(List<EncodedFrame> frames) {
+        long total = 0;
+        for (EncodedFrame frame : frames) {
+            total += frame.getFrameLength();
+        }
+        return (double) total / frames.size();
+    }
+
+    private static int frameLength(int payloadLength) {
+        return payloadLength + (payloadLength < 126 ? 2 : payloadLength <= 0xFFFF ? 4 : 10);
+    }
+
+    private static ByteBuffer copy(ByteBuffer source) {
+        ByteBuffer copy = ByteBuffer.allocate(source.remaining());
+        copy.put(source.duplicate()).flip();
+        return copy;
+    }
+
+    /**
+     * Builds a room's worth of chat: a few dozen senders, mostly short lines.
+     */
+    static List<Message> generate(int count, Random random) {
+        int senders = 40;
+        String[] names = new String[senders];
+        Vector4f[] colors = new Vector4f[senders];
+        for (int i = 0; i < senders; i++) {
+            names[i] = "user" + (1000 + random.nextInt(9000));
+            colors[i] = new Vector4f(0.3f + random.nextFloat() * 0.7f, 0.3f + random.nextFloat() * 0.7f,
+                0.3f + random.nextFloat() * 0.7f, 1.0f);
+        }
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int sender = random.nextInt(senders);
+            StringBuilder content = new StringBuilder();
+            int words = 2 + (int) Math.abs(random.nextGaussian() * 8);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) content.append(' ');
+                content.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            messages.add(Message.chat("/10.0.0." + sender + ":" + (40000 + sender), names[sender], colors[sender],
+                content.toString()));
+        }
+        return messages;
+    }
+}
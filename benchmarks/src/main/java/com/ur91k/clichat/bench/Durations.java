@@ -0,0 +1,19 @@
+package com.ur91k.clichat.bench;
+
+/**
+ * Formats measured durations for the harnesses' reports.
+ */
+final class Durations {
+    private Durations() {}
+
+    /** Nanoseconds as ns, us or ms, keeping two to four significant digits. */
+    static String format(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + " ns";
+        }
+        if (nanos < 10_000_000) {
+            return nanos / 1000 + " us";
+        }
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+}
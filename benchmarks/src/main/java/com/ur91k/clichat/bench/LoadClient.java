@@ -0,0 +1,329 @@
+package com.ur91k.clichat.bench;
+
+import com.ur91k.clichat.net.BinaryMessageCodec;
+import com.ur91k.clichat.net.DeflateExtension;
+import com.ur91k.clichat.net.DeflateSettings;
+import com.ur91k.clichat.net.Message;
+import com.ur91k.clichat.net.MessageAdapter;
+import com.ur91k.clichat.net.Request;
+import com.ur91k.clichat.net.WireFormat;
+import com.ur91k.clichat.util.Logger;
+import org.java_websocket.SocketChannelIOHelper;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.InvalidHandshakeException;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.Handshakedata;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.joml.Vector4f;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A chat session for the load generator that runs on a shared {@link ClientLoop}
+ * instead of threads of its own.
+ *
+ * <p>It speaks the protocol the way {@code ChatClient} does: it negotiates the
+ * same wire formats and compression, joins, and sends slim requests. It counts
+ * gaps and repeats in room message numbers the same way. It is leaner in
+ * three ways. It offers batching but not sender profiles, so binary messages
+ * reach it with the sender in full. It never resumes or reconnects. It only
+ * works with servers that take requests. Sending, and everything the loop
+ * thread does with the connection, go through the library's
+ * {@link WebSocketImpl} engine.</p>
+ */
+final class LoadClient extends WebSocketAdapter {
+    private static final Logger logger = Logger.getLogger(LoadClient.class);
+
+    private final ClientLoop loop;
+    private final URI uri;
+    private final InetSocketAddress address;
+    private final String username;
+    private final Vector4f color;
+    private final Consumer<Message> onMessage;
+    private final Runnable onClose;
+    private final WebSocketImpl engine;
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    private SocketChannel channel;
+    private WireFormat wireFormat = WireFormat.JSON;
+    private volatile boolean connected;
+    private volatile String roomId;
+    // Room message numbers, as in ChatClient's tracker; loop thread only
+    private final Map<String, long[]> positions = new HashMap<>();  // room -> {last, replaying}
+    private volatile long missed;
+    private volatile long duplicates;
+
+    /**
+     * @param deflate permessage-deflate settings to offer, or null to never compress
+     */
+    LoadClient(ClientLoop loop, URI uri, InetSocketAddress address, String username, Vector4f color,
+            DeflateSettings deflate, Consumer<Message> onMessage, Runnable onClose) {
+        this.loop = loop;
+        this.uri = uri;
+        this.address = address;
+        this.username = username;
+        this.color = color;
+        this.onMessage = onMessage;
+        this.onClose = onClose;
+        this.engine = new WebSocketImpl(this, new Draft_6455(
+            deflate != null ? List.of(new DeflateExtension(deflate)) : Collections.emptyList(),
+            WireFormat.protocols()));
+    }
+
+    /** Starts connecting on the loop; a failure is reported like any other close. */
+    void connect() {
+        loop.execute(() -> {
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                engine.setChannel(channel);
+                engine.setSelectionKey(channel.register(loop.selector(), SelectionKey.OP_CONNECT, this));
+                if (channel.connect(address)) {
+                    connected(engine.getSelectionKey());
+                }
+            } catch (IOException | InvalidHandshakeException e) {
+                engine.closeConnection(CloseFrame.NEVER_CONNECTED, e.getMessage());
+            }
+        });
+    }
+
+    /** Handles the events the loop selected for this connection. */
+    void handle(SelectionKey key, ByteBuffer buffer) {
+        try {
+            if (key.isConnectable()) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                connected(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                while (SocketChannelIOHelper.read(buffer, engine, channel)) {
+                    engine.decode(buffer);
+                }
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException | InvalidHandshakeException e) {
+            engine.closeConnection(engine.getReadyState() == ReadyState.NOT_YET_CONNECTED
+                ? CloseFrame.NEVER_CONNECTED : CloseFrame.ABNORMAL_CLOSE, e.getMessage());
+        } catch (CancelledKeyException e) {
+            // Closed while the event was pending
+        }
+    }
+
+    private void connected(SelectionKey key) throws InvalidHandshakeException {
+        key.interestOps(SelectionKey.OP_READ);
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        HandshakeImpl1Client handshake = new HandshakeImpl1Client();
+        handshake.setResourceDescriptor(uri.getRawQuery() != null ? path + "?" + uri.getRawQuery() : path);
+        handshake.put("Host", uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : ""));
+        handshake.put(WireFormat.FEATURES_HEADER, WireFormat.FEATURE_BATCH);
+        engine.startHandshake(handshake);
+    }
+
+    /**
+     * Writes what the engine has queued; whatever the socket does not take
+     * waits for it to become writable.
+     */
+    private void flush() throws IOException {
+        flushQueued.set(false);
+        if (!channel.isOpen()) {
+            return;
+        }
+        boolean done = SocketChannelIOHelper.batch(engine, channel);
+        SelectionKey key = engine.getSelectionKey();
+        if (key.isValid()) {
+            key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    @Override
+    public void onWriteDemand(WebSocket conn) {
+        if (flushQueued.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    engine.closeConnection(CloseFrame.ABNORMAL_CLOSE, e.getMessage());
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onWebsocketOpen(WebSocket conn, Handshakedata handshake) {
+        if (!WireFormat.hasFeature(handshake, WireFormat.FEATURE_REQUESTS)) {
+            logger.error("{} does not take requests; the load generator needs a current server", uri);
+            engine.close(CloseFrame.NORMAL, "Unsupported server");
+            return;
+        }
+        wireFormat = WireFormat.of(engine.getProtocol());
+        connected = true;
+        transmit(Request.join(username, color));
+    }
+
+    @Override
+    public void onWebsocketMessage(WebSocket conn, String json) {
+        try {
+            if (json.startsWith("[")) {
+                for (Message message : MessageAdapter.GSON.fromJson(json, Message[].class)) {
+                    receive(message);
+                }
+            } else {
+                receive(MessageAdapter.GSON.fromJson(json, Message.class));
+            }
+        } catch (RuntimeException e) {
+            logger.error("{}: error handling message: {}", username, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onWebsocketMessage(WebSocket conn, ByteBuffer bytes) {
+        try {
+            for (Message message : BinaryMessageCodec.decodeAll(bytes)) {
+                receive(message);
+            }
+        } catch (RuntimeException e) {
+            logger.error("{}: error handling message: {}", username, e.getMessage());
+        }
+    }
+
+    private void receive(Message message) {
+        if (message.getType() == Message.Type.SESSION || !inSequence(message)) {
+            return;
+        }
+        if (message.getType() == Message.Type.ROOM_UPDATE) {
+            // newValue is "name;r,g,b,a"
+            roomId = message.getRoom() != null ? message.getRoom() : message.getNewValue().split(";", 2)[0];
+        }
+        onMessage.accept(message);
+    }
+
+    /**
+     * Checks a message against its room's numbering: a ROOM_UPDATE gives the
+     * number live messages follow on from, lower numbers before the first live
+     * one are backlog, and after it each number should be one more than the last.
+     *
+     * @return false for a repeat, which is dropped
+     */
+    private boolean inSequence(Message message) {
+        String room = message.getRoom();
+        long seq = message.getSeq();
+        if (room == null) {
+            return true;
+        }
+        if (message.getType() == Message.Type.ROOM_UPDATE) {
+            positions.put(room, new long[] {seq, 1});
+            return true;
+        }
+        if (seq == 0) {
+            return true;
+        }
+        long[] position = positions.computeIfAbsent(room, key -> new long[] {seq - 1, 0});
+        if (seq <= position[0]) {
+            if (position[1] == 1) {
+                return true;
+            }
+            duplicates++;
+            return false;
+        }
+        position[1] = 0;
+        if (position[0] != 0 && seq != position[0] + 1) {
+            missed += seq - position[0] - 1;
+        }
+        position[0] = seq;
+        return true;
+    }
+
+    @Override
+    public void onWebsocketClose(WebSocket conn, int code, String reason, boolean remote) {
+        connected = false;
+        onClose.run();
+    }
+
+    @Override
+    public void onWebsocketClosing(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onWebsocketCloseInitiated(WebSocket conn, int code, String reason) {
+    }
+
+    @Override
+    public void onWebsocketError(WebSocket conn, Exception ex) {
+        logger.warn("{}: {}", username, ex.getMessage());
+    }
+
+    @Override
+    public InetSocketAddress getLocalSocketAddress(WebSocket conn) {
+        return channel != null ? (InetSocketAddress) channel.socket().getLocalSocketAddress() : null;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteSocketAddress(WebSocket conn) {
+        return channel != null ? (InetSocketAddress) channel.socket().getRemoteSocketAddress() : null;
+    }
+
+    /**
+     * Sends a chat message.
+     *
+     * @return false if the session is not open
+     */
+    boolean sendMessage(String content) {
+        return send(Request.chat(content));
+    }
+
+    boolean sendCommand(String command) {
+        return send(Request.command(command));
+    }
+
+    private boolean send(Request request) {
+        if (!connected) {
+            return false;
+        }
+        try {
+            transmit(request);
+            return true;
+        } catch (WebsocketNotConnectedException e) {
+            return false;  // Closed under us; the close is reported separately
+        }
+    }
+
+    private void transmit(Request request) {
+        if (wireFormat == WireFormat.BINARY) {
+            engine.send(BinaryMessageCodec.encodeRequest(request));
+        } else {
+            engine.send(MessageAdapter.GSON.toJson(request));
+        }
+    }
+
+    /** Starts a clean close; the connection is reported closed once the server answers. */
+    void close() {
+        engine.close();
+    }
+
+    boolean isConnected() { return connected; }
+    String getRoomId() { return roomId; }
+    /** Room messages that never arrived, going by the gaps in their numbers. */
+    long getMissedMessages() { return missed; }
+    /** Room messages that arrived twice; the second copy is dropped. */
+    long getDuplicateMessages() { return duplicates; }
+}
@@ -0,0 +1,365 @@
+package com.ur91k.clichat.bench;
+
+import com.ur91k.clichat.metrics.LatencyHistogram;
+import com.ur91k.clichat.net.DeflateSettings;
+import com.ur91k.clichat.net.Message;
+import org.joml.Vector4f;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Finds out how many users a server holds: opens many client sessions against
+ * it, each joining like the real client does, and has every session chat at a
+ * steady rate. Every message carries the time it was due to be sent, so each
+ * copy a session receives gives one end-to-end latency sample.
+ *
+ * <p>Latency is measured from when a message was due rather than when it went
+ * out, so a stalled sender shows up as latency instead of quietly sending
+ * less. All sessions share one JVM clock; copies from other runs or other
+ * clients are ignored. Run the server with {@code --no-rate-limit}, or keep
+ * the rate within its chat limit.</p>
+ *
+ * <p>Sessions share up to four network threads (see {@link ClientLoop}) and
+ * as many sender threads, so thousands of them add no threads of their own.</p>
+ *
+ * <pre>java -cp target/benchmarks.jar com.ur91k.clichat.bench.LoadGenerator [options]</pre>
+ */
+public class LoadGenerator {
+    private static final String FILLER = "did you see that the server restarted again anyone around the build is green ";
+    private static final Vector4f COLOR = new Vector4f(0.5f, 0.8f, 0.5f, 1.0f);
+
+    private URI uri = URI.create("ws://127.0.0.1:8887");
+    private int clients = 100;
+    private int rooms = 1;
+    private double rate = 1;
+    private IntSupplier size = () -> 100;
+    private String sizeDescription = "100";
+    private int warmupSeconds = 5;
+    private int durationSeconds = 30;
+    private int connectRate = 200;
+    private boolean deflate = true;
+
+    private final String marker = "lg" + Long.toString(System.nanoTime() & 0xffffff, 36) + " ";
+    private final List<Session> sessions = new ArrayList<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private volatile LatencyHistogram interval = new LatencyHistogram();
+    private volatile boolean measuring;
+    private CountDownLatch ready;
+
+    /** One simulated user. */
+    private class Session {
+        final LoadClient client;
+        final String room;
+        final LongAdder sentHere = new LongAdder();
+        volatile boolean joined;
+        long due;
+
+        Session(int index, ClientLoop loop, InetSocketAddress address) {
+            room = rooms > 1 ? "load_" + index % rooms : null;
+            // A dropped session counts as a disconnect, not a pause
+            client = new LoadClient(loop, uri, address, String.format("load-%05d", index), new Vector4f(COLOR),
+                deflate ? new DeflateSettings() : null, this::onMessage, disconnects::incrementAndGet);
+        }
+
+        private void onMessage(Message message) {
+            if (message.getType() == Message.Type.ROOM_UPDATE && !joined) {
+                if (room == null || room.equals(client.getRoomId())) {
+                    joined = true;
+                    ready.countDown();
+                } else {
+                    client.sendCommand("/join " + room);
+                }
+                return;
+            }
+            String content = message.getContent();
+            if (message.getType() != Message.Type.CHAT || content == null || !content.startsWith(marker)) {
+                return;
+            }
+            int end = content.indexOf(' ', marker.length());
+            long due = Long.parseLong(content, marker.length(), end < 0 ? content.length() : end, 10);
+            long latency = System.nanoTime() - due;
+            delivered.increment();
+            if (measuring) {
+                total.record(latency);
+                interval.record(latency);
+            }
+        }
+
+        void send(long periodNanos) {
+            if (!client.isConnected()) {
+                return;
+            }
+            StringBuilder content = new StringBuilder(marker).append(due).append(' ');
+            int length = size.getAsInt();
+            while (content.length() < length) {
+                content.append(FILLER, 0, Math.min(FILLER.length(), length - content.length()));
+            }
+            due += periodNanos;
+            if (!client.sendMessage(content.toString())) {
+                return;  // closed since the check above; the disconnect is already counted
+            }
+            sent.increment();
+            sentHere.increment();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        if (!generator.parse(args)) {
+            printHelp();
+            return;
+        }
+        generator.run();
+    }
+
+    /**
+     * Reads the command line.
+     *
+     * @return false if an option is unknown, lacks its value or has a bad one; help is printed then
+     */
+    private boolean parse(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                if (value == null && !args[i].equals("--no-deflate")) {
+                    return false;  // Every other option takes a value
+                }
+                switch (args[i]) {
+                    case "--uri":
+                        uri = URI.create(value);
+                        break;
+                    case "--clients":
+                        clients = Integer.parseInt(value);
+                        break;
+                    case "--rooms":
+                        rooms = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--size":
+                        size = parseSize(value);
+                        sizeDescription = value;
+                        break;
+                    case "--warmup":
+                        warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "--duration":
+                        durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--connect-rate":
+                        connectRate = Integer.parseInt(value);
+                        break;
+                    case "--no-deflate":
+                        deflate = false;
+                        continue;
+                    default:
+                        return false;
+                }
+                i++;
+            }
+            if (clients < 1 || rooms < 1 || rate <= 0 || durationSeconds < 1 || warmupSeconds < 0 || connectRate < 1) {
+                throw new IllegalArgumentException("Clients, rooms, rate, duration and connect rate must be positive");
+            }
+            if (!"ws".equals(uri.getScheme()) || uri.getHost() == null) {
+                throw new IllegalArgumentException("Expected a ws:// URI, got " + uri);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println();
+            return false;
+        }
+    }
+
+    /**
+     * Parses a message size in characters: "200" for always 200, "50-500" for
+     * uniform between the two, or "exp:200" for exponential with a mean of 200.
+     * Messages are never shorter than their timestamp.
+     */
+    static IntSupplier parseSize(String value) {
+        if (value.startsWith("exp:")) {
+            double mean = Double.parseDouble(value.substring(4));
+            if (mean < 1) {
+                throw new IllegalArgumentException("Mean size must be positive: " + value);
+            }
+            return () -> (int) Math.min(Integer.MAX_VALUE / 2,
+                -mean * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+        }
+        int dash = value.indexOf('-');
+        if (dash > 0) {
+            int min = Integer.parseInt(value.substring(0, dash));
+            int max = Integer.parseInt(value.substring(dash + 1));
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException("Expected min-max, got " + value);
+            }
+            return () -> ThreadLocalRandom.current().nextInt(min, max + 1);
+        }
+        int fixed = Integer.parseInt(value);
+        if (fixed < 0) {
+            throw new IllegalArgumentException("Size must not be negative: " + value);
+        }
+        return () -> fixed;
+    }
+
+    private void run() throws Exception {
+        System.out.printf("%d sessions in %d room(s) against %s, %.2f msgs/s each, size %s, deflate %s%n",
+            clients, rooms, uri, rate, sizeDescription, deflate ? "offered" : "off");
+        ready = new CountDownLatch(clients);
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() != -1 ? uri.getPort() : 80);
+        ClientLoop[] loops = new ClientLoop[Math.min(4, Runtime.getRuntime().availableProcessors())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new ClientLoop("load-io-" + i);
+        }
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            Session session = new Session(i, loops[i % loops.length], address);
+            sessions.add(session);
+            session.client.connect();
+            long due = connectStart + (i + 1) * 1_000_000_000L / connectRate;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+        if (!ready.await(30 + clients / connectRate, TimeUnit.SECONDS)) {
+            System.out.printf("Only %d of %d sessions joined; carrying on with those%n",
+                clients - ready.getCount(), clients);
+        }
+        System.out.printf("Joined in %s%n%n", Durations.format(System.nanoTime() - connectStart));
+
+        long periodNanos = (long) (1e9 / rate);
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "load-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        for (Session session : sessions) {
+            if (!session.joined) {
+                continue;
+            }
+            // Spread sessions across the period so they don't all send at once
+            long phase = ThreadLocalRandom.current().nextLong(periodNanos);
+            session.due = start + phase;
+            senders.scheduleAtFixedRate(() -> session.send(periodNanos), phase, periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        System.out.printf("%6s %12s %14s %10s %10s %10s%n", "second", "sent/s", "delivered/s", "p50", "p99", "p99.9");
+        long lastSent = 0;
+        long lastDelivered = 0;
+        long measureStart = start;
+        long measureSent = 0;
+        long measureDelivered = 0;
+        measuring = warmupSeconds == 0;
+        for (int second = 1; second <= warmupSeconds + durationSeconds; second++) {
+            TimeUnit.NANOSECONDS.sleep(start + second * 1_000_000_000L - System.nanoTime());
+            LatencyHistogram.Snapshot latency = interval.snapshot();
+            interval = new LatencyHistogram();
+            long sentNow = sent.sum();
+            long deliveredNow = delivered.sum();
+            System.out.printf("%6d %12d %14d %10s %10s %10s%s%n", second, sentNow - lastSent,
+                deliveredNow - lastDelivered, Durations.format(latency.percentile(0.5)),
+                Durations.format(latency.percentile(0.99)),
+                Durations.format(latency.percentile(0.999)), second <= warmupSeconds ? "  warmup" : "");
+            lastSent = sentNow;
+            lastDelivered = deliveredNow;
+            if (second == warmupSeconds) {
+                measuring = true;
+                measureStart = System.nanoTime();
+                measureSent = sentNow;
+                measureDelivered = deliveredNow;
+            }
+        }
+        long measured = System.nanoTime() - measureStart;
+        long sentMeasured = sent.sum() - measureSent;
+        long deliveredMeasured = delivered.sum() - measureDelivered;
+        senders.shutdownNow();
+        measuring = false;
+
+        // Give copies still in flight a moment to arrive before counting losses
+        long expected = expectedDeliveries();
+        long settle = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delivered.sum() < expected && System.nanoTime() < settle) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        long deliveredTotal = delivered.sum();
+        int disconnected = disconnects.get();
+        long missed = 0;
+        long duplicates = 0;
+        for (Session session : sessions) {
+            missed += session.client.getMissedMessages();
+            duplicates += session.client.getDuplicateMessages();
+            session.client.close();
+        }
+
+        LatencyHistogram.Snapshot latency = total.snapshot();
+        double seconds = measured / 1e9;
+        System.out.println();
+        System.out.printf("Sessions:   %d joined, %d disconnected during the run%n",
+            clients - ready.getCount(), disconnected);
+        System.out.printf("Throughput: %.0f msgs/s sent, %.0f copies/s delivered over %.1f s%n",
+            sentMeasured / seconds, deliveredMeasured / seconds, seconds);
+        System.out.printf("Latency:    p50 %s, p99 %s, p99.9 %s, max %s over %d copies%n",
+            Durations.format(latency.percentile(0.5)), Durations.format(latency.percentile(0.99)),
+            Durations.format(latency.percentile(0.999)), Durations.format(latency.max()),
+            latency.count());
+        System.out.printf("Delivered:  %d of %d expected copies (%.2f%% missing)%n", deliveredTotal, expected,
+            expected == 0 ? 0 : 100.0 * (expected - deliveredTotal) / expected);
+        System.out.printf("Sequence:   %d gap message(s), %d duplicate(s) seen by the clients%n", missed, duplicates);
+        System.exit(0);
+    }
+
+    /**
+     * Every message should reach every session in its room, the sender included.
+     */
+    private long expectedDeliveries() {
+        Map<String, long[]> perRoom = new HashMap<>();
+        for (Session session : sessions) {
+            if (session.joined) {
+                long[] counts = perRoom.computeIfAbsent(String.valueOf(session.room), room -> new long[2]);
+                counts[0]++;
+                counts[1] += session.sentHere.sum();
+            }
+        }
+        long expected = 0;
+        for (long[] counts : perRoom.values()) {
+            expected += counts[0] * counts[1];
+        }
+        return expected;
+    }
+
+    private static void printHelp() {
+        System.out.println("CLIChat load generator");
+        System.out.println("Usage: java -cp target/benchmarks.jar com.ur91k.clichat.bench.LoadGenerator [options]");
+        System.out.println();
+        System.out.println("Options:");
+        System.out.println("  --uri <uri>          Server to load, ws:// only (default: ws://127.0.0.1:8887)");
+        System.out.println("  --clients <n>        Concurrent sessions (default: 100)");
+        System.out.println("  --rooms <n>          Spread sessions over this many rooms (default: 1, the default room)");
+        System.out.println("  --rate <n>           Messages per second from each session (default: 1)");
+        System.out.println("  --size <dist>        Message length: 200, 50-500 (uniform) or exp:200 (exponential mean)");
+        System.out.println("                       (default: 100)");
+        System.out.println("  --warmup <seconds>   Sending before measuring starts (default: 5)");
+        System.out.println("  --duration <seconds> Measured sending (default: 30)");
+        System.out.println("  --connect-rate <n>   Sessions opened per second (default: 200)");
+        System.out.println("  --no-deflate         Don't offer permessage-deflate");
+    }
+}
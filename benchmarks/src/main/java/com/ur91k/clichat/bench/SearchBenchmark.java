@@ -0,0 +1,61 @@
+package com.ur91k.clichat.bench;
+
+import com.ur91k.clichat.net.ChatSearch;
+import com.ur91k.clichat.net.Message;
+import com.ur91k.clichat.store.InvertedIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures /search index build rate, size and query latency over a large synthetic history.
+ *
+ * <pre>java -cp target/benchmarks.jar com.ur91k.clichat.bench.SearchBenchmark [messages] [rooms]</pre>
+ */
+public class SearchBenchmark {
+    private static final String[][] QUERIES = {
+        {"build"}, {"build", "green"}, {"server", "restart", "tomorrow"}, {"meeting", "from:user1234"}, {"nonexistent"}
+    };
+
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        List<Message> sample = DeflateBenchmark.generate(50_000, new Random(42));
+        List<Set<String>> terms = new ArrayList<>(sample.size());
+        for (Message message : sample) {
+            terms.add(ChatSearch.terms(message));
+        }
+
+        InvertedIndex index = new InvertedIndex();
+        long start = System.nanoTime();
+        long timestamp = System.currentTimeMillis() - messages;
+        for (int i = 0; i < messages; i++) {
+            index.add("room" + (i % rooms), i, timestamp + i, terms.get(i % terms.size()));
+        }
+        long buildNanos = System.nanoTime() - start;
+        System.out.printf("Indexed %d messages in %d rooms: %.0f msgs/s, %.1f MB of postings (%.2f bytes/msg)%n%n",
+            messages, rooms, messages / (buildNanos / 1e9), index.getPostingBytes() / (1024.0 * 1024.0),
+            (double) index.getPostingBytes() / messages);
+
+        System.out.printf("%-32s %10s %14s %14s%n", "query (one room)", "matches", "first page us", "last day us");
+        for (String[] query : QUERIES) {
+            List<String> list = List.of(query);
+            index.search("room0", list, Long.MIN_VALUE, Long.MAX_VALUE, 0, 10);  // Warm up
+            long best = Long.MAX_VALUE;
+            long bestRecent = Long.MAX_VALUE;
+            int total = 0;
+            for (int round = 0; round < 20; round++) {
+                long t0 = System.nanoTime();
+                total = index.search("room0", list, Long.MIN_VALUE, Long.MAX_VALUE, 0, 10).total();
+                long t1 = System.nanoTime();
+                index.search("room0", list, timestamp + messages - 86_400, Long.MAX_VALUE, 0, 10);
+                long t2 = System.nanoTime();
+                best = Math.min(best, t1 - t0);
+                bestRecent = Math.min(bestRecent, t2 - t1);
+            }
+            System.out.printf("%-32s %10d %14d %14d%n", String.join(" ", query), total, best / 1000, bestRecent / 1000);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.ur91k.clichat.jmh;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Runs the benchmarks like JMH's own launcher, taking the same arguments, but
+ * unless told otherwise writes the results as JSON to
+ * {@code results/<clichat version>.json}, ready for {@link CompareReports}.
+ *
+ * <pre>java -jar benchmarks.jar [JMH options] [benchmark regex]</pre>
+ */
+public class Benchmarks {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (!options.getResult().hasValue()) {
+            Path report = Path.of("results", version() + ".json");
+            Files.createDirectories(report.getParent());
+            builder.result(report.toString()).resultFormat(ResultFormatType.JSON);
+            System.out.println("Writing results to " + report);
+        }
+        new Runner(builder.build()).run();
+    }
+
+    private static String version() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Benchmarks.class.getClassLoader().getResourceAsStream("benchmarks.properties")) {
+            if (in != null) {
+                properties.load(in);
+            }
+        }
+        return properties.getProperty("clichat.version", "unknown");
+    }
+}
@@ -0,0 +1,61 @@
+package com.ur91k.clichat.jmh;
+
+import com.ur91k.clichat.terminal.ChatTerminal;
+import org.joml.Vector4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChatTerminal#addLine} for the kinds of line the client shows.
+ *
+ * <p>The terminal's scrollback has a fixed size, so each measured batch
+ * starts from a fresh terminal and adds {@value #LINES} lines. Scores are
+ * per batch; divide by {@value #LINES} for one line. No renderer is needed,
+ * since adding a line only touches the character grid.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 200, batchSize = ChatTerminalBenchmark.LINES)
+@Measurement(iterations = 500, batchSize = ChatTerminalBenchmark.LINES)
+@Fork(1)
+public class ChatTerminalBenchmark {
+    static final int LINES = 500;
+    private static final Vector4f SENDER_COLOR = new Vector4f(0.9f, 0.4f, 0.2f, 1.0f);
+
+    private ChatTerminal terminal;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        terminal = new ChatTerminal(null);
+    }
+
+    @Benchmark
+    public ChatTerminal chatLine() {
+        terminal.addLine("[12:34:56] alice: did you see that the server restarted again", SENDER_COLOR);
+        return terminal;
+    }
+
+    @Benchmark
+    public ChatTerminal systemLine() {
+        terminal.addLine("[12:34:56] * bob joined #main_room");
+        return terminal;
+    }
+
+    @Benchmark
+    public ChatTerminal plainLine() {
+        terminal.addLine("Type /help for more commands");
+        return terminal;
+    }
+}
@@ -0,0 +1,90 @@
+package com.ur91k.clichat.jmh;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON reports, such as those of two releases, benchmark by
+ * benchmark. A result counts as a regression when it is worse by more than
+ * the threshold and by more than the two runs' error margins combined.
+ *
+ * <pre>java -cp benchmarks.jar com.ur91k.clichat.jmh.CompareReports old.json new.json [threshold %]</pre>
+ *
+ * <p>Exits with status 1 if anything regressed, so a build can fail on it.</p>
+ */
+public class CompareReports {
+    private record Score(String mode, double score, double error, String unit) {
+        /** Throughput modes are better when higher; time modes when lower. */
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareReports <old.json> <new.json> [threshold %, default 10]");
+            System.exit(2);
+        }
+        Map<String, Score> before = read(Path.of(args[0]));
+        Map<String, Score> after = read(Path.of(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+
+        int regressions = 0;
+        System.out.printf("%-70s %14s %14s %9s%n", "Benchmark", "Old", "New", "Change");
+        for (Map.Entry<String, Score> entry : after.entrySet()) {
+            Score old = before.get(entry.getKey());
+            Score now = entry.getValue();
+            if (old == null || !old.unit().equals(now.unit())) {
+                System.out.printf("%-70s %14s %14.3f %9s%n", entry.getKey(), "-", now.score(), "new");
+                continue;
+            }
+            double change = (now.score() - old.score()) / old.score();
+            double worse = now.higherIsBetter() ? -change : change;
+            boolean regressed = worse > threshold && Math.abs(now.score() - old.score()) > old.error() + now.error();
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-70s %14.3f %14.3f %+8.1f%% %s%s%n", entry.getKey(), old.score(), now.score(),
+                change * 100, now.unit(), regressed ? "  REGRESSION" : "");
+        }
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) {
+                System.out.printf("%-70s %14.3f %14s %9s%n", name, before.get(name).score(), "-", "gone");
+            }
+        }
+        System.out.printf("%n%d regression(s) beyond %.0f%%%n", regressions, threshold * 100);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private static Map<String, Score> read(Path path) throws IOException {
+        JsonArray results = JsonParser.parseString(Files.readString(path)).getAsJsonArray();
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonElement element : results) {
+            JsonObject result = element.getAsJsonObject();
+            StringBuilder name = new StringBuilder(result.get("benchmark").getAsString()
+                .replace("com.ur91k.clichat.jmh.", ""));
+            if (result.has("params")) {
+                Map<String, String> params = new TreeMap<>();
+                for (Map.Entry<String, JsonElement> param : result.getAsJsonObject("params").entrySet()) {
+                    params.put(param.getKey(), param.getValue().getAsString());
+                }
+                name.append(' ').append(params);
+            }
+            JsonObject metric = result.getAsJsonObject("primaryMetric");
+            double error = metric.get("scoreError").isJsonPrimitive()
+                && metric.get("scoreError").getAsJsonPrimitive().isNumber() ? metric.get("scoreError").getAsDouble() : 0;
+            scores.put(name.toString(), new Score(result.get("mode").getAsString(), metric.get("score").getAsDouble(),
+                error, metric.get("scoreUnit").getAsString()));
+        }
+        return scores;
+    }
+}
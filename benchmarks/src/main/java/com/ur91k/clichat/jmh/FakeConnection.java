@@ -0,0 +1,95 @@
+package com.ur91k.clichat.jmh;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.protocols.IProtocol;
+
+import javax.net.ssl.SSLSession;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An open connection with no socket behind it. Frames sent to it are counted and dropped.
+ */
+class FakeConnection implements WebSocket {
+    private final InetSocketAddress address;
+    private final AtomicLong frames;
+    private Object attachment;
+
+    /**
+     * @param frames shared by all connections of a benchmark, so it can wait for a whole fan-out
+     */
+    FakeConnection(int id, AtomicLong frames) {
+        this.address = new InetSocketAddress("127.0.0.1", 10_000 + id);
+        this.frames = frames;
+    }
+
+    @Override
+    public void sendFrame(Framedata framedata) {
+        frames.incrementAndGet();
+    }
+
+    @Override
+    public void sendFrame(Collection<Framedata> frames) {
+        this.frames.addAndGet(frames.size());
+    }
+
+    @Override
+    public void send(String text) {
+        frames.incrementAndGet();
+    }
+
+    @Override
+    public void send(ByteBuffer bytes) {
+        frames.incrementAndGet();
+    }
+
+    @Override
+    public void send(byte[] bytes) {
+        frames.incrementAndGet();
+    }
+
+    @Override
+    public void sendFragmentedFrame(Opcode op, ByteBuffer buffer, boolean fin) {
+        frames.incrementAndGet();
+    }
+
+    @Override public void close(int code, String message) {}
+    @Override public void close(int code) {}
+    @Override public void close() {}
+    @Override public void closeConnection(int code, String message) {}
+    @Override public void sendPing() {}
+    @Override public boolean hasBufferedData() { return false; }
+    @Override public InetSocketAddress getRemoteSocketAddress() { return address; }
+    @Override public InetSocketAddress getLocalSocketAddress() { return null; }
+    @Override public boolean isOpen() { return true; }
+    @Override public boolean isClosing() { return false; }
+    @Override public boolean isFlushAndClose() { return false; }
+    @Override public boolean isClosed() { return false; }
+    @Override public Draft getDraft() { return null; }
+    @Override public ReadyState getReadyState() { return ReadyState.OPEN; }
+    @Override public String getResourceDescriptor() { return "/"; }
+    @Override public boolean hasSSLSupport() { return false; }
+    @Override public IProtocol getProtocol() { return null; }
+
+    @Override
+    public SSLSession getSSLSession() {
+        throw new IllegalArgumentException("Not an SSL connection");
+    }
+
+    @Override
+    public <T> void setAttachment(T attachment) {
+        this.attachment = attachment;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getAttachment() {
+        return (T) attachment;
+    }
+}
@@ -0,0 +1,94 @@
+package com.ur91k.clichat.jmh;
+
+import com.ur91k.clichat.net.ChatServer;
+import com.ur91k.clichat.net.Message;
+import com.ur91k.clichat.net.MessageAdapter;
+import com.ur91k.clichat.net.ServerOptions;
+import org.java_websocket.handshake.HandshakeImpl1Client;
+import org.joml.Vector4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One chat message through a {@link ChatServer}, from decode to a frame
+ * queued on every member of the room. Members are {@link FakeConnection}s,
+ * so the figure covers the server's own work and not the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanoutBenchmark {
+    @Param({"10", "100", "1000"})
+    public int members;
+
+    private final AtomicLong frames = new AtomicLong();
+    private ChatServer server;
+    private FakeConnection sender;
+    private String chat;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        ServerOptions options = new ServerOptions();
+        options.setBanFile(null);
+        options.setRateLimits(null);
+        options.setHistorySize(0);
+        server = new ChatServer("127.0.0.1", 0, options);
+
+        List<FakeConnection> connections = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            FakeConnection conn = new FakeConnection(i, frames);
+            server.onOpen(conn, new HandshakeImpl1Client());
+            server.onMessage(conn, MessageAdapter.GSON.toJson(
+                Message.join(conn.getRemoteSocketAddress().toString(), "user" + i, new Vector4f(1.0f))));
+            connections.add(conn);
+        }
+        awaitQuiet();
+        sender = connections.get(0);
+        chat = MessageAdapter.GSON.toJson(Message.chat(sender.getRemoteSocketAddress().toString(), "user0",
+            new Vector4f(1.0f), "the build is green again, thanks for fixing the flaky test"));
+    }
+
+    /** Waits for the join traffic to finish before measuring. */
+    private void awaitQuiet() throws InterruptedException {
+        long seen = -1;
+        while (frames.get() != seen) {
+            seen = frames.get();
+            Thread.sleep(200);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        server.stop(1000);
+    }
+
+    @Benchmark
+    public long broadcast() {
+        long target = frames.get() + members;
+        server.onMessage(sender, chat);
+        long delivered;
+        while ((delivered = frames.get()) < target) {
+            Thread.onSpinWait();
+        }
+        return delivered;
+    }
+}
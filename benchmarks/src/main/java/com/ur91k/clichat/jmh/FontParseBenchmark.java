@@ -0,0 +1,57 @@
+package com.ur91k.clichat.jmh;
+
+import com.ur91k.clichat.render.BDFFont;
+import com.ur91k.clichat.render.BitmapFont;
+import com.ur91k.clichat.render.FONFont;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the bundled BDF and FON fonts into glyph atlases, as the client does at startup.
+ * The font files are read into memory first, so disk speed does not count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FontParseBenchmark {
+    @Param({"spleen-8x16.bdf", "Bm437_HP_100LX_10x11.bdf", "Bm437_HP_100LX_10x11.FON",
+        "Bm437_TridentEarly_9x14.FON"})
+    public String font;
+
+    private byte[] bytes;
+    private boolean bdf;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = FontParseBenchmark.class.getClassLoader().getResourceAsStream("fonts/" + font)) {
+            if (in == null) {
+                throw new IOException("Font not found on the classpath: fonts/" + font);
+            }
+            bytes = in.readAllBytes();
+        }
+        bdf = font.endsWith(".bdf");
+    }
+
+    @Benchmark
+    public BitmapFont parse() {
+        InputStream in = new ByteArrayInputStream(bytes);
+        return bdf ? new BDFFont(in) : new FONFont(in);
+    }
+}
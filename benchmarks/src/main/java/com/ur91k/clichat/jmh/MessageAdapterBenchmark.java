@@ -0,0 +1,72 @@
+package com.ur91k.clichat.jmh;
+
+import com.ur91k.clichat.net.Message;
+import com.ur91k.clichat.net.MessageAdapter;
+import com.ur91k.clichat.net.Request;
+import org.joml.Vector4f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding and decoding of one chat message through {@link MessageAdapter},
+ * and decoding of the request a client sends for it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageAdapterBenchmark {
+    @Param({"16", "200", "2000"})
+    public int contentLength;
+
+    private Message message;
+    private String json;
+    private String requestJson;
+
+    @Setup
+    public void setUp() {
+        StringBuilder content = new StringBuilder(contentLength);
+        String words = "did you see that the server restarted again ";
+        while (content.length() < contentLength) {
+            content.append(words, 0, Math.min(words.length(), contentLength - content.length()));
+        }
+        message = Message.chat("/127.0.0.1:50412", "alice", new Vector4f(0.9f, 0.4f, 0.2f, 1.0f), content.toString());
+        message.setRoom("main_room");
+        json = MessageAdapter.GSON.toJson(message);
+        requestJson = MessageAdapter.GSON.toJson(Request.chat(content.toString()));
+    }
+
+    @Benchmark
+    public String serialize() {
+        return MessageAdapter.GSON.toJson(message);
+    }
+
+    @Benchmark
+    public Message deserialize() {
+        return MessageAdapter.GSON.fromJson(json, Message.class);
+    }
+
+    @Benchmark
+    public Request deserializeRequest() {
+        return MessageAdapter.GSON.fromJson(requestJson, Request.class);
+    }
+
+    /** A full message from an older client, read as a request. */
+    @Benchmark
+    public Request deserializeLegacyRequest() {
+        return MessageAdapter.GSON.fromJson(json, Request.class);
+    }
+}
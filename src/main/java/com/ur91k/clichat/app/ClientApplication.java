@@ -31,6 +31,7 @@ public class ClientApplication {
     private TextRenderer textRenderer;
     private ChatClient client;
     private ServerConfig serverConfig;
+    private String serverLabel = "";  // ip:port of the server last connected to
     private boolean running = true;
     private String username;
     private Vector4f userColor;
@@ -41,7 +42,8 @@ public class ClientApplication {
         PROFILE_LOGIN,
         DISCONNECTED,
         CONNECTING,
-        CONNECTED
+        CONNECTED,
+        RECONNECTING
     }
     private State currentState = State.PROFILE_SELECT;
     private UserProfileManager profileManager;
@@ -182,13 +184,15 @@ public class ClientApplication {
                 case PROFILE_LOGIN -> handleProfileLogin(input);
                 case DISCONNECTED -> handleDisconnectedInput(input);
                 case CONNECTING -> terminal.addLine("* Please wait while connecting...");
-                case CONNECTED -> {
+                case CONNECTED, RECONNECTING -> {
                     if (input.startsWith("/")) {
                         handleCommand(input);
-                    } else if (client != null && client.isConnected()) {
-                        client.sendMessage(input);
-                    } else {
-                        terminal.addLine("* Not connected to server");
+                    } else if (client == null || !client.sendMessage(input)) {
+                        terminal.addLine(currentState == State.RECONNECTING
+                            ? "* Too many messages waiting to be sent; this one was dropped"
+                            : "* Not connected to server");
+                    } else if (!client.isConnected()) {
+                        terminal.addLine("* Offline: will be sent once reconnected");
                     }
                 }
             }
@@ -323,6 +327,7 @@ public class ClientApplication {
                 if (currentState == State.DISCONNECTED) {
                     terminal.addLine("Available commands:");
                     terminal.addLine("/connect <ip:port> - Connect to a server");
+                    terminal.addLine("/reconnect - Resume your session after losing the connection");
                     terminal.addLine("/nick <name> - Change your nickname");
                     terminal.addLine("/color - Change your color randomly");
                     terminal.addLine("/quit - Exit the application");
@@ -330,6 +335,12 @@ public class ClientApplication {
                     terminal.addLine("Available commands:");
                     terminal.addLine("/nick <name> - Change your nickname");
                     terminal.addLine("/color - Change your color randomly");
+                    terminal.addLine("/join <room> - Switch to a room, creating it if needed");
+                    terminal.addLine("/part - Return to the default room");
+                    terminal.addLine("/list - List open rooms");
+                    terminal.addLine("/msg <user> <message> - Send a private message");
+                    terminal.addLine("/search <words> [from:<user>] [since:2h] [page:<n>] - Search room history");
+                    terminal.addLine("/reconnect - Try to reconnect now instead of waiting");
                     terminal.addLine("/disconnect - Disconnect from server");
                     terminal.addLine("/quit - Exit the application");
                 }
@@ -338,11 +349,12 @@ public class ClientApplication {
                 
             case "/nick":
                 if (!args.isEmpty()) {
-                    username = args;
-                    terminal.setUsername(username);
-                    if (client != null && client.isConnected()) {
+                    if (hasSession()) {
+                        // Applied when the server confirms the new name
                         client.changeNickname(args);
                     } else {
+                        username = args;
+                        terminal.setUsername(username);
                         terminal.addLine("* Nickname changed to: " + username);
                         showServerSelection();
                     }
@@ -388,7 +400,7 @@ public class ClientApplication {
                 }
                 
                 // Update client if connected
-                if (client != null && client.isConnected()) {
+                if (hasSession()) {
                     client.changeColor(newColor);
                 } else {
                     terminal.addLine("* Color changed");
@@ -415,10 +427,26 @@ public class ClientApplication {
                 }
                 break;
                 
+            case "/reconnect":
+                if (currentState == State.RECONNECTING) {
+                    if (!client.reconnectNow()) {
+                        terminal.addLine("* Already trying to reconnect");
+                    }
+                } else if (client != null && client.canResume()) {
+                    currentState = State.CONNECTING;
+                    terminal.setConnectionInfo("CONNECTING", "");
+                    terminal.addLine("Reconnecting...");
+                    client.reconnect();
+                } else {
+                    terminal.addLine("* No session to resume. Connect to a server instead");
+                }
+                break;
+                
             case "/disconnect":
                 if (client != null) {
-                    client.close();
+                    ChatClient closing = client;
                     client = null;
+                    closing.disconnect();
                 }
                 currentState = State.DISCONNECTED;
                 showServerSelection();
@@ -429,7 +457,7 @@ public class ClientApplication {
                 break;
                 
             default:
-                if (client != null && client.isConnected()) {
+                if (hasSession()) {
                     client.sendCommand(input);
                 } else {
                     terminal.addLine("* Unknown command. Type /help for available commands");
@@ -438,17 +466,47 @@ public class ClientApplication {
         }
     }
     
+    /**
+     * True while connected or reconnecting; requests made while reconnecting
+     * are sent once the session is back.
+     */
+    private boolean hasSession() {
+        return client != null && (client.isConnected() || client.isReconnecting());
+    }
+    
     private void loop() {
         while (running && !window.shouldClose()) {
+            if (currentState == State.RECONNECTING) {
+                showReconnectCountdown();
+            }
             glClear(GL_COLOR_BUFFER_BIT);
             terminal.render();
             window.update();
         }
     }
     
+    /**
+     * Shows the reconnect attempt and the seconds left before it in the status bar.
+     */
+    private void showReconnectCountdown() {
+        ChatClient reconnecting = client;
+        if (reconnecting == null) {
+            return;
+        }
+        long wait = reconnecting.getReconnectDelayMillis();
+        int queued = reconnecting.getQueuedRequests();
+        String status = wait > 0
+            ? String.format("RECONNECTING in %ds (attempt %d)", (wait + 999) / 1000, reconnecting.getReconnectAttempt())
+            : String.format("RECONNECTING (attempt %d)", reconnecting.getReconnectAttempt());
+        if (queued > 0) {
+            status += ", " + queued + " queued";
+        }
+        terminal.setConnectionInfo(status, serverLabel);
+    }
+    
     private void cleanup() {
         if (client != null) {
-            client.close();
+            client.disconnect();
         }
         window.cleanup();
         glfwTerminate();
@@ -503,7 +561,8 @@ public class ClientApplication {
                 this::handleConnectionStatus);
             client.connect();
             currentState = State.CONNECTING;
-            terminal.setConnectionInfo("CONNECTING", ip + ":" + port);
+            serverLabel = ip + ":" + port;
+            terminal.setConnectionInfo("CONNECTING", serverLabel);
             terminal.addLine("Connecting to server...");
         } catch (Exception e) {
             terminal.addLine("Error connecting to server: " + e.getMessage());
@@ -517,17 +576,38 @@ public class ClientApplication {
         
         // Update room info if it's a room update
         if (message.getType() == Message.Type.ROOM_UPDATE) {
-            String roomName = message.getNewValue().split(";")[0];
-            terminal.setRoomInfo(roomName, client.getRoomColor());
+            terminal.setRoomInfo(client.getRoomName(), client.getRoomColor());
+        } else if (message.getType() == Message.Type.NICK_CHANGE && !client.getUsername().equals(username)) {
+            username = client.getUsername();
+            terminal.setUsername(username);
         }
     }
     
     private void handleConnectionStatus(String status) {
         if (status.equals("CONNECTED")) {
+            if (currentState == State.RECONNECTING) {
+                terminal.addLine("* Reconnected");
+            }
             currentState = State.CONNECTED;
+        } else if (status.equals("RECONNECTING")) {
+            if (currentState != State.RECONNECTING && client != null) {
+                String reason = client.getCloseReason();
+                terminal.addLine("* Connection lost" + (reason.isEmpty() ? "" : ": " + reason)
+                    + ". Reconnecting...");
+            }
+            currentState = State.RECONNECTING;
+            return;  // The status bar counts down from the render loop
         } else if (status.equals("DISCONNECTED")) {
             currentState = State.DISCONNECTED;
-            showServerSelection();
+            if (client != null && client.canResume()) {
+                // Keep the conversation on screen; the server holds the session for a while
+                terminal.addLine("* Connection lost. Type /reconnect to pick up where you left off");
+            } else {
+                showServerSelection();
+                if (client != null && !client.getCloseReason().isEmpty()) {
+                    terminal.addLine("* Disconnected: " + client.getCloseReason());
+                }
+            }
         }
         terminal.setConnectionInfo(status, client != null && client.isConnected() ? 
             client.getServerAddress() : "");
@@ -0,0 +1,78 @@
+package com.ur91k.clichat.app;
+
+import com.ur91k.clichat.net.ChatServer;
+import com.ur91k.clichat.net.ServerOptions;
+import com.ur91k.clichat.util.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the chat server without a window, reading operator commands from stdin.
+ * Nothing here may touch LWJGL so the server can run on machines without a display or GPU.
+ */
+public class HeadlessServerApplication {
+    private static final Logger logger = Logger.getLogger(HeadlessServerApplication.class);
+
+    private final String ip;
+    private final int port;
+    private final ServerOptions options;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private ChatServer server;
+
+    public HeadlessServerApplication(String ip, int port, ServerOptions options) {
+        this.ip = ip;
+        this.port = port;
+        this.options = options;
+    }
+
+    public void run() {
+        server = new ChatServer(ip, port, options);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::cleanup, "server-shutdown"));
+
+        logger.info("Listening for connections on {}:{}", ip, port);
+        logger.info("Type /help for available commands");
+
+        ServerCommands commands = new ServerCommands(server, System.out::println, stopped::countDown);
+        Thread console = new Thread(() -> readConsole(commands), "server-console");
+        console.setDaemon(true);
+        console.start();
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cleanup();
+    }
+
+    private void readConsole(ServerCommands commands) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+            String line;
+            while (stopped.getCount() > 0 && (line = reader.readLine()) != null) {
+                commands.handle(line);
+            }
+        } catch (IOException e) {
+            logger.error("Error reading console: {}", e.getMessage());
+        }
+        // stdin closed (e.g. running under a service manager); keep serving until killed
+        logger.debug("Console input closed");
+    }
+
+    private synchronized void cleanup() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+        stopped.countDown();
+        logger.info("Server stopped");
+    }
+}
@@ -4,6 +4,7 @@ import com.ur91k.clichat.render.TextRenderer;
 import com.ur91k.clichat.render.Window;
 import com.ur91k.clichat.terminal.ChatTerminal;
 import com.ur91k.clichat.net.ChatServer;
+import com.ur91k.clichat.net.ServerOptions;
 import org.lwjgl.glfw.GLFWCharCallback;
 import org.lwjgl.glfw.GLFWKeyCallback;
 import org.lwjgl.opengl.GL;
@@ -18,15 +19,18 @@ public class ServerApplication {
     
     private final String ip;
     private final int port;
+    private final ServerOptions options;
     private Window window;
     private ChatTerminal terminal;
     private TextRenderer textRenderer;
     private ChatServer server;
+    private ServerCommands commands;
     private boolean running = true;
     
-    public ServerApplication(String ip, int port) {
+    public ServerApplication(String ip, int port, ServerOptions options) {
         this.ip = ip;
         this.port = port;
+        this.options = options;
     }
     
     public void run() {
@@ -90,10 +94,11 @@ public class ServerApplication {
         
         // Start the server
         try {
-            server = new ChatServer(ip, port);
+            server = new ChatServer(ip, port, options);
             server.start();
+            commands = new ServerCommands(server, terminal::addLine, () -> running = false);
             terminal.setConnectionInfo("LISTENING", ip + ":" + port);
-            terminal.setRoomInfo("main_room", new Vector4f(0.6f, 0.8f, 1.0f, 1.0f));
+            terminal.setRoomInfo(server.getRoomName(), server.getRoomColor());
             
             // Add welcome messages
             terminal.addLine("Server started");
@@ -105,40 +110,10 @@ public class ServerApplication {
         }
     }
     
-    @SuppressWarnings("unused")
     private void handleCommand() {
         String input = terminal.getCurrentInput().trim();
         if (!input.isEmpty()) {
-            if (input.startsWith("/")) {
-                String[] parts = input.split("\\s+", 2);
-                String command = parts[0].toLowerCase();
-                String args = parts.length > 1 ? parts[1] : "";
-                
-                switch (command) {
-                    case "/help":
-                        terminal.addLine("Available commands:");
-                        terminal.addLine("/kick <user> - Kick a user from the server");
-                        terminal.addLine("/ban <user> - Ban a user by name");
-                        terminal.addLine("/banip <ip> - Ban an IP address");
-                        terminal.addLine("/unban <user|ip> - Remove a ban");
-                        terminal.addLine("/op <user> - Give operator status");
-                        terminal.addLine("/deop <user> - Remove operator status");
-                        terminal.addLine("/list - List connected users");
-                        terminal.addLine("/stop - Stop the server");
-                        break;
-                    case "/stop":
-                        terminal.addLine("Stopping server...");
-                        running = false;
-                        break;
-                    case "/list":
-                        // TODO: Implement user listing
-                        terminal.addLine("No users connected");
-                        break;
-                    default:
-                        terminal.addLine("Unknown command. Type /help for available commands");
-                        break;
-                }
-            }
+            commands.handle(input);
             terminal.clearInput();
         }
     }
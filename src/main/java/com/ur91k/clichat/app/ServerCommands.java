@@ -0,0 +1,152 @@
+package com.ur91k.clichat.app;
+
+import com.ur91k.clichat.net.ChatServer;
+import com.ur91k.clichat.net.MessagePipeline;
+import com.ur91k.clichat.net.Room;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Console commands for server operators.
+ * Shared by the windowed server and the headless runtime, so it must not
+ * depend on anything in the render or terminal packages.
+ */
+public class ServerCommands {
+    private static final String CONSOLE_NAME = "SERVER";
+
+    private final ChatServer server;
+    private final Consumer<String> output;
+    private final Runnable onStop;
+
+    public ServerCommands(ChatServer server, Consumer<String> output, Runnable onStop) {
+        this.server = server;
+        this.output = output;
+        this.onStop = onStop;
+    }
+
+    /**
+     * Handles a single line of operator input.
+     */
+    public void handle(String input) {
+        input = input.trim();
+        if (input.isEmpty()) {
+            return;
+        }
+        if (!input.startsWith("/")) {
+            output.accept("Unknown command. Type /help for available commands");
+            return;
+        }
+
+        String[] parts = input.split("\\s+", 2);
+        String command = parts[0].toLowerCase();
+        String args = parts.length > 1 ? parts[1].trim() : "";
+
+        switch (command) {
+            case "/help":
+                output.accept("Available commands:");
+                output.accept("/kick <user> - Kick a user from the server");
+                output.accept("/ban <user> - Ban a user by name");
+                output.accept("/banip <ip>[/<bits>] - Ban an IP address or range");
+                output.accept("/unban <user|ip> - Remove a ban");
+                output.accept("/bans - List bans");
+                output.accept("/op <user> - Give operator status");
+                output.accept("/deop <user> - Remove operator status");
+                output.accept("/list - List connected users");
+                output.accept("/rooms - List open rooms");
+                output.accept("/pipeline - Show message pipeline queue depths");
+                output.accept("/stats - Show traffic, latency and queue depths");
+                output.accept("/cluster - Show cluster nodes and links");
+                output.accept("/stop - Stop the server");
+                break;
+            case "/stop":
+                output.accept("Stopping server...");
+                onStop.run();
+                break;
+            case "/list":
+                List<String> users = server.getUserNames();
+                if (users.isEmpty()) {
+                    output.accept("No users connected");
+                } else {
+                    output.accept("Connected users (" + users.size() + "): " + String.join(", ", users));
+                }
+                break;
+            case "/rooms":
+                for (Room room : server.getRooms()) {
+                    output.accept("#" + room.getId() + " - " + room.getMemberCount() + " member(s)");
+                }
+                break;
+            case "/pipeline":
+                MessagePipeline pipeline = server.getPipeline();
+                output.accept("inbound: " + server.getInboundPending() + " waiting");
+                for (MessagePipeline.StageStats stage : pipeline.getStats()) {
+                    output.accept(String.format("%s: %d waiting, %d handled in %d batches", stage.name(), stage.depth(),
+                        stage.events(), stage.batches()));
+                }
+                output.accept("Ring: " + pipeline.getCapacity() + " slots, full " + pipeline.getFullWaits() + " time(s)");
+                break;
+            case "/stats":
+                server.getStatsLines().forEach(output);
+                break;
+            case "/cluster":
+                if (server.getCluster() == null) {
+                    output.accept("Not running as part of a cluster");
+                } else {
+                    server.getCluster().describe().forEach(output);
+                }
+                break;
+            case "/kick":
+                if (requireArgument(args, "/kick <user>") && !server.kick(args, CONSOLE_NAME)) {
+                    output.accept("User not found: " + args);
+                }
+                break;
+            case "/op":
+                if (requireArgument(args, "/op <user>") && !server.setOp(args, true)) {
+                    output.accept("User not found: " + args);
+                }
+                break;
+            case "/deop":
+                if (requireArgument(args, "/deop <user>") && !server.setOp(args, false)) {
+                    output.accept("User not found: " + args);
+                }
+                break;
+            case "/ban":
+                if (requireArgument(args, "/ban <user>")) {
+                    output.accept(server.ban(args, CONSOLE_NAME) ? "Banned " + args : args + " is already banned");
+                }
+                break;
+            case "/banip":
+                if (requireArgument(args, "/banip <ip>[/<bits>]")) {
+                    try {
+                        String banned = server.banAddress(args, CONSOLE_NAME);
+                        output.accept(banned != null ? "Banned " + banned : args + " is already banned");
+                    } catch (IllegalArgumentException e) {
+                        output.accept(e.getMessage());
+                    }
+                }
+                break;
+            case "/unban":
+                if (requireArgument(args, "/unban <user|ip>")) {
+                    output.accept(server.unban(args) ? "Unbanned " + args : "No ban matches " + args);
+                }
+                break;
+            case "/bans":
+                List<String> names = server.getBans().getNames();
+                List<String> addresses = server.getBans().getAddresses();
+                output.accept("Banned names: " + (names.isEmpty() ? "none" : String.join(", ", names)));
+                output.accept("Banned addresses: " + (addresses.isEmpty() ? "none" : String.join(", ", addresses)));
+                break;
+            default:
+                output.accept("Unknown command. Type /help for available commands");
+                break;
+        }
+    }
+
+    private boolean requireArgument(String args, String usage) {
+        if (args.isEmpty()) {
+            output.accept("Usage: " + usage);
+            return false;
+        }
+        return true;
+    }
+}
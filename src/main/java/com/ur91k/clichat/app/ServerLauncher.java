@@ -1,5 +1,12 @@
 package com.ur91k.clichat.app;
 
+import com.ur91k.clichat.net.BatchSettings;
+import com.ur91k.clichat.net.ClusterSettings;
+import com.ur91k.clichat.net.DeflateSettings;
+import com.ur91k.clichat.net.OutboundSettings;
+import com.ur91k.clichat.net.RateLimitSettings;
+import com.ur91k.clichat.net.ServerOptions;
+import com.ur91k.clichat.store.LogSettings;
 import com.ur91k.clichat.util.Logger;
 
 public class ServerLauncher {
@@ -13,6 +20,8 @@ public class ServerLauncher {
         // Parse command line arguments
         String ip = "0.0.0.0";  // Default to all interfaces
         int port = 8887;        // Default port
+        boolean headless = false;
+        ServerOptions options = new ServerOptions();
         
         for (int i = 0; i < args.length; i++) {
             switch (args[i].toLowerCase()) {
@@ -39,8 +48,113 @@ public class ServerLauncher {
                     System.exit(0);
                     break;
                 case "--no-gui":
-                    // TODO: Implement headless mode
-                    logger.warn("Headless mode not implemented yet");
+                    headless = true;
+                    break;
+                case "--ban-file":
+                    if (i + 1 < args.length) {
+                        options.setBanFile(args[++i]);
+                    }
+                    break;
+                case "--no-ban-file":
+                    options.setBanFile(null);
+                    break;
+                case "--history":
+                    options.setHistorySize(intArgument(args, ++i));
+                    break;
+                case "--fanout-threads":
+                    options.setFanoutThreads(intArgument(args, ++i));
+                    break;
+                case "--handler-threads":
+                    options.setHandlerThreads(intArgument(args, ++i));
+                    break;
+                case "--pipeline-size":
+                    options.setPipelineCapacity(intArgument(args, ++i));
+                    break;
+                case "--resume-grace":
+                    options.setResumeGraceMillis(intArgument(args, ++i));
+                    break;
+                case "--metrics-port":
+                    options.setMetricsPort(intArgument(args, ++i));
+                    break;
+                case "--queue-max-messages":
+                    options.getOutbound().setMaxMessages(intArgument(args, ++i));
+                    break;
+                case "--queue-max-bytes":
+                    options.getOutbound().setMaxBytes(intArgument(args, ++i));
+                    break;
+                case "--slow-consumer":
+                    options.getOutbound().setPolicy(policyArgument(args, ++i));
+                    break;
+                case "--no-rate-limit":
+                    options.setRateLimits(null);
+                    break;
+                case "--limit-chat":
+                    rateLimits(options).setChat(limitArgument(args, ++i));
+                    break;
+                case "--limit-nick":
+                    rateLimits(options).setNick(limitArgument(args, ++i));
+                    break;
+                case "--limit-color":
+                    rateLimits(options).setColor(limitArgument(args, ++i));
+                    break;
+                case "--limit-strikes":
+                    rateLimits(options).setStrikes(limitArgument(args, ++i));
+                    break;
+                case "--batch":
+                    batch(options);
+                    break;
+                case "--batch-window":
+                    batch(options).setWindowMillis(intArgument(args, ++i));
+                    break;
+                case "--batch-max-messages":
+                    batch(options).setMaxMessages(intArgument(args, ++i));
+                    break;
+                case "--batch-max-bytes":
+                    batch(options).setMaxBytes(intArgument(args, ++i));
+                    break;
+                case "--log-dir":
+                    if (i + 1 < args.length) {
+                        log(options).setDirectory(args[++i]);
+                    }
+                    break;
+                case "--log-segment-bytes":
+                    log(options).setSegmentBytes(intArgument(args, ++i));
+                    break;
+                case "--log-fsync":
+                    log(options).setFsyncPolicy(fsyncArgument(args, ++i));
+                    break;
+                case "--log-fsync-interval":
+                    log(options).setFsyncIntervalMillis(intArgument(args, ++i));
+                    break;
+                case "--cluster":
+                    if (i + 1 < args.length) {
+                        cluster(options).setNodes(args[++i]);
+                    }
+                    break;
+                case "--node":
+                    if (i + 1 < args.length) {
+                        cluster(options).setNode(args[++i]);
+                    }
+                    break;
+                case "--cluster-secret":
+                    if (i + 1 < args.length) {
+                        cluster(options).setSecret(args[++i]);
+                    }
+                    break;
+                case "--deflate":
+                    deflate(options);
+                    break;
+                case "--deflate-context-takeover":
+                    deflate(options).setContextTakeover(true);
+                    break;
+                case "--deflate-window-bits":
+                    deflate(options).setWindowBits(intArgument(args, ++i));
+                    break;
+                case "--deflate-threshold":
+                    deflate(options).setThreshold(intArgument(args, ++i));
+                    break;
+                case "--deflate-level":
+                    deflate(options).setLevel(intArgument(args, ++i));
                     break;
                 default:
                     logger.warn("Unknown argument: {}", args[i]);
@@ -48,10 +162,126 @@ public class ServerLauncher {
             }
         }
         
+        if (options.getCluster() != null && options.getCluster().getSecret() == null) {
+            logger.error("Cluster mode needs --cluster-secret: without it anyone could link up as a node");
+            System.exit(1);
+        }
+
+        // Headless-only builds ship without LWJGL, so fall back instead of failing to load GLFW
+        if (!headless && !isGuiAvailable()) {
+            logger.info("LWJGL not found on classpath, starting in headless mode");
+            headless = true;
+        }
+        
         // Start server
         logger.info("Starting server on {}:{}", ip, port);
-        ServerApplication server = new ServerApplication(ip, port);
-        server.run();
+        if (headless) {
+            new HeadlessServerApplication(ip, port, options).run();
+        } else {
+            new ServerApplication(ip, port, options).run();
+        }
+    }
+    
+    private static DeflateSettings deflate(ServerOptions options) {
+        if (options.getDeflate() == null) {
+            options.setDeflate(new DeflateSettings());
+        }
+        return options.getDeflate();
+    }
+    
+    private static BatchSettings batch(ServerOptions options) {
+        if (options.getBatch() == null) {
+            options.setBatch(new BatchSettings());
+        }
+        return options.getBatch();
+    }
+    
+    private static RateLimitSettings rateLimits(ServerOptions options) {
+        if (options.getRateLimits() == null) {
+            options.setRateLimits(new RateLimitSettings());
+        }
+        return options.getRateLimits();
+    }
+    
+    private static ClusterSettings cluster(ServerOptions options) {
+        if (options.getCluster() == null) {
+            options.setCluster(new ClusterSettings());
+        }
+        return options.getCluster();
+    }
+    
+    private static LogSettings log(ServerOptions options) {
+        if (options.getLog() == null) {
+            options.setLog(new LogSettings());
+        }
+        return options.getLog();
+    }
+    
+    private static LogSettings.FsyncPolicy fsyncArgument(String[] args, int index) {
+        if (index >= args.length) {
+            logger.error("Missing value for {}", args[index - 1]);
+            System.exit(1);
+        }
+        try {
+            return LogSettings.FsyncPolicy.valueOf(args[index].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid fsync policy for {}: {} (expected always, interval or never)",
+                args[index - 1], args[index]);
+            System.exit(1);
+            return null;
+        }
+    }
+    
+    private static RateLimitSettings.Limit limitArgument(String[] args, int index) {
+        if (index >= args.length) {
+            logger.error("Missing value for {}", args[index - 1]);
+            System.exit(1);
+        }
+        try {
+            return RateLimitSettings.Limit.parse(args[index]);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid limit for {}: {} (expected rate:burst, e.g. 5:10)", args[index - 1], args[index]);
+            System.exit(1);
+            return null;
+        }
+    }
+    
+    private static int intArgument(String[] args, int index) {
+        if (index >= args.length) {
+            logger.error("Missing value for {}", args[index - 1]);
+            System.exit(1);
+        }
+        try {
+            return Integer.parseInt(args[index]);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid number for {}: {}", args[index - 1], args[index]);
+            System.exit(1);
+            return 0;
+        }
+    }
+    
+    private static OutboundSettings.Policy policyArgument(String[] args, int index) {
+        if (index >= args.length) {
+            logger.error("Missing value for {}", args[index - 1]);
+            System.exit(1);
+        }
+        try {
+            return OutboundSettings.Policy.valueOf(args[index].toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid policy for {}: {} (expected drop-oldest, coalesce or disconnect)",
+                args[index - 1], args[index]);
+            System.exit(1);
+            return null;
+        }
+    }
+    
+    private static boolean isGuiAvailable() {
+        try {
+            Class.forName("org.lwjgl.glfw.GLFW", false, ServerLauncher.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
     }
     
     private static void printHelp() {
@@ -63,6 +293,60 @@ public class ServerLauncher {
         System.out.println("  --port <port>     Port to listen on (default: 8887)");
         System.out.println("  --debug           Enable debug logging");
         System.out.println("  --no-gui          Run in headless mode (no terminal UI)");
+        System.out.println("  --fanout-threads <n> Threads delivering room broadcasts (default: CPU count)");
+        System.out.println("  --handler-threads <n> Threads decoding and handling client messages, 0 for the network");
+        System.out.println("                    thread (default: CPU count)");
+        System.out.println("  --metrics-port <port> Serve Prometheus metrics at http://127.0.0.1:<port>/metrics");
+        System.out.println("  --pipeline-size <n> Ring slots between handling and fan-out, a power of two (default: 16384)");
+        System.out.println("  --ban-file <path> File bans are kept in (default: bans.json)");
+        System.out.println("  --history <n>     Chat messages replayed to clients joining a room, 0 to disable (default: 50)");
+        System.out.println("  --no-ban-file     Keep bans in memory only");
+        System.out.println("  --resume-grace <ms> How long a dropped client may resume its session before it is");
+        System.out.println("                    announced as gone, 0 to disable (default: 60000)");
+        System.out.println();
+        System.out.println("Slow clients:");
+        System.out.println("  --queue-max-messages <n>    Frames that may wait for one client (default: 1024)");
+        System.out.println("  --queue-max-bytes <bytes>   Bytes that may wait for one client (default: 1048576)");
+        System.out.println("  --slow-consumer <policy>    When a queue is full: drop-oldest, coalesce or disconnect");
+        System.out.println("                              (default: drop-oldest)");
+        System.out.println();
+        System.out.println("Flood limits (rate per second:burst):");
+        System.out.println("  --limit-chat <r:b>          Chat messages and commands (default: 5:10)");
+        System.out.println("  --limit-nick <r:b>          Nickname changes (default: 0.1:3)");
+        System.out.println("  --limit-color <r:b>         Color changes (default: 0.2:5)");
+        System.out.println("  --limit-strikes <r:b>       Refusals forgiven per second:refusals before disconnect");
+        System.out.println("                              (default: 0.033:10)");
+        System.out.println("  --no-rate-limit             Disable flood limits");
+        System.out.println();
+        System.out.println("Batching (clients that support it get bursts in one frame):");
+        System.out.println("  --batch                     Enable batching of room broadcasts");
+        System.out.println("  --batch-window <ms>         Longest a broadcast is held back (default: 10)");
+        System.out.println("  --batch-max-messages <n>    Send a batch once it has this many messages (default: 64)");
+        System.out.println("  --batch-max-bytes <bytes>   Send a batch once it reaches this size (default: 65536)");
+        System.out.println();
+        System.out.println("Chat log (any of these enables it):");
+        System.out.println("  --log-dir <path>            Directory for log segments (default: chatlog)");
+        System.out.println("  --log-segment-bytes <bytes> Start a new segment at this size (default: 67108864)");
+        System.out.println("  --log-fsync <policy>        always (every group commit), interval or never");
+        System.out.println("                              (default: interval). If the writer falls behind, always");
+        System.out.println("                              holds up rooms until it catches up; interval and never");
+        System.out.println("                              drop records instead and count them in the stats");
+        System.out.println("  --log-fsync-interval <ms>   Longest gap between fsyncs for interval (default: 1000)");
+        System.out.println();
+        System.out.println("Cluster (rooms are spread over the nodes; users on any node share them):");
+        System.out.println("  --cluster <host:port,...>   Every node's address, the same list on each node");
+        System.out.println("  --node <host:port>          This node's address from that list");
+        System.out.println("  --cluster-secret <secret>   Shared secret nodes must present to link up (required)");
+        System.out.println("                              Links are unencrypted ws://: keep the nodes on a private");
+        System.out.println("                              network or tunnel their ports over TLS");
+        System.out.println();
+        System.out.println("Compression (permessage-deflate):");
+        System.out.println("  --deflate                   Enable compression for clients that offer it");
+        System.out.println("  --deflate-context-takeover  Keep a compression window per connection");
+        System.out.println("                              (smaller frames, one compression pass per recipient)");
+        System.out.println("  --deflate-window-bits <n>   Largest window clients may compress with, 8-15 (default: 15)");
+        System.out.println("  --deflate-threshold <bytes> Send smaller payloads uncompressed (default: 128)");
+        System.out.println("  --deflate-level <n>         Compression level 0-9, -1 for default (default: -1)");
         System.out.println("  --help            Show this help message");
     }
 } 
\ No newline at end of file
@@ -0,0 +1,112 @@
+package com.ur91k.clichat.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of durations in nanoseconds, cheap enough to record on hot paths.
+ *
+ * <p>Buckets are log-linear in the manner of an HDR histogram: each power of
+ * two is split into 16 equal buckets, so any reported percentile is within
+ * about 6% of the true value, from nanoseconds up to hours, in a fixed few
+ * hundred counters. Each counter is a {@link LongAdder}, so threads recording
+ * at the same time rarely contend.</p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 43;  // 2^44 ns is almost five hours; longer values share the top bucket
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one duration. Negative values count as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[index(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Records the time since {@code startNanos}, a {@link System#nanoTime()} reading. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        int sub = (value >>> (MAX_EXPONENT + 1)) != 0
+            ? SUB_COUNT - 1
+            : (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /** Largest value that lands in a bucket. */
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        long low = (long) (SUB_COUNT + index % SUB_COUNT) << (exponent - SUB_BITS);
+        return low + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Copies the current counts. Recording can continue meanwhile, so the copy
+     * may be off by the few values recorded while it was taken.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts[i].sum();
+            total += copy[i];
+        }
+        return new Snapshot(total, sum.sum(), max.get(), copy);
+    }
+
+    /**
+     * A point-in-time copy of a histogram.
+     *
+     * @param count values recorded
+     * @param sum their total, in nanoseconds
+     * @param max the largest, in nanoseconds
+     */
+    public record Snapshot(long count, long sum, long max, long[] counts) {
+        /**
+         * Returns the value at or below which the given fraction of recorded values fall, in nanoseconds.
+         */
+        public long percentile(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        /** Mean of the recorded values in nanoseconds, or 0 if there are none. */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ur91k.clichat.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Named counters, gauges and latency histograms, written out in the Prometheus text format.
+ *
+ * <p>Registration takes a lock and is meant for startup. Updating a counter
+ * or histogram afterwards is lock-free, and gauges are only read when the
+ * registry is written out. Labels are given as alternating names and
+ * values.</p>
+ */
+public class MetricsRegistry {
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    private enum Kind { COUNTER, GAUGE, SUMMARY }
+
+    private record Series(String labels, Object source) {}
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Kind kind;
+        final List<Series> series = new ArrayList<>();
+
+        Family(String name, String help, Kind kind) {
+            this.name = name;
+            this.help = help;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Registers a counter.
+     */
+    public synchronized LongAdder counter(String name, String help, String... labels) {
+        LongAdder counter = new LongAdder();
+        add(name, help, Kind.COUNTER, labels, counter);
+        return counter;
+    }
+
+    /**
+     * Registers a counter kept elsewhere, read when the registry is written out.
+     */
+    public synchronized void counter(String name, String help, LongSupplier value, String... labels) {
+        add(name, help, Kind.COUNTER, labels, value);
+    }
+
+    /**
+     * Registers a gauge, read when the registry is written out.
+     */
+    public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+        add(name, help, Kind.GAUGE, labels, value);
+    }
+
+    /**
+     * Registers a latency histogram, written out in seconds as a summary with quantiles.
+     */
+    public synchronized LatencyHistogram histogram(String name, String help, String... labels) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        add(name, help, Kind.SUMMARY, labels, histogram);
+        return histogram;
+    }
+
+    private void add(String name, String help, Kind kind, String[] labels, Object source) {
+        if (!NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs: " + name);
+        }
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, kind));
+        if (family.kind != kind) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a "
+                + family.kind.name().toLowerCase(Locale.ROOT));
+        }
+        String rendered = renderLabels(labels);
+        for (Series existing : family.series) {
+            if (existing.labels().equals(rendered)) {
+                throw new IllegalArgumentException("Metric " + name + rendered + " is already registered");
+            }
+        }
+        family.series.add(new Series(rendered, source));
+    }
+
+    private static String renderLabels(String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (!NAME.matcher(labels[i]).matches()) {
+                throw new IllegalArgumentException("Invalid label name: " + labels[i]);
+            }
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format, version 0.0.4.
+     */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\n", " ")).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ')
+                .append(family.kind.name().toLowerCase(Locale.ROOT)).append('\n');
+            for (Series series : family.series) {
+                if (family.kind == Kind.SUMMARY) {
+                    writeSummary(out, family.name, series.labels(), ((LatencyHistogram) series.source()).snapshot());
+                } else {
+                    out.append(family.name).append(series.labels()).append(' ').append(value(series)).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeSummary(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (double quantile : QUANTILES) {
+            out.append(name).append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                .append(seconds(snapshot.percentile(quantile))).append('\n');
+        }
+        out.append(name).append("_sum").append(labels).append(' ').append(seconds(snapshot.sum())).append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(snapshot.count()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static long value(Series series) {
+        if (series.source() instanceof LongAdder adder) {
+            return adder.sum();
+        }
+        return ((LongSupplier) series.source()).getAsLong();
+    }
+}
@@ -0,0 +1,175 @@
+package com.ur91k.clichat.net;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.ur91k.clichat.util.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Banned nicknames and address ranges, optionally kept in a JSON file.
+ *
+ * <p>Address checks run on the selector thread for every accepted socket, so
+ * they read an immutable {@link CidrTrie} through a volatile field and never
+ * lock. Changes are rare: they rebuild the trie and swap it in.</p>
+ */
+public class BanList {
+    private static final Logger logger = Logger.getLogger(BanList.class);
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Path file;  // null = not persisted
+    private final Set<String> names = new TreeSet<>();                   // Guarded by this
+    private final Set<CidrTrie.Prefix> ranges = new LinkedHashSet<>();  // Guarded by this
+    private volatile CidrTrie trie = new CidrTrie();
+
+    private static class Stored {
+        List<String> names = new ArrayList<>();
+        List<String> addresses = new ArrayList<>();
+    }
+
+    public BanList(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Replaces the bans with the ones in the file, if it exists. Bad entries are logged and skipped.
+     */
+    public synchronized void load() {
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        Stored stored;
+        try (Reader reader = Files.newBufferedReader(file)) {
+            stored = GSON.fromJson(reader, Stored.class);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error loading bans from {}: {}", file, e.getMessage());
+            return;
+        }
+        names.clear();
+        ranges.clear();
+        if (stored != null && stored.names != null) {
+            for (String name : stored.names) {
+                names.add(normalize(name));
+            }
+        }
+        if (stored != null && stored.addresses != null) {
+            for (String address : stored.addresses) {
+                try {
+                    ranges.add(CidrTrie.Prefix.parse(address));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Skipping bad ban entry in {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        rebuild();
+        logger.info("Loaded {} name and {} address bans from {}", names.size(), ranges.size(), file);
+    }
+
+    /**
+     * Returns true if the address is inside a banned range. Never blocks.
+     */
+    public boolean isBanned(InetAddress address) {
+        return trie.contains(address);
+    }
+
+    public synchronized boolean isNameBanned(String name) {
+        return names.contains(normalize(name));
+    }
+
+    /**
+     * @return false if the name was already banned
+     */
+    public synchronized boolean banName(String name) {
+        if (!names.add(normalize(name))) {
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    /**
+     * Bans an address or CIDR range.
+     *
+     * @return the range as stored, or null if it was already banned
+     * @throws IllegalArgumentException if the text is not an address or range
+     */
+    public synchronized CidrTrie.Prefix banAddress(String spec) {
+        CidrTrie.Prefix prefix = CidrTrie.Prefix.parse(spec);
+        if (!ranges.add(prefix)) {
+            return null;
+        }
+        rebuild();
+        save();
+        return prefix;
+    }
+
+    /**
+     * Lifts a ban on an address range, or failing that on a nickname.
+     *
+     * @return false if nothing matched
+     */
+    public synchronized boolean unban(String value) {
+        boolean removed;
+        try {
+            removed = ranges.remove(CidrTrie.Prefix.parse(value));
+            if (removed) {
+                rebuild();
+            }
+        } catch (IllegalArgumentException e) {
+            removed = names.remove(normalize(value));
+        }
+        if (removed) {
+            save();
+        }
+        return removed;
+    }
+
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(names);
+    }
+
+    public synchronized List<String> getAddresses() {
+        List<String> list = new ArrayList<>(ranges.size());
+        for (CidrTrie.Prefix prefix : ranges) {
+            list.add(prefix.toString());
+        }
+        return list;
+    }
+
+    private void rebuild() {
+        CidrTrie next = new CidrTrie();
+        for (CidrTrie.Prefix prefix : ranges) {
+            next.add(prefix);
+        }
+        trie = next;
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        Stored stored = new Stored();
+        stored.names.addAll(names);
+        stored.addresses.addAll(getAddresses());
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            GSON.toJson(stored, writer);
+        } catch (IOException e) {
+            logger.error("Error saving bans to {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,79 @@
+package com.ur91k.clichat.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups a room's broadcasts into batches as described in {@link BatchSettings}.
+ * Confined to the room's lane: {@link #submit} must be called from it, and the
+ * window timer hops back onto it, so no locking is needed.
+ */
+class Batcher {
+    private static final int MESSAGE_OVERHEAD = 96;  // Rough encoded size of a message's fixed fields
+
+    private final BatchSettings settings;
+    private final Executor lane;
+    private final ScheduledExecutorService timer;
+    private final Consumer<PreparedMessage> sink;
+
+    private List<PreparedMessage> pending = new ArrayList<>();
+    private int pendingBytes;
+    private long windowEnd = System.nanoTime();
+    private boolean timerArmed;
+
+    Batcher(BatchSettings settings, Executor lane, ScheduledExecutorService timer, Consumer<PreparedMessage> sink) {
+        this.settings = new BatchSettings(settings);
+        this.lane = lane;
+        this.timer = timer;
+        this.sink = sink;
+    }
+
+    void submit(PreparedMessage message) {
+        long now = System.nanoTime();
+        if (pending.isEmpty() && now - windowEnd >= 0) {
+            // Quiet room: no reason to wait, but hold whatever follows closely
+            windowEnd = now + TimeUnit.MILLISECONDS.toNanos(settings.getWindowMillis());
+            sink.accept(message);
+            return;
+        }
+        pending.add(message);
+        pendingBytes += MESSAGE_OVERHEAD + message.getMessage().getContent().length();
+        if (pending.size() >= settings.getMaxMessages() || pendingBytes >= settings.getMaxBytes()) {
+            flush(now);
+        } else if (!timerArmed) {
+            armTimer(now);
+        }
+    }
+
+    private void armTimer(long now) {
+        timerArmed = true;
+        try {
+            timer.schedule(() -> lane.execute(this::windowClosed), Math.max(0, windowEnd - now), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down; deliver what we have rather than lose it
+            timerArmed = false;
+            flush(now);
+        }
+    }
+
+    private void windowClosed() {
+        timerArmed = false;
+        if (!pending.isEmpty()) {
+            flush(System.nanoTime());
+        }
+    }
+
+    private void flush(long now) {
+        List<PreparedMessage> batch = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        // Keep the window open while the burst lasts
+        windowEnd = now + TimeUnit.MILLISECONDS.toNanos(settings.getWindowMillis());
+        sink.accept(batch.size() == 1 ? batch.get(0) : PreparedMessage.batch(batch));
+    }
+}
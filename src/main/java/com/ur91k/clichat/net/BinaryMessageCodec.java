@@ -0,0 +1,453 @@
+package com.ur91k.clichat.net;
+
+import org.joml.Vector4f;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Compact binary encoding of {@link Message} used when both ends negotiate
+ * {@link WireFormat#BINARY}.
+ *
+ * <pre>
+ * version   u8       (currently 2)
+ * type      u8       Message.Type ordinal
+ * flags     u8       bit 0 targetId, bit 1 oldValue, bit 2 newValue, bit 3 room present,
+ *                    bit 4 sender given as a profile reference, bit 5 seq present
+ * senderId  string   \
+ * sender    string    } or, with flag bit 4: profile  varint
+ * color     u8 x 4   /  RGBA, 0-255 per channel
+ * content   string
+ * timestamp varint   epoch millis
+ * [targetId string] [oldValue string] [newValue string] [room string] [seq varint]
+ *
+ * string  = varint byte length + UTF-8 bytes
+ * varint  = unsigned LEB128
+ *
+ * batch     u8       0xFF, in place of the version byte
+ * count     varint
+ * count x   varint byte length + one encoded message
+ *
+ * profile   u8       0xFE, in place of the version byte; sent before any message referring to it
+ * ref       varint
+ * senderId  string
+ * sender    string
+ * color     u8 x 4
+ *
+ * request   u8       0xFD, in place of the version byte; client to server only (see {@link Request})
+ * type      u8       Message.Type ordinal
+ * content   string
+ * [color    u8 x 4]  JOIN and COLOR_CHANGE only
+ * [seq      varint]  RESUME only
+ * </pre>
+ *
+ * <p>Profile references are only sent to clients that offer
+ * {@link WireFormat#FEATURE_SENDERS}; they keep a table of the profiles
+ * received and pass it to {@link #decodeAll(ByteBuffer, IntFunction)}.</p>
+ *
+ * New message types must be appended to {@link Message.Type} so existing tags keep their meaning.
+ */
+public final class BinaryMessageCodec {
+    public static final int VERSION = 2;
+
+    static final int BATCH_TAG = 0xFF;
+    static final int PROFILE_TAG = 0xFE;
+    static final int REQUEST_TAG = 0xFD;
+
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final int FLAG_TARGET = 1;
+    private static final int FLAG_OLD = 1 << 1;
+    private static final int FLAG_NEW = 1 << 2;
+    private static final int FLAG_ROOM = 1 << 3;
+    private static final int FLAG_PROFILE = 1 << 4;
+    private static final int FLAG_SEQ = 1 << 5;
+
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
+
+    private BinaryMessageCodec() {}
+
+    /**
+     * Encodes a message into a new byte array.
+     */
+    public static byte[] encode(Message message) {
+        Output out = OUTPUT.get();
+        out.reset();
+        write(out, message, null);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a message straight into a shareable frame, skipping the intermediate array.
+     */
+    public static EncodedFrame encodeFrame(Message message) {
+        return encodeFrame(message, false);
+    }
+
+    /**
+     * Encodes a message into a frame, referring to its sender by profile if it
+     * has one and {@code interned} is set.
+     */
+    static EncodedFrame encodeFrame(Message message, boolean interned) {
+        Output out = OUTPUT.get();
+        out.reset();
+        write(out, message, interned ? message.getProfile() : null);
+        return EncodedFrame.binary(out.buffer, 0, out.size);
+    }
+
+    /**
+     * Encodes the record that introduces a sender profile.
+     */
+    static EncodedFrame encodeProfileFrame(SenderProfile profile) {
+        Output out = OUTPUT.get();
+        out.reset();
+        out.writeByte(PROFILE_TAG);
+        out.writeVarLong(profile.ref());
+        out.writeString(profile.id());
+        out.writeString(profile.name());
+        out.writeInt(packColor(profile.color()));
+        return EncodedFrame.binary(out.buffer, 0, out.size);
+    }
+
+    /**
+     * Packs already encoded messages into one batch frame.
+     */
+    public static EncodedFrame encodeBatchFrame(List<EncodedFrame> parts) {
+        Output out = OUTPUT.get();
+        out.reset();
+        out.writeByte(BATCH_TAG);
+        out.writeVarLong(parts.size());
+        for (EncodedFrame part : parts) {
+            ByteBuffer payload = part.payload();
+            out.writeVarLong(payload.remaining());
+            out.writeBytes(payload);
+        }
+        return EncodedFrame.binary(out.buffer, 0, out.size);
+    }
+
+    /**
+     * Encodes a client request.
+     */
+    public static byte[] encodeRequest(Request request) {
+        Output out = OUTPUT.get();
+        out.reset();
+        out.writeByte(REQUEST_TAG);
+        out.writeByte(request.type().ordinal());
+        out.writeString(request.content());
+        if (hasColor(request.type())) {
+            out.writeInt(packColor(request.color()));
+        }
+        if (request.type() == Message.Type.RESUME) {
+            out.writeVarLong(request.seq());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a client request, or the full message an older client sends in its place.
+     *
+     * @throws IllegalArgumentException if the data is truncated, malformed or from an unknown version
+     */
+    public static Request decodeRequest(ByteBuffer in) {
+        if (!in.hasRemaining() || (in.get(in.position()) & 0xFF) != REQUEST_TAG) {
+            return Request.of(decode(in));
+        }
+        try {
+            in.get();
+            int tag = in.get() & 0xFF;
+            if (tag >= TYPES.length) {
+                throw new IllegalArgumentException("Unknown message type tag: " + tag);
+            }
+            Message.Type type = TYPES[tag];
+            String content = readString(in);
+            Vector4f color = hasColor(type) ? unpackColor(in.getInt()) : null;
+            long seq = type == Message.Type.RESUME ? readVarLong(in) : 0;
+            return new Request(type, content, color, seq);
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated request", e);
+        }
+    }
+
+    private static boolean hasColor(Message.Type type) {
+        return type == Message.Type.JOIN || type == Message.Type.COLOR_CHANGE;
+    }
+
+    private static void write(Output out, Message message, SenderProfile profile) {
+        String targetId = message.getTargetId();
+        String oldValue = message.getOldValue();
+        String newValue = message.getNewValue();
+        String room = message.getRoom();
+        int flags = (isPresent(targetId) ? FLAG_TARGET : 0)
+            | (isPresent(oldValue) ? FLAG_OLD : 0)
+            | (isPresent(newValue) ? FLAG_NEW : 0)
+            | (isPresent(room) ? FLAG_ROOM : 0)
+            | (profile != null ? FLAG_PROFILE : 0)
+            | (message.getSeq() != 0 ? FLAG_SEQ : 0);
+
+        out.writeByte(VERSION);
+        out.writeByte(message.getType().ordinal());
+        out.writeByte(flags);
+        if (profile != null) {
+            out.writeVarLong(profile.ref());
+        } else {
+            out.writeString(message.getSenderId());
+            out.writeString(message.getSenderName());
+            out.writeInt(packColor(message.senderColor()));
+        }
+        out.writeString(message.getContent());
+        out.writeVarLong(toEpochMillis(message.getTimestamp()));
+        if ((flags & FLAG_TARGET) != 0) out.writeString(targetId);
+        if ((flags & FLAG_OLD) != 0) out.writeString(oldValue);
+        if ((flags & FLAG_NEW) != 0) out.writeString(newValue);
+        if ((flags & FLAG_ROOM) != 0) out.writeString(room);
+        if ((flags & FLAG_SEQ) != 0) out.writeVarLong(message.getSeq());
+    }
+
+    /**
+     * Decodes one message from the buffer's remaining bytes.
+     *
+     * @throws IllegalArgumentException if the data is truncated, malformed or from an unknown version
+     */
+    public static Message decode(ByteBuffer in) {
+        return decode(in, null);
+    }
+
+    /**
+     * Decodes one message, looking up sender profile references in a table of
+     * the profiles received so far.
+     *
+     * @param profiles profile by reference, or null if references are not expected
+     * @throws IllegalArgumentException if the data is malformed or refers to an unknown profile
+     */
+    static Message decode(ByteBuffer in, IntFunction<SenderProfile> profiles) {
+        try {
+            int version = in.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary message version: " + version);
+            }
+            int tag = in.get() & 0xFF;
+            if (tag >= TYPES.length) {
+                throw new IllegalArgumentException("Unknown message type tag: " + tag);
+            }
+            int flags = in.get() & 0xFF;
+            Message message;
+            if ((flags & FLAG_PROFILE) != 0) {
+                int ref = (int) readVarLong(in);
+                SenderProfile profile = profiles != null ? profiles.apply(ref) : null;
+                if (profile == null) {
+                    throw new IllegalArgumentException("Unknown sender profile: " + ref);
+                }
+                message = new Message(TYPES[tag], profile, readString(in));
+            } else {
+                String senderId = readString(in);
+                String senderName = readString(in);
+                Vector4f senderColor = unpackColor(in.getInt());
+                message = new Message(TYPES[tag], senderId, senderName, senderColor, readString(in));
+            }
+            long timestamp = readVarLong(in);
+            message.setTimestamp(fromEpochMillis(timestamp));
+            if ((flags & FLAG_TARGET) != 0) message.setTargetId(readString(in));
+            if ((flags & FLAG_OLD) != 0) message.setOldValue(readString(in));
+            if ((flags & FLAG_NEW) != 0) message.setNewValue(readString(in));
+            if ((flags & FLAG_ROOM) != 0) message.setRoom(readString(in));
+            if ((flags & FLAG_SEQ) != 0) message.setSeq(readVarLong(in));
+            return message;
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated binary message", e);
+        }
+    }
+
+    /**
+     * Decodes a frame that holds either one message or a batch.
+     *
+     * @throws IllegalArgumentException if the data is truncated or malformed
+     */
+    public static List<Message> decodeAll(ByteBuffer in) {
+        return decodeAll(in, null);
+    }
+
+    /**
+     * Decodes a frame that holds either one message or a batch, resolving
+     * sender profile references against a table of the profiles received so far.
+     *
+     * @param profiles profile by reference, or null if references are not expected
+     * @throws IllegalArgumentException if the data is malformed or refers to an unknown profile
+     */
+    public static List<Message> decodeAll(ByteBuffer in, IntFunction<SenderProfile> profiles) {
+        if (!in.hasRemaining() || (in.get(in.position()) & 0xFF) != BATCH_TAG) {
+            return List.of(decode(in, profiles));
+        }
+        try {
+            in.get();
+            int count = (int) readVarLong(in);
+            if (count < 0 || count > in.remaining()) {
+                throw new IllegalArgumentException("Invalid batch size: " + count);
+            }
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = (int) readVarLong(in);
+                if (length < 0 || length > in.remaining()) {
+                    throw new IllegalArgumentException("Invalid batch entry length: " + length);
+                }
+                ByteBuffer entry = in.slice();
+                entry.limit(length);
+                messages.add(decode(entry, profiles));
+                in.position(in.position() + length);
+            }
+            return messages;
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+    }
+
+    /** True if the frame is a profile record rather than messages. */
+    static boolean isProfile(ByteBuffer in) {
+        return in.hasRemaining() && (in.get(in.position()) & 0xFF) == PROFILE_TAG;
+    }
+
+    /**
+     * Decodes a profile record.
+     *
+     * @throws IllegalArgumentException if the data is truncated or malformed
+     */
+    static SenderProfile decodeProfile(ByteBuffer in) {
+        try {
+            if ((in.get() & 0xFF) != PROFILE_TAG) {
+                throw new IllegalArgumentException("Not a profile record");
+            }
+            int ref = (int) readVarLong(in);
+            String id = readString(in);
+            String name = readString(in);
+            return new SenderProfile(ref, id, name, unpackColor(in.getInt()));
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated profile", e);
+        }
+    }
+
+    private static boolean isPresent(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    static int packColor(Vector4f color) {
+        return channel(color.x) << 24 | channel(color.y) << 16 | channel(color.z) << 8 | channel(color.w);
+    }
+
+    private static int channel(float value) {
+        return Math.round(Math.max(0f, Math.min(1f, value)) * 255f);
+    }
+
+    static Vector4f unpackColor(int rgba) {
+        return new Vector4f(
+            (rgba >>> 24) / 255f,
+            ((rgba >>> 16) & 0xFF) / 255f,
+            ((rgba >>> 8) & 0xFF) / 255f,
+            (rgba & 0xFF) / 255f
+        );
+    }
+
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Growable byte sink reused per thread.
+     */
+    static final class Output {
+        byte[] buffer = new byte[256];
+        int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        void writeBytes(ByteBuffer bytes) {
+            int length = bytes.remaining();
+            ensure(length);
+            bytes.get(buffer, size, length);
+            size += length;
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+}
@@ -1,17 +1,46 @@
 package com.ur91k.clichat.net;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.ur91k.clichat.util.Logger;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ServerHandshake;
 import org.joml.Vector4f;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+/**
+ * Connects to a chat server, joins and passes on what arrives.
+ *
+ * <p>Status changes are reported as CONNECTED, RECONNECTING and DISCONNECTED.
+ * When the connection drops or the server goes away, the client dials again
+ * with jittered exponential backoff (see {@link ReconnectSettings}) and
+ * resumes its session where the server allows it. Requests made meanwhile
+ * are held and sent in order once the session is back.</p>
+ */
 public class ChatClient extends WebSocketClient {
     private static final Logger logger = Logger.getLogger(ChatClient.class);
+    // Shared by every client: attempts only start a connect, so one thread is plenty
+    private static final ScheduledExecutorService RECONNECTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
     private final Gson gson;
     private final Consumer<Message> onMessageReceived;
     private final Consumer<String> onConnectionStatusChanged;
@@ -19,33 +48,76 @@ public class ChatClient extends WebSocketClient {
     private String userId;
     private String username;
     private Vector4f userColor;
+    private String roomId;
     private String roomName;
     private Vector4f roomColor;
     private boolean isConnected = false;
+    private String closeReason = "";
+    private WireFormat wireFormat = WireFormat.JSON;
+    private boolean slimRequests;  // Server takes Requests; older servers need full messages
+    private String sessionToken;   // Resumes the session after a dropped connection; null when there is none
+    private ReconnectSettings reconnect = new ReconnectSettings();  // null = give up on the first close
+    // Requests held while reconnecting. Also the lock for sending and for the reconnect state below
+    private final ArrayDeque<Request> offline = new ArrayDeque<>();
+    private boolean sessionReady;  // Joined or resumed on this connection, so requests go straight out
+    private volatile boolean reconnecting;  // Between losing the connection and getting the session back
+    private volatile boolean stopped;       // disconnect() was called
+    private volatile long reconnectAt;      // When the next attempt starts, or 0 while one is under way
+    private volatile int attempts;          // Reconnect attempts since the connection was lost
+    private ScheduledFuture<?> pendingAttempt;
+    private final Map<Integer, SenderProfile> senders = new HashMap<>();  // Network thread only
+    private final SequenceTracker sequences = new SequenceTracker();
     
     public ChatClient(URI serverUri, String username, Vector4f userColor,
             Consumer<Message> onMessageReceived,
             Consumer<String> onConnectionStatusChanged) {
-        super(serverUri);
+        this(serverUri, username, userColor, onMessageReceived, onConnectionStatusChanged, new DeflateSettings());
+    }
+    
+    /**
+     * @param deflate permessage-deflate settings to offer, or null to never compress
+     */
+    public ChatClient(URI serverUri, String username, Vector4f userColor,
+            Consumer<Message> onMessageReceived,
+            Consumer<String> onConnectionStatusChanged,
+            DeflateSettings deflate) {
+        super(serverUri, new Draft_6455(
+            deflate != null ? List.of(new DeflateExtension(deflate)) : Collections.emptyList(),
+            WireFormat.protocols()));
+        addHeader(WireFormat.FEATURES_HEADER,
+            WireFormat.FEATURE_BATCH + "," + WireFormat.FEATURE_SENDERS + "," + WireFormat.FEATURE_RESUME);
         this.username = username;
         this.userColor = userColor;
         this.onMessageReceived = onMessageReceived;
         this.onConnectionStatusChanged = onConnectionStatusChanged;
         
-        // Configure Gson with our custom adapters
-        this.gson = new GsonBuilder()
-            .registerTypeAdapter(Vector4f.class, new Vector4fAdapter())
-            .registerTypeAdapter(Message.class, new MessageAdapter())
-            .create();
+        this.gson = MessageAdapter.GSON;
     }
     
     @Override
     public void onOpen(ServerHandshake handshake) {
+        if (stopped) {
+            close();  // An attempt that was already dialling when disconnect() was called
+            return;
+        }
         isConnected = true;
         userId = this.getLocalSocketAddress().toString();
+        wireFormat = WireFormat.of(getProtocol());
+        slimRequests = WireFormat.hasFeature(handshake, WireFormat.FEATURE_REQUESTS);
+        senders.clear();  // Profile references are only good for one connection
+        long lastSeen = roomId != null ? sequences.last(roomId) : 0;
+        sequences.reset();
+        logger.debug("Negotiated wire format: {}, extension: {}", wireFormat, getDraft());
         
-        // Send join message
-        send(gson.toJson(Message.join(userId, username, userColor)));
+        attempts = 0;
+        if (sessionToken != null && WireFormat.hasFeature(handshake, WireFormat.FEATURE_RESUME)) {
+            // Back after a dropped connection; the server replays what came after lastSeen,
+            // and held requests wait for it to confirm
+            transmit(Request.resume(sessionToken, lastSeen));
+        } else {
+            sessionToken = null;
+            join();
+        }
         
         onConnectionStatusChanged.accept("CONNECTED");
         logger.info("Connected to server");
@@ -54,35 +126,212 @@ public class ChatClient extends WebSocketClient {
     @Override
     public void onMessage(String messageJson) {
         try {
-            Message message = gson.fromJson(messageJson, Message.class);
-            
-            // Handle room updates
-            if (message.getType() == Message.Type.ROOM_UPDATE) {
-                String[] parts = message.getNewValue().split(";");
-                roomName = parts[0];
-                // Parse the Vector4f from string
-                String vectorStr = parts[1].substring(1, parts[1].length() - 1); // Remove []
-                String[] components = vectorStr.split(",");
-                roomColor = new Vector4f(
-                    Float.parseFloat(components[0]),
-                    Float.parseFloat(components[1]),
-                    Float.parseFloat(components[2]),
-                    Float.parseFloat(components[3])
-                );
+            if (messageJson.startsWith("[")) {
+                // Batch frame: a JSON array of messages, in order
+                for (Message message : gson.fromJson(messageJson, Message[].class)) {
+                    handleMessage(message);
+                }
+            } else {
+                handleMessage(gson.fromJson(messageJson, Message.class));
             }
-            
-            onMessageReceived.accept(message);
-            logger.debug("Received message: {}", message.getContent());
         } catch (Exception e) {
             logger.error("Error handling message: {}", e.getMessage());
         }
     }
     
+    @Override
+    public void onMessage(ByteBuffer messageBytes) {
+        try {
+            if (BinaryMessageCodec.isProfile(messageBytes)) {
+                SenderProfile profile = BinaryMessageCodec.decodeProfile(messageBytes);
+                senders.put(profile.ref(), profile);
+                return;
+            }
+            for (Message message : BinaryMessageCodec.decodeAll(messageBytes, senders::get)) {
+                handleMessage(message);
+            }
+        } catch (Exception e) {
+            logger.error("Error handling message: {}", e.getMessage());
+        }
+    }
+    
+    private void handleMessage(Message message) {
+        if (message.getType() == Message.Type.SESSION) {
+            handleSession(message);
+            return;
+        }
+        if (!sequences.accept(message)) {
+            return;
+        }
+        // Handle room updates
+        if (message.getType() == Message.Type.ROOM_UPDATE) {
+            // newValue is "name;r,g,b,a"
+            String[] parts = message.getNewValue().split(";", 2);
+            roomId = message.getRoom() != null ? message.getRoom() : parts[0];
+            roomName = parts[0];
+            roomColor = parts.length > 1 ? Message.parseColor(parts[1]) : null;
+        } else if (message.getType() == Message.Type.NICK_CHANGE && username.equals(message.getOldValue())) {
+            // Names are unique, so a rename of our current name is the server accepting ours
+            username = message.getNewValue();
+        }
+        
+        onMessageReceived.accept(message);
+        logger.debug("Received message: {}", message.getContent());
+    }
+    
+    /**
+     * Keeps the token the server gives for resuming this session, or joins
+     * afresh when the server had no session to resume.
+     */
+    private void handleSession(Message message) {
+        if (message.getContent().isEmpty()) {
+            logger.info("Session could not be resumed, joining again");
+            sessionToken = null;
+            join();
+            return;
+        }
+        sessionToken = message.getContent();
+        username = message.getSenderName();
+        userColor = message.getSenderColor();
+        sessionOpened();
+    }
+    
+    private void join() {
+        transmit(Request.join(username, userColor));
+        sessionOpened();
+    }
+    
+    /**
+     * Sends the requests held while offline, in order, ahead of any new ones.
+     */
+    private void sessionOpened() {
+        synchronized (offline) {
+            if (!offline.isEmpty()) {
+                logger.info("Sending {} request(s) held while offline", offline.size());
+            }
+            while (!offline.isEmpty()) {
+                transmit(offline.poll());
+            }
+            sessionReady = true;
+            reconnecting = false;
+        }
+    }
+    
     @Override
     public void onClose(int code, String reason, boolean remote) {
         isConnected = false;
-        onConnectionStatusChanged.accept("DISCONNECTED");
-        logger.info("Disconnected from server: {}", reason);
+        if (code != CloseFrame.ABNORMAL_CLOSE && code != CloseFrame.NEVER_CONNECTED) {
+            sessionToken = null;  // Closed on purpose, so the server has ended the session
+        }
+        if (code != CloseFrame.NEVER_CONNECTED) {
+            closeReason = reason != null ? reason : "";
+        }
+        synchronized (offline) {
+            sessionReady = false;
+            reconnecting = shouldReconnect(code);
+            if (!reconnecting && !offline.isEmpty()) {
+                logger.warn("Dropping {} request(s) held while offline", offline.size());
+                offline.clear();
+            }
+        }
+        if (reconnecting && scheduleReconnect()) {
+            onConnectionStatusChanged.accept("RECONNECTING");
+            logger.info("Connection lost ({}), attempt {} in {} ms", code, attempts, getReconnectDelayMillis());
+        } else {
+            onConnectionStatusChanged.accept("DISCONNECTED");
+            logger.info("Disconnected from server: {}", reason);
+        }
+    }
+    
+    /**
+     * True for closes the client should come back from: a dropped connection,
+     * a server going away or restarting, or a failed attempt while
+     * reconnecting. Kicks, bans, refusals and our own closes are final.
+     */
+    private boolean shouldReconnect(int code) {
+        if (reconnect == null || stopped) {
+            return false;
+        }
+        switch (code) {
+            case CloseFrame.ABNORMAL_CLOSE:
+            case CloseFrame.GOING_AWAY:
+            case CloseFrame.SERVICE_RESTART:
+            case CloseFrame.TRY_AGAIN_LATER:
+                return true;
+            case CloseFrame.NEVER_CONNECTED:
+                return reconnecting;  // Only retry servers we had reached before
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Waits out the backoff for the next attempt on the shared reconnect thread.
+     *
+     * @return false if no attempt could be scheduled
+     */
+    private boolean scheduleReconnect() {
+        synchronized (offline) {
+            long delay = reconnect.delayMillis(attempts++);
+            try {
+                pendingAttempt = RECONNECTS.schedule(this::attemptReconnect, delay, TimeUnit.MILLISECONDS);
+                reconnectAt = System.currentTimeMillis() + delay;
+                return true;
+            } catch (RejectedExecutionException e) {
+                reconnecting = false;
+                offline.clear();
+                return false;
+            }
+        }
+    }
+    
+    private void attemptReconnect() {
+        synchronized (offline) {
+            if (stopped) {
+                return;
+            }
+            reconnectAt = 0;
+        }
+        logger.debug("Reconnect attempt {}", attempts);
+        reconnect();  // Ends in onOpen, or in onClose and another wait
+    }
+    
+    /**
+     * Skips the rest of the wait and tries to reconnect at once.
+     *
+     * @return false if the client is not waiting to reconnect
+     */
+    public boolean reconnectNow() {
+        synchronized (offline) {
+            if (!reconnecting || stopped || reconnectAt == 0 || !pendingAttempt.cancel(false)) {
+                return false;
+            }
+            reconnectAt = System.currentTimeMillis();
+            pendingAttempt = RECONNECTS.schedule(this::attemptReconnect, 0, TimeUnit.MILLISECONDS);
+            return true;
+        }
+    }
+    
+    /**
+     * Closes the connection for good: no reconnecting, and anything held offline is dropped.
+     */
+    public void disconnect() {
+        boolean waiting;
+        synchronized (offline) {
+            stopped = true;
+            // Between attempts nothing is open, so no close will be reported
+            waiting = reconnecting && reconnectAt != 0;
+            if (pendingAttempt != null) {
+                pendingAttempt.cancel(false);
+            }
+            reconnecting = false;
+            reconnectAt = 0;
+            offline.clear();
+        }
+        close();
+        if (waiting) {
+            onConnectionStatusChanged.accept("DISCONNECTED");
+        }
     }
     
     @Override
@@ -90,40 +339,121 @@ public class ChatClient extends WebSocketClient {
         logger.error("WebSocket error: {}", ex.getMessage());
     }
     
-    public void sendMessage(String content) {
-        if (!isConnected) {
-            logger.warn("Cannot send message: not connected");
-            return;
+    /**
+     * Sends a chat message, or holds it while reconnecting.
+     *
+     * @return false if it was dropped: not connected, or too much is held already
+     */
+    public boolean sendMessage(String content) {
+        return write(Request.chat(content));
+    }
+    
+    /**
+     * Asks the server for a new nickname. The name changes once the server
+     * confirms it; a name already in use is refused with a system message.
+     */
+    public boolean changeNickname(String newNickname) {
+        return write(Request.nickChange(newNickname));
+    }
+    
+    public boolean changeColor(Vector4f newColor) {
+        boolean written = write(Request.colorChange(newColor));
+        if (written) {
+            userColor = newColor;
         }
-        Message message = Message.chat(userId, username, userColor, content);
-        send(gson.toJson(message));
+        return written;
     }
     
-    public void changeNickname(String newNickname) {
-        if (!isConnected) return;
-        username = newNickname;
-        Message message = Message.nickChange(userId, username, newNickname, userColor);
-        send(gson.toJson(message));
+    public boolean sendCommand(String command) {
+        return write(Request.command(command));
     }
     
-    public void changeColor(Vector4f newColor) {
-        if (!isConnected) return;
-        Vector4f oldColor = new Vector4f(userColor);
-        userColor = newColor;
-        Message message = Message.colorChange(userId, username, oldColor, newColor);
-        send(gson.toJson(message));
+    /**
+     * Sends a request once the session is open, or holds it while reconnecting.
+     * A connection that closes between the check and the send counts as
+     * offline, so the request is held rather than lost.
+     */
+    private boolean write(Request request) {
+        synchronized (offline) {
+            if (sessionReady) {
+                try {
+                    transmit(request);
+                    return true;
+                } catch (WebsocketNotConnectedException e) {
+                    // Closed under us; onClose decides whether we come back
+                    if (reconnect == null || stopped) {
+                        logger.warn("Cannot send {}: connection closed", request.type());
+                        return false;
+                    }
+                }
+            } else if (!reconnecting) {
+                logger.warn("Cannot send {}: not connected", request.type());
+                return false;
+            }
+            if (offline.size() >= reconnect.getMaxQueued()) {
+                logger.warn("Cannot hold {}: {} request(s) already waiting to be sent", request.type(),
+                    offline.size());
+                return false;
+            }
+            offline.add(request);
+            return true;
+        }
     }
     
-    public void sendCommand(String command) {
-        if (!isConnected) return;
-        Message message = new Message(Message.Type.COMMAND, userId, username, userColor, command);
-        send(gson.toJson(message));
+    private void transmit(Request request) {
+        if (!slimRequests) {
+            Message message = request.toMessage(userId, username, userColor);
+            if (wireFormat == WireFormat.BINARY) {
+                send(BinaryMessageCodec.encode(message));
+            } else {
+                send(gson.toJson(message));
+            }
+        } else if (wireFormat == WireFormat.BINARY) {
+            send(BinaryMessageCodec.encodeRequest(request));
+        } else {
+            send(gson.toJson(request));
+        }
     }
     
     // Getters
     public boolean isConnected() { return isConnected; }
+    /** True while the connection is lost and the client is finding its way back. */
+    public boolean isReconnecting() { return reconnecting; }
+    /** Time left before the next reconnect attempt, or 0 while one is under way. */
+    public long getReconnectDelayMillis() {
+        long at = reconnectAt;
+        return at != 0 ? Math.max(0, at - System.currentTimeMillis()) : 0;
+    }
+    /** Number of the reconnect attempt waited for or under way; 0 while connected. */
+    public int getReconnectAttempt() { return reconnecting ? attempts : 0; }
+    /** Requests held until the session is back. */
+    public int getQueuedRequests() {
+        synchronized (offline) {
+            return offline.size();
+        }
+    }
+    
+    /**
+     * Sets how to reconnect after losing the connection, or null to give up on
+     * the first close. Takes effect from the next close.
+     */
+    public void setReconnect(ReconnectSettings reconnect) {
+        this.reconnect = reconnect != null ? new ReconnectSettings(reconnect) : null;
+    }
+    /**
+     * True if the connection dropped and the server may still hold the
+     * session; {@link #reconnect()} then picks it up where it left off.
+     */
+    public boolean canResume() { return !isConnected && sessionToken != null; }
     public String getUsername() { return username; }
+    /** Reason the server gave when the connection was last closed, or empty. */
+    public String getCloseReason() { return closeReason; }
     public Vector4f getUserColor() { return new Vector4f(userColor); }
+    public String getRoomId() { return roomId; }
+    /** Room messages that never arrived, going by the gaps in their numbers. */
+    public long getMissedMessages() { return sequences.getMissed(); }
+    /** Room messages that arrived twice; the second copy is dropped. */
+    public long getDuplicateMessages() { return sequences.getDuplicates(); }
     public String getRoomName() { return roomName; }
     public Vector4f getRoomColor() { return roomColor != null ? new Vector4f(roomColor) : null; }
     public String getServerAddress() { 
@@ -0,0 +1,199 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.store.InvertedIndex;
+import com.ur91k.clichat.store.LogRecord;
+import com.ur91k.clichat.store.SegmentedLog;
+import com.ur91k.clichat.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@code /search} over the chat log: indexes chat messages as the log writes
+ * them and answers queries with a page of system lines.
+ *
+ * <p>Query syntax: words (all must appear), {@code from:<name>},
+ * {@code in:<room>} (defaults to the asker's room), {@code since:} and
+ * {@code before:} taking {@code 30m}, {@code 2h}, {@code 7d} or
+ * {@code yyyy-MM-dd}, and {@code page:<n>}.</p>
+ */
+public class ChatSearch {
+    private static final Logger logger = Logger.getLogger(ChatSearch.class);
+    static final int PAGE_SIZE = 10;
+    private static final int MAX_PAGE = Integer.MAX_VALUE / PAGE_SIZE;  // Keeps the hit offset in range
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int REBUILD_CHUNK = 10_000;
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]{2,}");
+    private static final Pattern DURATION = Pattern.compile("(\\d+)([mhdw])");
+    private static final DateTimeFormatter RESULT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final SegmentedLog log;
+    private final InvertedIndex index = new InvertedIndex();
+
+    ChatSearch(SegmentedLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Indexes what is already in the log, then follows new records. Call before the server takes traffic.
+     */
+    void start() {
+        long start = System.nanoTime();
+        try {
+            long seq = 0;
+            while (true) {
+                List<LogRecord> records = log.read(seq, REBUILD_CHUNK);
+                if (records.isEmpty()) {
+                    break;
+                }
+                for (LogRecord record : records) {
+                    onRecord(record.seq(), record.timestamp(), record.payload());
+                }
+                seq = records.get(records.size() - 1).seq() + 1;
+            }
+        } catch (IOException e) {
+            logger.error("Error indexing chat log, search will miss older messages: {}", e.getMessage());
+        }
+        log.setListener(this::onRecord);
+        logger.info("Indexed {} messages for search in {} ms", index.getDocCount(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void onRecord(long seq, long timestamp, ByteBuffer payload) {
+        Message message = BinaryMessageCodec.decode(payload);
+        if (message.getType() != Message.Type.CHAT || message.getRoom() == null) {
+            return;
+        }
+        index.add(message.getRoom(), seq, timestamp, terms(message));
+    }
+
+    /**
+     * Returns the terms a chat message is indexed under: its words of two or more
+     * letters or digits, lowercased, and {@code from:<sender>}.
+     */
+    public static Set<String> terms(Message message) {
+        Set<String> terms = new LinkedHashSet<>();
+        addWords(message.getContent(), terms);
+        if (message.getSenderName() != null) {
+            terms.add("from:" + message.getSenderName().toLowerCase(Locale.ROOT));
+        }
+        return terms;
+    }
+
+    private static void addWords(String text, Set<String> terms) {
+        if (text == null) {
+            return;
+        }
+        Matcher matcher = WORD.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            if (matcher.end() - matcher.start() <= MAX_TERM_LENGTH) {
+                terms.add(matcher.group());
+            }
+        }
+    }
+
+    /**
+     * Runs a query and returns the lines to show the asker.
+     *
+     * @param roomId the asker's room, searched unless the query names another
+     */
+    List<Message> search(String query, String roomId) {
+        Set<String> terms = new LinkedHashSet<>();
+        String room = roomId;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        int page = 1;
+        try {
+            for (String token : query.trim().split("\\s+")) {
+                String lower = token.toLowerCase(Locale.ROOT);
+                if (lower.startsWith("from:") && lower.length() > 5) {
+                    terms.add(lower);
+                } else if (lower.startsWith("in:")) {
+                    room = Room.toId(lower.substring(3));
+                    if (room == null) {
+                        return List.of(Message.system("Not a room name: " + token.substring(3)));
+                    }
+                } else if (lower.startsWith("since:")) {
+                    from = parseTime(lower.substring(6));
+                } else if (lower.startsWith("before:")) {
+                    to = parseTime(lower.substring(7)) - 1;
+                } else if (lower.startsWith("page:")) {
+                    page = Math.min(MAX_PAGE, Math.max(1, Integer.parseInt(lower.substring(5))));
+                } else {
+                    addWords(token, terms);
+                }
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return List.of(Message.system("Could not read " + query.trim()
+                + " (times look like since:2h, since:7d or before:2024-05-01)"));
+        }
+        if (terms.isEmpty()) {
+            return List.of(Message.system("Usage: /search <words> [from:<user>] [in:<room>] [since:<2h|7d|date>]"
+                + " [before:<date>] [page:<n>]"));
+        }
+
+        long start = System.nanoTime();
+        InvertedIndex.Result result = index.search(room, terms, from, to, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        int pages = Math.max(1, (result.total() + PAGE_SIZE - 1) / PAGE_SIZE);
+        List<Message> lines = new ArrayList<>(PAGE_SIZE + 1);
+        lines.add(Message.system(String.format("Search in #%s: %d match%s, page %d of %d (%d us)",
+            room, result.total(), result.total() == 1 ? "" : "es", Math.min(page, pages), pages, micros)));
+        for (long seq : result.seqs()) {
+            Message hit = readMessage(seq);
+            if (hit != null) {
+                lines.add(Message.system(hit.getTimestamp().format(RESULT_TIME) + " " + hit.getSenderName() + ": "
+                    + hit.getContent()));
+            }
+        }
+        return lines;
+    }
+
+    private Message readMessage(long seq) {
+        try {
+            List<LogRecord> records = log.read(seq, 1);
+            return records.isEmpty() ? null : BinaryMessageCodec.decode(records.get(0).payload());
+        } catch (IOException e) {
+            logger.error("Error reading search hit {}: {}", seq, e.getMessage());
+            return null;
+        }
+    }
+
+    private static long parseTime(String value) {
+        Matcher duration = DURATION.matcher(value);
+        if (duration.matches()) {
+            long amount = Long.parseLong(duration.group(1));
+            long unit;
+            switch (duration.group(2)) {
+                case "m":
+                    unit = TimeUnit.MINUTES.toMillis(1);
+                    break;
+                case "h":
+                    unit = TimeUnit.HOURS.toMillis(1);
+                    break;
+                case "d":
+                    unit = TimeUnit.DAYS.toMillis(1);
+                    break;
+                default:
+                    unit = TimeUnit.DAYS.toMillis(7);
+                    break;
+            }
+            return System.currentTimeMillis() - amount * unit;
+        }
+        return LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    long getIndexedCount() { return index.getDocCount(); }
+}
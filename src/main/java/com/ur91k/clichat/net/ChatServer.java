@@ -1,200 +1,1583 @@
 package com.ur91k.clichat.net;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.ur91k.clichat.metrics.MetricsHttpServer;
+import com.ur91k.clichat.metrics.MetricsRegistry;
+import com.ur91k.clichat.store.SegmentedLog;
 import com.ur91k.clichat.util.Logger;
+import com.ur91k.clichat.util.SerialExecutor;
+import com.ur91k.clichat.util.TokenBucket;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.server.WebSocketServer;
 import org.joml.Vector4f;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatServer extends WebSocketServer {
     private static final Logger logger = Logger.getLogger(ChatServer.class);
+    private static final int MAX_NAME_LENGTH = 32;
+    private static final int INBOUND_BUDGET = 32;
+    private static final int MAX_INBOUND_PENDING = 1024;
     private final Map<WebSocket, ClientInfo> clients = new ConcurrentHashMap<>();
+    private final Map<String, WebSocket> names = new ConcurrentHashMap<>();  // nameKey -> connection
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ExecutorService handlers;  // null = messages are handled on the network thread
+    private final ExecutorService fanout;
+    private final ScheduledExecutorService writers;
+    private final OutboundSettings outboundSettings;
+    private final BatchSettings batchSettings;  // null = batching disabled
+    private final RateLimitSettings rateLimits;  // null = no flood limits
+    private final BanList bans;
+    private final int historySize;
+    private final SegmentedLog log;  // null = chat is not persisted
+    private final ChatSearch search; // null without a log
+    private final MessagePipeline pipeline;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final MetricsHttpServer metricsServer;  // null = no HTTP endpoint
+    private final Cluster cluster;  // null = standalone
+    private final Map<WebSocket, String> links = new ConcurrentHashMap<>();  // Links other nodes dialled -> node
     private final Gson gson;
-    private String roomName = "main_room";
-    private Vector4f roomColor = new Vector4f(0.6f, 0.8f, 1.0f, 1.0f);
+    private final Room defaultRoom;
+    private final AtomicInteger senderRefs = new AtomicInteger();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();  // Resume token -> session
+    private final Map<WebSocket, Session> held = new ConcurrentHashMap<>();  // Dropped connection -> its waiting session
+    private final int resumeGraceMillis;  // 0 = sessions cannot be resumed
+    private final SecureRandom random = new SecureRandom();
     
     private static class ClientInfo {
         String id;
         String name;
         Vector4f color;
         boolean isOp;
+        final WireFormat format;
+        final OutboundQueue outbound;
+        final SerialExecutor inbound;  // Decodes and handles this client's messages in order; null when inline
+        boolean batching;    // Client unpacks batch frames
+        boolean interning;   // Binary client that accepts sender profile references
+        boolean resumable;   // Client takes a session token and resumes with it
+        Session session;     // null until the client has joined, or if it cannot resume
+        SenderProfile profile;  // Current name and color; null until the client has sent JOIN
+        final Set<Integer> knownSenders = new HashSet<>();  // Profiles sent to the client; also the lock for sending them
+        volatile Room room;  // null until the client has sent JOIN
+        volatile Room ready; // Room whose backlog has been queued; live messages wait for it. Set under the ClientInfo lock
         
-        ClientInfo(String id, String name, Vector4f color) {
+        // Flood limits; all null when rate limiting is disabled
+        final TokenBucket chatLimit;
+        final TokenBucket nickLimit;
+        final TokenBucket colorLimit;
+        final TokenBucket strikes;
+        
+        ClientInfo(String id, String name, Vector4f color, WireFormat format, OutboundQueue outbound,
+                SerialExecutor inbound, RateLimitSettings limits) {
             this.id = id;
             this.name = name;
             this.color = color;
             this.isOp = false;
+            this.format = format;
+            this.outbound = outbound;
+            this.inbound = inbound;
+            this.chatLimit = limits != null ? limits.getChat().newBucket() : null;
+            this.nickLimit = limits != null ? limits.getNick().newBucket() : null;
+            this.colorLimit = limits != null ? limits.getColor().newBucket() : null;
+            this.strikes = limits != null ? limits.getStrikes().newBucket() : null;
+        }
+        
+        TokenBucket limitFor(Message.Type type) {
+            switch (type) {
+                case CHAT:
+                case COMMAND:
+                    return chatLimit;
+                case NICK_CHANGE:
+                    return nickLimit;
+                case COLOR_CHANGE:
+                    return colorLimit;
+                default:
+                    return null;
+            }
+        }
+    }
+    
+    /**
+     * A joined client's claim to pick up where it left off on a new connection.
+     * When its connection drops, the client stays in its room and keeps its
+     * name for the grace period, and nobody is told it left unless it fails to
+     * come back in time. Guarded by its own lock.
+     */
+    private static class Session {
+        final String token;
+        WebSocket conn;       // The connection the session is on, or the one that dropped
+        ClientInfo client;    // That connection's client
+        ScheduledFuture<?> expiry;  // Ends the session; set while it waits to be resumed
+        boolean ended;
+
+        Session(String token, WebSocket conn, ClientInfo client) {
+            this.token = token;
+            this.conn = conn;
+            this.client = client;
         }
     }
     
     public ChatServer(String ip, int port) {
-        super(new InetSocketAddress(ip, port));
-        // Configure Gson with our custom adapters
-        this.gson = new GsonBuilder()
-            .registerTypeAdapter(Vector4f.class, new Vector4fAdapter())
-            .registerTypeAdapter(Message.class, new MessageAdapter())
-            .create();
-        logger.info("Server created on {}:{}", ip, port);
+        this(ip, port, new ServerOptions());
+    }
+    
+    public ChatServer(String ip, int port, ServerOptions options) {
+        super(new InetSocketAddress(ip, port), List.of(createDraft(options)));
+        // A restarted node can rebind while its old connections sit in TIME_WAIT
+        setReuseAddr(true);
+        this.gson = MessageAdapter.GSON;
+        this.handlers = options.getHandlerThreads() > 0
+            ? Executors.newFixedThreadPool(options.getHandlerThreads(), threadFactory("inbound-")) : null;
+        this.fanout = Executors.newFixedThreadPool(options.getFanoutThreads(), threadFactory("room-fanout-"));
+        this.writers = Executors.newScheduledThreadPool(Math.max(1, options.getFanoutThreads() / 2),
+            threadFactory("outbound-"));
+        this.outboundSettings = new OutboundSettings(options.getOutbound());
+        this.batchSettings = options.getBatch() != null ? new BatchSettings(options.getBatch()) : null;
+        this.rateLimits = options.getRateLimits() != null ? new RateLimitSettings(options.getRateLimits()) : null;
+        this.historySize = options.getHistorySize();
+        this.resumeGraceMillis = options.getResumeGraceMillis();
+        this.log = openLog(options);
+        this.search = log != null ? new ChatSearch(log) : null;
+        if (search != null) {
+            search.start();
+        }
+        this.pipeline = new MessagePipeline(options.getPipelineCapacity(), log != null ? this::persist : null,
+            this::fanOut);
+        this.bans = new BanList(options.getBanFile() != null ? Path.of(options.getBanFile()) : null);
+        bans.load();
+        // Banned addresses are refused at accept, before any handshake or per-client state
+        setWebSocketFactory(new ChatSocketFactory(this::onSocketWrite, bans::isBanned, metrics));
+        this.defaultRoom = newRoom(Room.DEFAULT_ID, new Vector4f(0.6f, 0.8f, 1.0f, 1.0f));
+        rooms.put(defaultRoom.getId(), defaultRoom);
+        this.cluster = options.getCluster() != null ? new Cluster(options.getCluster(), new ClusterListener()) : null;
+        registerGauges();
+        this.metricsServer = openMetricsServer(options.getMetricsPort());
+        logger.info("Server created on {}:{} ({} handler threads, {} fan-out threads)", ip, port,
+            options.getHandlerThreads(), options.getFanoutThreads());
+        logger.info("Client queues: {}", outboundSettings);
+        if (batchSettings != null) {
+            logger.info("Batching enabled: {}", batchSettings);
+        }
+        logger.info("Rate limits: {}", rateLimits != null ? rateLimits : "disabled");
+        if (options.getDeflate() != null) {
+            logger.info("Compression enabled: {}", options.getDeflate());
+        }
+        if (cluster != null) {
+            logger.info("Cluster mode: {}", options.getCluster());
+        }
+        RawFrameWriter.logMode();
+    }
+    
+    private static SegmentedLog openLog(ServerOptions options) {
+        if (options.getLog() == null) {
+            return null;
+        }
+        try {
+            return SegmentedLog.open(options.getLog());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open chat log in " + options.getLog().getDirectory(), e);
+        }
+    }
+    
+    /**
+     * Adds the queue depths and other state read at scrape time to the metrics registry.
+     */
+    private void registerGauges() {
+        MetricsRegistry registry = metrics.getRegistry();
+        registry.gauge("clichat_connections", "Open client connections", clients::size);
+        registry.gauge("clichat_rooms", "Open rooms", rooms::size);
+        registry.gauge("clichat_inbound_pending", "Messages received but not yet handled", this::getInboundPending);
+        List<MessagePipeline.StageStats> stages = pipeline.getStats();
+        for (int i = 0; i < stages.size(); i++) {
+            int stage = i;
+            registry.gauge("clichat_pipeline_depth", "Events waiting for a pipeline stage",
+                () -> pipeline.getStats().get(stage).depth(), "stage", stages.get(i).name());
+        }
+        registry.counter("clichat_pipeline_full_waits_total", "Times a publisher found the pipeline ring full",
+            pipeline::getFullWaits);
+        registry.gauge("clichat_outbound_queued_frames", "Frames waiting in client write queues",
+            () -> sumOutbound(false));
+        registry.gauge("clichat_outbound_queued_bytes", "Bytes waiting in client write queues",
+            () -> sumOutbound(true));
+        if (cluster != null) {
+            registry.gauge("clichat_cluster_nodes_up", "Cluster nodes on the ring, this one included",
+                () -> cluster.getLiveNodes().size());
+            registry.counter("clichat_relay_frames_total", "Frames sent to other cluster nodes", cluster::getFramesOut,
+                "direction", "out");
+            registry.counter("clichat_relay_frames_total", "Frames received from other cluster nodes",
+                cluster::getFramesIn, "direction", "in");
+            registry.counter("clichat_relay_dropped_total", "Frames for cluster nodes whose link was down",
+                cluster::getFramesDropped);
+        }
+        if (log != null) {
+            registry.counter("clichat_log_records_total", "Records written to the chat log", log::getNextSeq);
+            registry.gauge("clichat_log_queued_records", "Records waiting for the chat log writer", log::getQueued);
+            registry.counter("clichat_log_dropped_total", "Records the chat log dropped because it fell behind",
+                log::getDropped);
+            registry.counter("clichat_log_stalls_total", "Appends that waited for the chat log writer (fsync always)",
+                log::getStalls);
+        }
+    }
+    
+    private long sumOutbound(boolean bytes) {
+        long total = 0;
+        for (ClientInfo client : clients.values()) {
+            total += bytes ? client.outbound.getBytes() : client.outbound.size();
+        }
+        return total;
+    }
+    
+    private MetricsHttpServer openMetricsServer(int port) {
+        if (port == 0) {
+            return null;
+        }
+        try {
+            return MetricsHttpServer.start(metrics.getRegistry(), port);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot serve metrics on port " + port, e);
+        }
+    }
+    
+    private static Draft_6455 createDraft(ServerOptions options) {
+        List<IExtension> extensions = options.getDeflate() != null
+            ? List.of(new DeflateExtension(options.getDeflate()))
+            : Collections.emptyList();
+        return new Draft_6455(extensions, WireFormat.protocols());
+    }
+    
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket conn, Draft draft,
+            ClientHandshake request) throws InvalidDataException {
+        if (Cluster.isLink(request)
+                && (cluster == null || cluster.authenticate(request, conn.getRemoteSocketAddress().getAddress()) == null)) {
+            logger.warn("Refused cluster link from {} claiming to be {}: unknown node, wrong address or wrong secret",
+                conn.getRemoteSocketAddress(), request.getFieldValue(Cluster.NODE_HEADER));
+            throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, "Not a node of this cluster");
+        }
+        ServerHandshakeBuilder response = super.onWebsocketHandshakeReceivedAsServer(conn, draft, request);
+        response.put(WireFormat.FEATURES_HEADER, resumeGraceMillis > 0
+            ? WireFormat.FEATURE_REQUESTS + "," + WireFormat.FEATURE_RESUME
+            : WireFormat.FEATURE_REQUESTS);
+        return response;
     }
 
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        if (bans.isBanned(conn.getRemoteSocketAddress().getAddress())) {
+            // Banned while its handshake was in flight
+            conn.close(CloseFrame.POLICY_VALIDATION, "Banned");
+            return;
+        }
+        if (cluster != null && Cluster.isLink(handshake)) {
+            String node = cluster.authenticate(handshake, conn.getRemoteSocketAddress().getAddress());
+            links.put(conn, node);
+            logger.info("Cluster node {} linked from {}", node, conn.getRemoteSocketAddress());
+            return;
+        }
         String id = conn.getRemoteSocketAddress().toString();
-        clients.put(conn, new ClientInfo(id, "", new Vector4f(1.0f)));
-        logger.info("New connection from: {}", id);
+        WireFormat format = WireFormat.of(conn.getProtocol());
+        ClientInfo client = new ClientInfo(id, "", new Vector4f(1.0f), format,
+            new OutboundQueue(conn, outboundSettings, writers),
+            handlers != null ? new SerialExecutor(handlers, INBOUND_BUDGET) : null, rateLimits);
+        client.batching = WireFormat.hasFeature(handshake, WireFormat.FEATURE_BATCH);
+        client.interning = format == WireFormat.BINARY && WireFormat.hasFeature(handshake, WireFormat.FEATURE_SENDERS);
+        client.resumable = resumeGraceMillis > 0 && WireFormat.hasFeature(handshake, WireFormat.FEATURE_RESUME);
+        clients.put(conn, client);
+        metrics.connectionsOpened.increment();
+        logger.info("New connection from: {} ({}, {})", id, format,
+            DeflateExtension.of(conn) != null ? "deflate" : "uncompressed");
+    }
+
+    private void onSocketWrite(WebSocket conn) {
+        ClientInfo client = clients.get(conn);
+        if (client != null) {
+            client.outbound.onSocketWrite();
+        }
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        String node = links.remove(conn);
+        if (node != null) {
+            logger.info("Cluster node {} unlinked: {}", node, reason);
+            for (String id : rooms.keySet()) {
+                unsubscribe(node, id);
+            }
+            return;
+        }
+        ClientInfo client = clients.get(conn);
+        if (client != null && client.inbound != null) {
+            // Behind the messages still on the lane, so a late JOIN cannot put the client back in a room
+            try {
+                client.inbound.execute(() -> removeClient(conn, code));
+                return;
+            } catch (RejectedExecutionException e) {
+                // Stopping; clean up here
+            }
+        }
+        removeClient(conn, code);
+    }
+
+    private void removeClient(WebSocket conn, int code) {
         ClientInfo client = clients.remove(conn);
-        if (client != null && !client.name.isEmpty()) {
-            broadcast(gson.toJson(Message.leave(client.id, client.name, client.color)));
+        if (client != null) {
+            client.outbound.close();
+            if (client.session != null && !endSession(client.session, conn, code)) {
+                logger.info("Connection closed: {} ({}), session kept", client.name, conn.getRemoteSocketAddress());
+                return;
+            }
+            String key = nameKey(client.name);
+            if (key != null) {
+                names.remove(key, conn);
+            }
+        }
+        if (client != null && client.room != null) {
+            Room room = leaveRoom(conn, client);
+            publish(room, fromClient(client, Message.leave(client.id, client.name, client.color, room.getId())));
         }
         logger.info("Connection closed: {} ({})", client != null ? client.name : "unknown", conn.getRemoteSocketAddress());
     }
 
     @Override
     public void onMessage(WebSocket conn, String messageJson) {
-        try {
-            Message message = gson.fromJson(messageJson, Message.class);
-            ClientInfo client = clients.get(conn);
-            
-            if (client == null) {
-                logger.error("Message from unknown client: {}", conn.getRemoteSocketAddress());
-                return;
+        if (links.containsKey(conn)) {
+            return;  // Nodes only relay binary frames
+        }
+        dispatch(conn, () -> {
+            long start = System.nanoTime();
+            Request request = gson.fromJson(messageJson, Request.class);
+            metrics.decodeTime.recordSince(start);
+            handleRequest(conn, request);
+        });
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer messageBytes) {
+        String node = links.get(conn);
+        if (node != null) {
+            try {
+                cluster.handle(node, messageBytes);
+            } catch (RuntimeException e) {
+                metrics.messageErrors.increment();
+                logger.error("Error handling relay frame from {}: {}", node, e.getMessage());
             }
-            
-            switch (message.getType()) {
-                case JOIN:
-                    handleJoinMessage(conn, client, message);
-                    break;
-                case CHAT:
-                    handleChatMessage(conn, client, message);
-                    break;
-                case NICK_CHANGE:
-                    handleNickChange(conn, client, message);
-                    break;
-                case COLOR_CHANGE:
-                    handleColorChange(conn, client, message);
-                    break;
-                case COMMAND:
-                    handleCommand(conn, client, message);
-                    break;
-                default:
-                    logger.warn("Unhandled message type: {}", message.getType());
+            return;
+        }
+        // The library allocates each frame's payload, so it is safe to decode later on another thread
+        dispatch(conn, () -> {
+            long start = System.nanoTime();
+            Request request = BinaryMessageCodec.decodeRequest(messageBytes);
+            metrics.decodeTime.recordSince(start);
+            handleRequest(conn, request);
+        });
+    }
+
+    /**
+     * Decodes and handles a message on its connection's inbound lane, keeping
+     * the network thread free for reads and writes. Without handler threads the
+     * work runs here instead.
+     */
+    private void dispatch(WebSocket conn, Runnable work) {
+        Runnable task = () -> {
+            try {
+                work.run();
+            } catch (Exception e) {
+                metrics.messageErrors.increment();
+                logger.error("Error handling message: {}", e.getMessage());
+            }
+        };
+        ClientInfo client = clients.get(conn);
+        if (client == null || client.inbound == null) {
+            task.run();
+            return;
+        }
+        if (client.inbound.getPending() >= MAX_INBOUND_PENDING) {
+            if (conn.isOpen()) {
+                logger.warn("Disconnecting {} ({}) for flooding: {} messages waiting to be handled", client.name,
+                    client.id, client.inbound.getPending());
+                conn.close(CloseFrame.POLICY_VALIDATION, "Flooding");
             }
-        } catch (Exception e) {
-            logger.error("Error handling message: {}", e.getMessage());
+            return;
+        }
+        try {
+            client.inbound.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropping message from {}: server is stopping", client.id);
         }
     }
     
-    private void handleJoinMessage(WebSocket conn, ClientInfo client, Message message) {
-        // Update client info
-        client.name = message.getSenderName();
-        client.color = message.getSenderColor();
+    private void handleRequest(WebSocket conn, Request request) {
+        ClientInfo client = clients.get(conn);
+        if (client == null) {
+            logger.error("Message from unknown client: {}", conn.getRemoteSocketAddress());
+            return;
+        }
+        if (!conn.isOpen()) {
+            return;  // Frames still arriving after we started closing, e.g. from a flooder
+        }
+        metrics.received(request.type());
         
-        // Send room info
-        conn.send(gson.toJson(Message.roomUpdate(roomName, roomColor)));
+        TokenBucket limit = client.limitFor(request.type());
+        if (limit != null && !limit.tryAcquire()) {
+            handleFlood(conn, client, request.type());
+            return;
+        }
         
-        // Broadcast join message
-        broadcast(gson.toJson(Message.join(client.id, client.name, client.color)));
+        switch (request.type()) {
+            case JOIN:
+                handleJoinRequest(conn, client, request);
+                break;
+            case CHAT:
+                handleChatRequest(client, request);
+                break;
+            case NICK_CHANGE:
+                handleNickChange(conn, client, request);
+                break;
+            case COLOR_CHANGE:
+                handleColorChange(client, request);
+                break;
+            case COMMAND:
+                handleCommand(conn, client, request);
+                break;
+            case RESUME:
+                handleResume(conn, client, request);
+                break;
+            default:
+                logger.warn("Unhandled request type: {}", request.type());
+        }
+    }
+    
+    /**
+     * Refuses a request over the client's limit. Each refusal costs a strike;
+     * a client with no strikes left is disconnected.
+     */
+    private void handleFlood(WebSocket conn, ClientInfo client, Message.Type type) {
+        if (!client.strikes.tryAcquire()) {
+            logger.warn("Disconnecting {} ({}) for flooding", client.name, client.id);
+            conn.close(CloseFrame.POLICY_VALIDATION, "Flooding");
+            return;
+        }
+        String what;
+        switch (type) {
+            case NICK_CHANGE:
+                what = "Nickname change ignored: you are changing names too often";
+                break;
+            case COLOR_CHANGE:
+                what = "Color change ignored: you are changing colors too often";
+                break;
+            default:
+                what = "Message dropped: you are sending messages too fast";
+                break;
+        }
+        send(conn, Message.system(what + ". Keep it up and you will be disconnected."));
+        logger.debug("Rate limited {} ({}) on {}", client.name, client.id, type);
+    }
+    
+    private void handleJoinRequest(WebSocket conn, ClientInfo client, Request request) {
+        if (client.room != null) {
+            logger.warn("Duplicate join from {} ({})", client.name, client.id);
+            return;
+        }
+        String name = request.content();
+        String key = nameKey(name);
+        if (key == null) {
+            conn.close(CloseFrame.POLICY_VALIDATION, "Invalid nickname");
+            return;
+        }
+        if (bans.isNameBanned(key)) {
+            logger.info("Refused join from {}: nickname {} is banned", client.id, name);
+            conn.close(CloseFrame.POLICY_VALIDATION, "Banned");
+            return;
+        }
+        if (names.putIfAbsent(key, conn) != null) {
+            logger.info("Refused join from {}: nickname {} in use", client.id, name);
+            conn.close(CloseFrame.POLICY_VALIDATION, "Nickname already in use");
+            return;
+        }
         
+        // Update client info
+        client.name = name.trim();
+        client.color = request.color() != null ? new Vector4f(request.color()) : new Vector4f(1.0f);
+        updateProfile(client);
+        if (client.resumable) {
+            client.session = new Session(newToken(), conn, client);
+            sessions.put(client.session.token, client.session);
+            send(conn, Message.session(client.id, client.name, client.color, client.session.token));
+        }
+        enterRoom(conn, client, defaultRoom.getId());
         logger.info("Client joined: {} ({})", client.name, client.id);
     }
     
-    private void handleChatMessage(WebSocket conn, ClientInfo client, Message message) {
-        if (!client.name.equals(message.getSenderName())) {
-            logger.warn("Message sender mismatch: {} != {}", client.name, message.getSenderName());
+    /**
+     * Moves a dropped session onto this connection in place of a JOIN. The
+     * client gets back its name, color, operator status and room without
+     * anyone being told it left or joined, and is sent the room's chat since
+     * the last message it saw. A session still on a connection the server has
+     * not yet noticed dropping is taken from it.
+     */
+    private void handleResume(WebSocket conn, ClientInfo client, Request request) {
+        if (client.room != null) {
+            logger.warn("Resume from {} ({}) after joining", client.name, client.id);
             return;
         }
-        broadcast(gson.toJson(message));
-        logger.debug("Message from {}: {}", client.name, message.getContent());
+        Session session = client.resumable ? sessions.get(request.content()) : null;
+        WebSocket oldConn = null;
+        ClientInfo old = null;
+        if (session != null) {
+            synchronized (session) {
+                if (!session.ended && !bans.isNameBanned(nameKey(session.client.name))) {
+                    oldConn = session.conn;
+                    old = session.client;
+                    session.conn = conn;
+                    session.client = client;
+                    if (session.expiry != null) {
+                        session.expiry.cancel(false);
+                        session.expiry = null;
+                    }
+                    held.remove(oldConn, session);
+                }
+            }
+        }
+        if (old == null) {
+            // Expired or unknown; the client joins afresh instead
+            send(conn, Message.session(client.id, "", client.color, ""));
+            return;
+        }
+        
+        client.name = old.name;
+        client.color = old.color;
+        client.isOp = old.isOp;
+        client.session = session;
+        names.replace(nameKey(client.name), oldConn, conn);
+        updateProfile(client);
+        send(conn, Message.session(client.id, client.name, client.color, session.token));
+        Room room = old.room;
+        addMember(conn, client, room != null ? room.getId() : defaultRoom.getId(), request.seq());
+        if (room != null) {
+            leaveRoom(oldConn, old);
+        }
+        if (oldConn.isOpen()) {
+            oldConn.close(CloseFrame.NORMAL, "Session resumed on another connection");
+        }
+        metrics.sessionsResumed.increment();
+        logger.info("Session resumed: {} ({})", client.name, client.id);
+    }
+    
+    /**
+     * Settles a session whose connection has closed. A connection that dropped
+     * without a closing handshake keeps its session for the grace period.
+     *
+     * @return true if the session is over and the client leaves as usual,
+     *         false if it is kept or has already moved to another connection
+     */
+    private boolean endSession(Session session, WebSocket conn, int code) {
+        synchronized (session) {
+            if (session.conn != conn) {
+                return false;
+            }
+            if (session.ended) {
+                return true;  // Kicked or banned: no coming back
+            }
+            if (code == CloseFrame.ABNORMAL_CLOSE && session.client.room != null) {
+                try {
+                    session.expiry = writers.schedule(() -> {
+                        if (endHeldSession(session, conn)) {
+                            logger.info("Session of {} expired", session.client.name);
+                        }
+                    }, resumeGraceMillis, TimeUnit.MILLISECONDS);
+                    held.put(conn, session);
+                    return false;
+                } catch (RejectedExecutionException e) {
+                    // Stopping
+                }
+            }
+            session.ended = true;
+            sessions.remove(session.token);
+            return true;
+        }
     }
     
-    private void handleNickChange(WebSocket conn, ClientInfo client, Message message) {
+    /**
+     * Ends a session held after its connection dropped, because nobody resumed
+     * it in time or its user was kicked or banned, telling its room the client left.
+     *
+     * @return false if the session was resumed or had already ended
+     */
+    private boolean endHeldSession(Session session, WebSocket conn) {
+        synchronized (session) {
+            if (session.conn != conn || session.ended) {
+                return false;
+            }
+            session.ended = true;
+            if (session.expiry != null) {
+                session.expiry.cancel(false);
+                session.expiry = null;
+            }
+            sessions.remove(session.token);
+            held.remove(conn, session);
+        }
+        ClientInfo client = session.client;
+        names.remove(nameKey(client.name), conn);
+        if (client.room != null) {
+            Room room = leaveRoom(conn, client);
+            publish(room, fromClient(client, Message.leave(client.id, client.name, client.color, room.getId())));
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the client on a connection, including one that dropped and whose
+     * session is held for it to resume; null if there is none.
+     */
+    private ClientInfo clientOn(WebSocket conn) {
+        if (conn == null) {
+            return null;
+        }
+        ClientInfo client = clients.get(conn);
+        Session session = client == null ? held.get(conn) : null;
+        if (session != null) {
+            synchronized (session) {
+                if (session.conn == conn && !session.ended) {
+                    client = session.client;
+                }
+            }
+        }
+        return client;
+    }
+    
+    /**
+     * Closes a user's connection for good or, if it has already dropped, ends
+     * the session held for it. Either way the session cannot be resumed.
+     */
+    private void disconnect(WebSocket conn, int code, String reason) {
+        Session session = held.get(conn);
+        if (session != null && endHeldSession(session, conn)) {
+            return;
+        }
+        ClientInfo client = clients.get(conn);
+        if (client != null && client.session != null) {
+            synchronized (client.session) {
+                if (client.session.conn == conn) {
+                    client.session.ended = true;
+                    sessions.remove(client.session.token);
+                }
+            }
+        }
+        conn.close(code, reason);
+    }
+    
+    /** A random token to resume a session with. */
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    private void handleChatRequest(ClientInfo client, Request request) {
+        Room room = client.room;
+        if (room == null) {
+            return;
+        }
+        // Stamped with who the server knows the client as, and when the server got it
+        Message message = new Message(Message.Type.CHAT, client.profile, request.content());
+        message.setRoom(room.getId());
+        publish(room, message);
+        logger.debug("Message from {}: {}", client.name, request.content());
+    }
+    
+    private void handleNickChange(WebSocket conn, ClientInfo client, Request request) {
+        if (client.room == null) {
+            return;
+        }
+        String newName = request.content();
+        String key = newName != null ? nameKey(newName) : null;
+        if (key == null) {
+            send(conn, Message.system("Invalid nickname: use 1-32 characters without spaces"));
+            return;
+        }
+        if (bans.isNameBanned(key)) {
+            send(conn, Message.system("Nickname " + newName.trim() + " is banned"));
+            return;
+        }
+        WebSocket holder = names.putIfAbsent(key, conn);
+        if (holder != null && holder != conn) {
+            send(conn, Message.system("Nickname " + newName.trim() + " is already in use"));
+            return;
+        }
         String oldName = client.name;
-        client.name = message.getNewValue();
-        broadcast(gson.toJson(Message.nickChange(client.id, oldName, client.name, client.color)));
+        String oldKey = nameKey(oldName);
+        if (!key.equals(oldKey)) {
+            names.remove(oldKey, conn);
+        }
+        client.name = newName.trim();
+        updateProfile(client);
+        publishToRoomOf(client, fromClient(client, Message.nickChange(client.id, oldName, client.name, client.color)));
         logger.info("Nickname change: {} -> {}", oldName, client.name);
     }
     
-    private void handleColorChange(WebSocket conn, ClientInfo client, Message message) {
+    private void handleColorChange(ClientInfo client, Request request) {
+        if (request.color() == null) {
+            logger.warn("Color change without a color from {} ({})", client.name, client.id);
+            return;
+        }
         Vector4f oldColor = new Vector4f(client.color);
-        client.color = message.getSenderColor();
-        broadcast(gson.toJson(Message.colorChange(client.id, client.name, oldColor, client.color)));
+        client.color = new Vector4f(request.color());
+        updateProfile(client);
+        publishToRoomOf(client, fromClient(client, Message.colorChange(client.id, client.name, oldColor, client.color)));
         logger.info("Color change for {}", client.name);
     }
     
-    private void handleCommand(WebSocket conn, ClientInfo client, Message message) {
+    private void handleCommand(WebSocket conn, ClientInfo client, Request request) {
+        String[] parts = request.content().trim().split("\\s+", 2);
+        String command = parts[0].toLowerCase();
+        String args = parts.length > 1 ? parts[1].trim() : "";
+        
+        // Commands available to everyone
+        switch (command) {
+            case "/join":
+                handleJoinCommand(conn, client, args);
+                return;
+            case "/part":
+                handlePartCommand(conn, client);
+                return;
+            case "/list":
+                handleListCommand(conn);
+                return;
+            case "/msg":
+                handleDirectMessage(conn, client, args);
+                return;
+            case "/search":
+                handleSearchCommand(conn, client, args);
+                return;
+            default:
+                break;
+        }
+        
         if (!client.isOp) {
-            conn.send(gson.toJson(Message.system("You don't have permission to use this command")));
+            send(conn, Message.system("You don't have permission to use this command"));
             return;
         }
         
-        String[] parts = message.getContent().split("\\s+", 2);
-        String command = parts[0].toLowerCase();
-        String args = parts.length > 1 ? parts[1] : "";
-        
         switch (command) {
             case "/kick":
-                handleKickCommand(client, args);
+                handleKickCommand(conn, client, args);
                 break;
             case "/ban":
-                handleBanCommand(client, args);
+                handleBanCommand(conn, client, args);
+                break;
+            case "/banip":
+                handleBanAddressCommand(conn, client, args);
+                break;
+            case "/unban":
+                send(conn, Message.system(unban(args) ? "Unbanned " + args : "No ban matches " + args));
                 break;
             case "/op":
-                handleOpCommand(client, args);
+                handleOpCommand(conn, client, args);
+                break;
+            case "/stats":
+                sendAll(conn, getStatsLines().stream().map(Message::system).toList());
                 break;
             default:
-                conn.send(gson.toJson(Message.system("Unknown command: " + command)));
+                send(conn, Message.system("Unknown command: " + command));
         }
     }
     
-    private void handleKickCommand(ClientInfo sender, String targetName) {
-        for (Map.Entry<WebSocket, ClientInfo> entry : clients.entrySet()) {
-            if (entry.getValue().name.equals(targetName)) {
-                entry.getKey().close();
-                broadcast(gson.toJson(Message.system(targetName + " was kicked by " + sender.name)));
-                return;
+    private void handleJoinCommand(WebSocket conn, ClientInfo client, String args) {
+        String roomId = Room.toId(args);
+        if (roomId == null) {
+            send(conn, Message.system("Usage: /join <room> (letters, digits, _ and -, up to 32)"));
+            return;
+        }
+        if (client.room == null) {
+            return;
+        }
+        if (client.room.getId().equals(roomId)) {
+            send(conn, Message.system("You are already in #" + roomId));
+            return;
+        }
+        switchRoom(conn, client, roomId);
+    }
+    
+    private void handlePartCommand(WebSocket conn, ClientInfo client) {
+        if (client.room == null) {
+            return;
+        }
+        if (client.room.isDefault()) {
+            send(conn, Message.system("You are in the default room"));
+            return;
+        }
+        switchRoom(conn, client, defaultRoom.getId());
+    }
+    
+    private void handleDirectMessage(WebSocket conn, ClientInfo client, String args) {
+        String[] parts = args.split("\\s+", 2);
+        if (parts.length < 2 || parts[1].isBlank()) {
+            send(conn, Message.system("Usage: /msg <user> <message>"));
+            return;
+        }
+        WebSocket target = findConnection(parts[0]);
+        ClientInfo recipient = target != null ? clients.get(target) : null;
+        if (recipient == null) {
+            send(conn, Message.system("User not found: " + parts[0]));
+            return;
+        }
+        Message message = fromClient(client,
+            Message.direct(client.id, client.name, client.color, recipient.name, parts[1]));
+        send(target, message);
+        if (target != conn) {
+            send(conn, message);
+        }
+    }
+    
+    private void handleSearchCommand(WebSocket conn, ClientInfo client, String query) {
+        Room room = client.room;
+        if (search == null) {
+            send(conn, Message.system("Search is not available: this server does not keep a chat log"));
+            return;
+        }
+        if (room == null) {
+            return;
+        }
+        // Off the socket thread: a query may read hits from disk
+        fanout.execute(() -> sendAll(conn, search.search(query, room.getId())));
+    }
+    
+    private void handleListCommand(WebSocket conn) {
+        StringBuilder list = new StringBuilder("Rooms:");
+        for (Room room : getRooms()) {
+            list.append(" #").append(room.getId()).append(" (").append(room.getMemberCount()).append(')');
+        }
+        send(conn, Message.system(list.toString()));
+    }
+    
+    private void handleKickCommand(WebSocket conn, ClientInfo sender, String targetName) {
+        if (!kick(targetName, sender.name)) {
+            send(conn, Message.system("User not found: " + targetName));
+        }
+    }
+    
+    private void handleBanCommand(WebSocket conn, ClientInfo sender, String targetName) {
+        if (nameKey(targetName) == null) {
+            send(conn, Message.system("Usage: /ban <user>"));
+        } else if (!ban(targetName, sender.name)) {
+            send(conn, Message.system(targetName + " is already banned"));
+        }
+    }
+    
+    private void handleBanAddressCommand(WebSocket conn, ClientInfo sender, String spec) {
+        try {
+            String banned = banAddress(spec, sender.name);
+            send(conn, Message.system(banned != null ? "Banned " + banned : spec + " is already banned"));
+        } catch (IllegalArgumentException e) {
+            send(conn, Message.system("Usage: /banip <ip>[/<prefix length>]"));
+        }
+    }
+    
+    private void handleOpCommand(WebSocket conn, ClientInfo sender, String targetName) {
+        if (!setOp(targetName, true)) {
+            send(conn, Message.system("User not found: " + targetName));
+        }
+    }
+    
+    /**
+     * Disconnects the named user and announces it to their room.
+     *
+     * @param targetName Display name of the user to kick
+     * @param kickedBy Name shown as the source of the kick
+     * @return true if the user was found
+     */
+    public boolean kick(String targetName, String kickedBy) {
+        WebSocket conn = findConnection(targetName);
+        ClientInfo client = clientOn(conn);
+        if (client == null) {
+            return false;
+        }
+        // Before disconnecting: ending a held session takes the client out of its room
+        publishToRoomOf(client, Message.system(client.name + " was kicked by " + kickedBy));
+        disconnect(conn, CloseFrame.NORMAL, "");
+        return true;
+    }
+    
+    /**
+     * Bans a nickname, disconnecting its user if online. The ban holds across
+     * restarts when the server has a ban file.
+     *
+     * @return false if the name was already banned
+     */
+    public boolean ban(String targetName, String bannedBy) {
+        if (!bans.banName(targetName)) {
+            return false;
+        }
+        logger.info("{} banned by {}", targetName, bannedBy);
+        WebSocket conn = findConnection(targetName);
+        ClientInfo client = clientOn(conn);
+        if (client != null) {
+            publishToRoomOf(client, Message.system(client.name + " was banned by " + bannedBy));
+            disconnect(conn, CloseFrame.POLICY_VALIDATION, "Banned");
+        }
+        return true;
+    }
+    
+    /**
+     * Bans an address or CIDR range such as {@code 203.0.113.0/24} and disconnects
+     * everyone connected from it. New connections from the range are refused on accept.
+     *
+     * @return the range as stored, or null if it was already banned
+     * @throws IllegalArgumentException if the text is not an address or range
+     */
+    public String banAddress(String spec, String bannedBy) {
+        CidrTrie.Prefix prefix = bans.banAddress(spec);
+        if (prefix == null) {
+            return null;
+        }
+        logger.info("{} banned by {}", prefix, bannedBy);
+        List<WebSocket> matched = new ArrayList<>();
+        for (WebSocket conn : clients.keySet()) {
+            if (bans.isBanned(conn.getRemoteSocketAddress().getAddress())) {
+                matched.add(conn);
             }
         }
-        // Target not found
-        broadcast(gson.toJson(Message.system("User not found: " + targetName)));
+        for (WebSocket conn : held.keySet()) {
+            if (bans.isBanned(conn.getRemoteSocketAddress().getAddress())) {
+                matched.add(conn);
+            }
+        }
+        for (WebSocket conn : matched) {
+            ClientInfo client = clientOn(conn);
+            if (client != null) {
+                // Not yet joined clients have no room to tell
+                publishToRoomOf(client, Message.system(client.name + " was banned by " + bannedBy));
+                disconnect(conn, CloseFrame.POLICY_VALIDATION, "Banned");
+            }
+        }
+        return prefix.toString();
     }
     
-    private void handleBanCommand(ClientInfo sender, String targetName) {
-        // TODO: Implement ban system
-        broadcast(gson.toJson(Message.system("Ban system not implemented yet")));
+    /**
+     * Lifts a ban on an address range or nickname.
+     *
+     * @return false if no ban matched
+     */
+    public boolean unban(String value) {
+        boolean removed = bans.unban(value);
+        if (removed) {
+            logger.info("Unbanned {}", value);
+        }
+        return removed;
     }
     
-    private void handleOpCommand(ClientInfo sender, String targetName) {
+    public BanList getBans() { return bans; }
+    
+    /** The durable chat log, or null when chat is not persisted. */
+    public SegmentedLog getLog() { return log; }
+    
+    /** The sequence, persist and fan-out stages room messages pass through. */
+    public MessagePipeline getPipeline() { return pipeline; }
+    
+    public ServerMetrics getMetrics() { return metrics; }
+    
+    /** This node's view of its cluster, or null when running standalone. */
+    public Cluster getCluster() { return cluster; }
+    
+    /**
+     * A short report on load and queue depths, for {@code /stats}.
+     */
+    public List<String> getStatsLines() {
+        List<String> lines = new ArrayList<>();
+        long uptime = (System.currentTimeMillis() - metrics.getStartMillis()) / 1000;
+        lines.add(String.format("Up %dh %02dm: %d connection(s) (%d opened, %d refused), %d room(s)",
+            uptime / 3600, uptime / 60 % 60, clients.size(), metrics.getConnectionsOpened(),
+            metrics.getConnectionsRefused(), rooms.size()));
+        lines.addAll(metrics.describe());
+        StringBuilder queues = new StringBuilder("Queues: inbound ").append(getInboundPending());
+        for (MessagePipeline.StageStats stage : pipeline.getStats()) {
+            queues.append(", ").append(stage.name()).append(' ').append(stage.depth());
+        }
+        queues.append(", outbound ").append(sumOutbound(false)).append(" frame(s) (")
+            .append(ServerMetrics.formatBytes(sumOutbound(true))).append(')');
+        lines.add(queues.toString());
+        if (cluster != null) {
+            lines.add(cluster.describe().get(0));
+        }
+        if (log != null) {
+            lines.add(String.format("Log: %d record(s), %d queued, %d dropped, %d stalled", log.getNextSeq(),
+                log.getQueued(), log.getDropped(), log.getStalls()));
+        }
+        return lines;
+    }
+    
+    /** Messages received but not yet handled, summed over every client's inbound lane. */
+    public long getInboundPending() {
+        long total = 0;
         for (ClientInfo client : clients.values()) {
-            if (client.name.equals(targetName)) {
-                client.isOp = true;
-                broadcast(gson.toJson(Message.system(targetName + " is now an operator")));
-                return;
+            if (client.inbound != null) {
+                total += client.inbound.getPending();
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Grants or revokes operator status for the named user and announces it to their room.
+     *
+     * @return true if the user was found
+     */
+    public boolean setOp(String targetName, boolean op) {
+        WebSocket conn = findConnection(targetName);
+        ClientInfo client = clientOn(conn);
+        if (client == null) {
+            return false;
+        }
+        client.isOp = op;  // Carried over if the client is away and resumes
+        publishToRoomOf(client, Message.system(client.name +
+            (op ? " is now an operator" : " is no longer an operator")));
+        return true;
+    }
+    
+    /**
+     * Looks up a joined user's connection by nickname, ignoring case. For a user
+     * whose session is held after a drop, this is the connection that dropped.
+     *
+     * @return the connection, or null if nobody by that name is online
+     */
+    public WebSocket findConnection(String name) {
+        String key = nameKey(name);
+        return key != null ? names.get(key) : null;
+    }
+    
+    /**
+     * Normalizes a nickname for uniqueness checks and lookups.
+     *
+     * @return the key, or null if the name is not a valid nickname
+     */
+    private static String nameKey(String name) {
+        if (name == null) {
+            return null;
+        }
+        String trimmed = name.trim();
+        if (trimmed.isEmpty() || trimmed.length() > MAX_NAME_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < trimmed.length(); i++) {
+            if (Character.isWhitespace(trimmed.charAt(i)) || Character.isISOControl(trimmed.charAt(i))) {
+                return null;
+            }
+        }
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Returns the names of all users that have completed the join handshake.
+     */
+    public List<String> getUserNames() {
+        List<String> list = new ArrayList<>(names.size());
+        for (WebSocket conn : names.values()) {
+            ClientInfo client = clientOn(conn);  // Includes users away within the resume grace period
+            if (client != null) {
+                list.add(client.isOp ? "@" + client.name : client.name);
+            }
+        }
+        return list;
+    }
+    
+    /**
+     * Returns a snapshot of the open rooms, default room first, then by name.
+     */
+    public List<Room> getRooms() {
+        List<Room> list = new ArrayList<>(rooms.values());
+        list.sort(Comparator.comparing((Room room) -> !room.isDefault()).thenComparing(Room::getId));
+        return list;
+    }
+    
+    public String getRoomName() { return defaultRoom.getId(); }
+    public Vector4f getRoomColor() { return defaultRoom.getColor(); }
+
+    private void switchRoom(WebSocket conn, ClientInfo client, String roomId) {
+        Room old = leaveRoom(conn, client);
+        publish(old, fromClient(client, Message.leave(client.id, client.name, client.color, old.getId())));
+        enterRoom(conn, client, roomId);
+        logger.info("{} moved from #{} to #{}", client.name, old.getId(), roomId);
+    }
+    
+    private void enterRoom(WebSocket conn, ClientInfo client, String roomId) {
+        Room room = addMember(conn, client, roomId, 0);
+        if (room != null) {
+            publish(room, fromClient(client, Message.join(client.id, client.name, client.color, room.getId())));
+        }
+    }
+    
+    /**
+     * Puts the client in a room and queues it the room's backlog: the recent
+     * chat, or only what came after a position for a client resuming.
+     *
+     * @param after number of the last message the client saw here, or 0
+     * @return the room, or null if the server is stopping
+     */
+    private Room addMember(WebSocket conn, ClientInfo client, String roomId, long after) {
+        // compute() keeps creation and membership atomic against a concurrent leaveRoom removing it
+        Room room = rooms.compute(roomId, (id, existing) -> {
+            Room target = existing;
+            if (target == null) {
+                target = newRoom(id, Room.colorFor(id));
+                subscribeToOwner(target);
+            }
+            target.members().add(conn);
+            return target;
+        });
+        client.room = room;
+        // In sequence, so everything delivered before this is in the backlog and everything after goes live
+        Runnable ready = () -> {
+            synchronized (client) {
+                if (client.room != room) {
+                    return;  // Moved on before the room got this far
+                }
+                // Tells the client where live messages pick up, after the backlog
+                Message update = Message.roomUpdate(room.getId(), room.getId(), room.getColor());
+                update.setSeq(room.position());
+                send(conn, update);
+                sendBacklog(conn, client, room, after);
+                client.ready = room;
+            }
+        };
+        return sequence(room, ready) ? room : null;
+    }
+    
+    /**
+     * Replays the room's recent chat after a position to a joining client as
+     * one frame. Runs on the room's lane.
+     */
+    private void sendBacklog(WebSocket conn, ClientInfo client, Room room, long after) {
+        PreparedMessage backlog = after > 0 ? room.backlogAfter(after) : room.backlog();
+        if (backlog == null) {
+            return;
+        }
+        if (client.batching) {
+            offer(conn, client, backlog, null);
+        } else {
+            for (PreparedMessage part : backlog.getParts()) {
+                offer(conn, client, part, null);
+            }
+        }
+        metrics.sent(Message.Type.CHAT, backlog.getParts().size());
+    }
+    
+    /**
+     * Removes the client from its room, dropping the room once it is empty.
+     *
+     * @return the room the client was in
+     */
+    private Room leaveRoom(WebSocket conn, ClientInfo client) {
+        Room room = client.room;
+        synchronized (client) {
+            // Nothing more from any room until the next one has sent its backlog
+            client.room = null;
+            client.ready = null;
+        }
+        rooms.computeIfPresent(room.getId(), (id, existing) -> {
+            existing.members().remove(conn);
+            if (!existing.isIdle()) {
+                return existing;
+            }
+            String owner = ownerOf(id);
+            if (owner != null) {
+                cluster.unsubscribe(owner, id);
+            }
+            return null;
+        });
+        return room;
+    }
+    
+    /**
+     * Returns the cluster node that owns a room, or null when this node does
+     * (always the case outside cluster mode).
+     */
+    private String ownerOf(String roomId) {
+        if (cluster == null) {
+            return null;
+        }
+        String owner = cluster.ownerOf(roomId);
+        return owner.equals(cluster.getNode()) ? null : owner;
+    }
+    
+    /**
+     * Asks the owner of a room this node does not own to relay its messages
+     * here. Call inside a {@code rooms} update, so subscriptions reach the
+     * owner in the order rooms come and go.
+     */
+    private void subscribeToOwner(Room room) {
+        String owner = ownerOf(room.getId());
+        if (owner != null) {
+            cluster.subscribe(owner, room.getId(), room.position());
+        }
+    }
+    
+    private void unsubscribe(String node, String roomId) {
+        rooms.computeIfPresent(roomId, (id, existing) -> {
+            existing.subscribers().remove(node);
+            return existing.isIdle() ? null : existing;
+        });
+    }
+    
+    /**
+     * Runs a task on the room's lane behind everything published to the room
+     * so far. Rooms owned elsewhere get their messages straight onto the lane
+     * from the owner, so their tasks go straight there too.
+     *
+     * @return false if the server is stopping
+     */
+    private boolean sequence(Room room, Runnable task) {
+        if (ownerOf(room.getId()) == null) {
+            return pipeline.execute(room, task);
+        }
+        try {
+            room.lane().execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+    
+    private void publishToRoomOf(ClientInfo client, Message message) {
+        Room room = client.room;
+        if (room != null) {
+            message.setRoom(room.getId());
+            publish(room, message);
+        }
+    }
+    
+    /**
+     * Sends a broadcast down the pipeline, which persists it and passes it on to
+     * the room's lane. Each room fans out on its own lane, so messages within a
+     * room keep their order while rooms proceed in parallel.
+     */
+    private void publish(Room room, Message message) {
+        publish(room, new PreparedMessage(message));
+    }
+    
+    private void publish(Room room, PreparedMessage prepared) {
+        String owner = ownerOf(room.getId());
+        if (owner != null) {
+            cluster.forward(owner, room.getId(), prepared);
+            return;
+        }
+        if (!pipeline.publish(room, prepared)) {
+            logger.debug("Dropping message for #{}: server is stopping", room.getId());
+        }
+    }
+    
+    /**
+     * Batches or delivers a message that has come through the pipeline. Runs on the room's lane.
+     */
+    private void fanOut(Room room, PreparedMessage prepared) {
+        Batcher batcher = room.batcher();
+        if (batcher != null) {
+            batcher.submit(prepared);
+        } else {
+            deliver(room, prepared);
+        }
+    }
+    
+    private Room newRoom(String id, Vector4f color) {
+        Room room = new Room(id, color, fanout, historySize);
+        if (batchSettings != null) {
+            room.setBatcher(new Batcher(batchSettings, room.lane(), writers, prepared -> deliver(room, prepared)));
+        }
+        return room;
+    }
+    
+    /**
+     * Queues a message or batch for every member of a room, and relays it to
+     * the other cluster nodes with members there. Runs on the room's lane.
+     */
+    private void deliver(Room room, PreparedMessage prepared) {
+        deliverLocal(room, prepared);
+        if (cluster != null && !room.subscribers().isEmpty()) {
+            cluster.relay(room.subscribers(), room.getId(), prepared);
+        }
+    }
+    
+    /**
+     * Queues a message or batch for every member of a room on this node. Runs on the room's lane.
+     */
+    private void deliverLocal(Room room, PreparedMessage prepared) {
+        long start = System.nanoTime();
+        room.record(prepared);
+        String key = prepared.isBatch() ? null : OutboundQueue.coalesceKey(prepared.getMessage());
+        int recipients = 0;
+        for (WebSocket member : room.members()) {
+            ClientInfo info = clients.get(member);
+            if (info == null || info.ready != room) {
+                continue;
+            }
+            recipients++;
+            if (prepared.isBatch() && !info.batching) {
+                for (PreparedMessage part : prepared.getParts()) {
+                    offer(member, info, part, OutboundQueue.coalesceKey(part.getMessage()));
+                }
+            } else {
+                offer(member, info, prepared, key);
+            }
+        }
+        if (prepared.isBatch()) {
+            for (PreparedMessage part : prepared.getParts()) {
+                metrics.sent(part.getMessage().getType(), recipients);
+            }
+        } else {
+            metrics.sent(prepared.getMessage().getType(), recipients);
+        }
+        metrics.fanoutTime.recordSince(start);
+    }
+
+    /**
+     * Hands room messages to the chat log as their binary frame payload, the same
+     * bytes binary clients receive. Server-wide announcements belong to no room and are not kept.
+     * Runs on the pipeline's persist stage.
+     */
+    private void persist(PreparedMessage prepared) {
+        if (prepared.isBatch()) {
+            for (PreparedMessage part : prepared.getParts()) {
+                persist(part);
+            }
+        } else if (prepared.getMessage().getRoom() != null) {
+            log.append(prepared.frame(WireFormat.BINARY).payload());
+        }
+    }
+
+    /**
+     * Sends a message to every room. The message is serialized and framed once
+     * per wire format in use, and the same frame is shared by all recipients.
+     */
+    public void broadcast(Message message) {
+        PreparedMessage prepared = new PreparedMessage(message);
+        for (Room room : rooms.values()) {
+            publish(room, prepared);
+        }
+    }
+    
+    /**
+     * Sends several messages to one client, as a single batch frame if it can unpack one.
+     */
+    private void sendAll(WebSocket conn, List<Message> messages) {
+        ClientInfo client = clients.get(conn);
+        if (client == null || !client.batching || messages.size() < 2) {
+            for (Message message : messages) {
+                send(conn, message);
+            }
+            return;
+        }
+        List<PreparedMessage> parts = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            parts.add(new PreparedMessage(message));
+        }
+        offer(conn, client, PreparedMessage.batch(parts), null);
+        for (Message message : messages) {
+            metrics.sent(message.getType(), 1);
+        }
+    }
+    
+    private void send(WebSocket conn, Message message) {
+        ClientInfo client = clients.get(conn);
+        if (client == null) {
+            new PreparedMessage(message).sendTo(conn, WireFormat.JSON);
+            return;
+        }
+        offer(conn, client, new PreparedMessage(message), OutboundQueue.coalesceKey(message));
+        metrics.sent(message.getType(), 1);
+    }
+
+    /**
+     * Queues a message or batch for a client in its format. A client that interns
+     * senders is first sent each profile the frame refers to that it has not seen,
+     * under the same lock, so no frame can overtake the profile it refers to.
+     */
+    private void offer(WebSocket conn, ClientInfo client, PreparedMessage prepared, String key) {
+        if (!client.interning) {
+            client.outbound.offer(prepared.frameFor(conn, client.format), key);
+            return;
+        }
+        synchronized (client.knownSenders) {
+            if (prepared.isBatch()) {
+                for (PreparedMessage part : prepared.getParts()) {
+                    introduce(client, part.getMessage().getProfile());
+                }
+            } else {
+                introduce(client, prepared.getMessage().getProfile());
+            }
+            client.outbound.offer(prepared.internedFrameFor(conn), key);
+        }
+    }
+
+    private static void introduce(ClientInfo client, SenderProfile profile) {
+        if (profile != null && client.knownSenders.add(profile.ref())) {
+            client.outbound.offerPinned(profile.frame());
+        }
+    }
+
+    /**
+     * Gives the client a new sender profile for its current name and color.
+     * Profiles are never changed, so history keeps showing the old ones.
+     */
+    private void updateProfile(ClientInfo client) {
+        client.profile = new SenderProfile(senderRefs.incrementAndGet(), client.id, client.name, client.color);
+    }
+
+    /**
+     * Marks a message the server built from a client's name and color as sent under its profile.
+     */
+    private static Message fromClient(ClientInfo client, Message message) {
+        message.setProfile(client.profile);
+        return message;
+    }
+
+    /**
+     * Applies what other cluster nodes send. Runs on the network thread of the node's link.
+     */
+    private class ClusterListener implements Cluster.Listener {
+        @Override
+        public void onSubscribe(String node, String roomId, long seq) {
+            rooms.compute(roomId, (id, existing) -> {
+                Room target = existing != null ? existing : newRoom(id, Room.colorFor(id));
+                target.subscribers().add(node);
+                target.seen(seq);
+                return target;
+            });
+        }
+
+        @Override
+        public void onUnsubscribe(String node, String roomId) {
+            unsubscribe(node, roomId);
+        }
+
+        @Override
+        public void onPublish(String roomId, PreparedMessage prepared) {
+            Room room = rooms.get(roomId);
+            // Sequenced here even if this node no longer thinks it owns the room, so it cannot bounce between nodes
+            if (room == null || !pipeline.publish(room, prepared)) {
+                logger.debug("Dropping relayed message for #{}", roomId);
+            }
+        }
+
+        @Override
+        public void onDeliver(String roomId, ByteBuffer payload) {
+            Room room = rooms.get(roomId);
+            if (room == null) {
+                return;  // Left since subscribing
+            }
+            try {
+                room.lane().execute(() -> {
+                    try {
+                        deliverLocal(room, PreparedMessage.fromBinary(payload));
+                    } catch (IllegalArgumentException e) {
+                        metrics.messageErrors.increment();
+                        logger.error("Bad relayed message for #{}: {}", roomId, e.getMessage());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.debug("Dropping relayed message for #{}: server is stopping", roomId);
+            }
+        }
+
+        @Override
+        public void onMembershipChanged() {
+            for (String roomId : rooms.keySet()) {
+                rooms.computeIfPresent(roomId, (id, room) -> {
+                    if (ownerOf(id) == null) {
+                        return room;
+                    }
+                    // Other nodes subscribe with the new owner themselves
+                    room.subscribers().clear();
+                    if (room.isIdle()) {
+                        return null;
+                    }
+                    subscribeToOwner(room);
+                    return room;
+                });
             }
         }
-        // Target not found
-        broadcast(gson.toJson(Message.system("User not found: " + targetName)));
     }
 
     @Override
-    public void onError(WebSocket conn, Exception ex) {
-        if (conn != null) {
-            clients.remove(conn);
+    public void stop(int timeout, String closeMessage) throws InterruptedException {
+        try {
+            super.stop(timeout, closeMessage);
+        } finally {
+            for (Session session : sessions.values()) {
+                synchronized (session) {
+                    if (session.expiry != null) {
+                        session.expiry.cancel(false);  // No one is left to tell
+                    }
+                }
+            }
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+            if (handlers != null) {
+                // Let close handling queued on the lanes publish its LEAVEs before fan-out stops
+                handlers.shutdown();
+                handlers.awaitTermination(Math.max(timeout, 1000), TimeUnit.MILLISECONDS);
+            }
+            if (cluster != null) {
+                cluster.close();
+            }
+            pipeline.close();
+            fanout.shutdown();
+            writers.shutdown();
+            if (log != null) {
+                log.close();
+            }
         }
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
         logger.error("Server error: {}", ex.getMessage());
     }
 
     @Override
     public void onStart() {
         logger.info("Server started successfully");
+        if (cluster != null) {
+            cluster.start();
+        }
     }
 } 
\ No newline at end of file
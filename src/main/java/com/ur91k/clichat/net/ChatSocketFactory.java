@@ -0,0 +1,113 @@
+package com.ur91k.clichat.net;
+
+import org.java_websocket.WebSocketAdapter;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.WebSocketServerFactory;
+import org.java_websocket.drafts.Draft;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Socket factory for {@link ChatServer}.
+ *
+ * <p>It refuses connections from banned addresses right after accept,
+ * before the handshake is read or any buffers are allocated, so a banned
+ * host reconnecting in a loop costs an accept and a close.</p>
+ *
+ * <p>It also reports every write the selector thread makes, so
+ * {@link OutboundQueue}s can refill a connection as soon as its socket drains
+ * instead of polling for it, and counts the bytes each socket moves.</p>
+ */
+class ChatSocketFactory implements WebSocketServerFactory {
+    private final Consumer<WebSocketImpl> onWrite;
+    private final Predicate<InetAddress> refuse;
+    private final ServerMetrics metrics;
+
+    ChatSocketFactory(Consumer<WebSocketImpl> onWrite, Predicate<InetAddress> refuse, ServerMetrics metrics) {
+        this.onWrite = onWrite;
+        this.refuse = refuse;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter adapter, Draft draft) {
+        return new WebSocketImpl(adapter, draft);
+    }
+
+    @Override
+    public WebSocketImpl createWebSocket(WebSocketAdapter adapter, List<Draft> drafts) {
+        return new WebSocketImpl(adapter, drafts);
+    }
+
+    /**
+     * Throwing here makes the server cancel the key and close the socket without a handshake.
+     */
+    @Override
+    public ByteChannel wrapChannel(SocketChannel channel, SelectionKey key) throws IOException {
+        InetAddress address = channel.socket().getInetAddress();
+        if (address != null && refuse.test(address)) {
+            metrics.connectionsRefused.increment();
+            throw new IOException("Refused connection from banned address " + address.getHostAddress());
+        }
+        return new TrackingChannel(channel, key, onWrite, metrics);
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    private static final class TrackingChannel implements ByteChannel {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Consumer<WebSocketImpl> onWrite;
+        private final ServerMetrics metrics;
+
+        TrackingChannel(SocketChannel channel, SelectionKey key, Consumer<WebSocketImpl> onWrite,
+                ServerMetrics metrics) {
+            this.channel = channel;
+            this.key = key;
+            this.onWrite = onWrite;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int written = channel.write(src);
+            if (written > 0) {
+                metrics.bytesOut.add(written);
+                if (key.attachment() instanceof WebSocketImpl conn) {
+                    onWrite.accept(conn);
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int read = channel.read(dst);
+            if (read > 0) {
+                metrics.bytesIn.add(read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
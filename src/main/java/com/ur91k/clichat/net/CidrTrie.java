@@ -0,0 +1,204 @@
+package com.ur91k.clichat.net;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Binary prefix trie of IP ranges, answering "is this address in any range" in at most 128 steps.
+ *
+ * <p>Nodes live in two flat arrays rather than as objects: node {@code n} has its
+ * children at {@code children[2n]} (bit 0) and {@code children[2n + 1]} (bit 1),
+ * and its terminal flag in a bit set. IPv4 addresses are stored as IPv4-mapped
+ * IPv6 addresses, so one trie covers both families.</p>
+ *
+ * <p>Not thread-safe while being built. {@link BanList} builds a fresh trie on
+ * every change and publishes it, so lookups never lock.</p>
+ */
+public final class CidrTrie {
+    private static final int BITS = 128;
+    private static final int V4_OFFSET = 96;
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern IPV6 = Pattern.compile("[0-9a-fA-F:.]*:[0-9a-fA-F:.]*");
+
+    private int[] children = new int[32];  // 0 = no child; the root is never anyone's child
+    private long[] terminal = new long[1];
+    private int nodes = 1;
+
+    /**
+     * An address range in CIDR notation, normalized to 128 bits.
+     */
+    public record Prefix(byte[] address, int length) {
+        /**
+         * Parses an address literal such as {@code 10.1.2.3}, or a range such as
+         * {@code 10.0.0.0/8} or {@code 2001:db8::/32}. Host names are rejected
+         * rather than looked up.
+         *
+         * @throws IllegalArgumentException if the text is not an address or range
+         */
+        public static Prefix parse(String text) {
+            String spec = text.trim();
+            int slash = spec.indexOf('/');
+            String host = slash >= 0 ? spec.substring(0, slash) : spec;
+            boolean v4 = IPV4.matcher(host).matches();
+            if (!v4 && !IPV6.matcher(host).matches()) {
+                throw new IllegalArgumentException("Not an IP address: " + host);
+            }
+            byte[] address;
+            try {
+                // IPv4 is assembled here, so an out-of-range octet cannot reach a DNS lookup;
+                // text with a colon is only ever read as an IPv6 literal
+                address = toBytes(v4 ? InetAddress.getByAddress(v4Bytes(host)) : InetAddress.getByName(host));
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Not an IP address: " + host);
+            }
+            int max = v4 ? BITS - V4_OFFSET : BITS;
+            int length = max;
+            if (slash >= 0) {
+                try {
+                    length = Integer.parseInt(spec.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+                if (length < 0 || length > max) {
+                    throw new IllegalArgumentException("Prefix length must be 0-" + max + ": " + spec);
+                }
+            }
+            if (v4) {
+                length += V4_OFFSET;
+            }
+            return new Prefix(mask(address, length), length);
+        }
+
+        private static byte[] v4Bytes(String host) {
+            String[] octets = host.split("\\.");
+            byte[] bytes = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                int octet = Integer.parseInt(octets[i]);  // 1-3 digits, by the pattern
+                if (octet > 255) {
+                    throw new IllegalArgumentException("Not an IP address: " + host);
+                }
+                bytes[i] = (byte) octet;
+            }
+            return bytes;
+        }
+
+        /** Formats the range as {@code a.b.c.d/n} for IPv4, or in compressed IPv6 notation. */
+        @Override
+        public String toString() {
+            try {
+                if (isMapped(address) && length >= V4_OFFSET) {
+                    byte[] v4 = Arrays.copyOfRange(address, 12, 16);
+                    return InetAddress.getByAddress(v4).getHostAddress() + "/" + (length - V4_OFFSET);
+                }
+                return InetAddress.getByAddress(address).getHostAddress() + "/" + length;
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e);  // Only thrown for bad array lengths
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Prefix other && length == other.length && Arrays.equals(address, other.address);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(address) + length;
+        }
+    }
+
+    /**
+     * Adds a range. Ranges inside one already present are ignored.
+     */
+    public void add(Prefix prefix) {
+        byte[] address = prefix.address();
+        int node = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (isTerminal(node)) {
+                return;
+            }
+            int slot = 2 * node + bit(address, i);
+            if (children[slot] == 0) {
+                int child = newNode();  // May grow the array, so assign after the call
+                children[slot] = child;
+            }
+            node = children[slot];
+        }
+        terminal[node >>> 6] |= 1L << node;
+    }
+
+    /**
+     * Returns true if the address falls inside any range in the trie.
+     */
+    public boolean contains(InetAddress address) {
+        byte[] bytes = toBytes(address);
+        int node = 0;
+        for (int i = 0; i < BITS; i++) {
+            if (isTerminal(node)) {
+                return true;
+            }
+            node = children[2 * node + bit(bytes, i)];
+            if (node == 0) {
+                return false;
+            }
+        }
+        return isTerminal(node);
+    }
+
+    /** Number of nodes, including the root. */
+    public int size() { return nodes; }
+
+    private boolean isTerminal(int node) {
+        return (terminal[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private int newNode() {
+        int node = nodes++;
+        if (2 * nodes > children.length) {
+            children = Arrays.copyOf(children, children.length * 2);
+        }
+        if ((node >>> 6) >= terminal.length) {
+            terminal = Arrays.copyOf(terminal, terminal.length * 2);
+        }
+        return node;
+    }
+
+    private static int bit(byte[] address, int index) {
+        return (address[index >>> 3] >>> (7 - (index & 7))) & 1;
+    }
+
+    private static byte[] mask(byte[] address, int length) {
+        byte[] masked = address.clone();
+        for (int i = length; i < BITS; i++) {
+            masked[i >>> 3] &= (byte) ~(0x80 >>> (i & 7));
+        }
+        return masked;
+    }
+
+    private static boolean isMapped(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return address[10] == (byte) 0xFF && address[11] == (byte) 0xFF;
+    }
+
+    /**
+     * Widens an address to 16 bytes, mapping IPv4 into {@code ::ffff:0:0/96}.
+     */
+    static byte[] toBytes(InetAddress address) {
+        byte[] raw = address.getAddress();
+        if (address instanceof Inet4Address) {
+            byte[] mapped = new byte[16];
+            mapped[10] = (byte) 0xFF;
+            mapped[11] = (byte) 0xFF;
+            System.arraycopy(raw, 0, mapped, 12, 4);
+            return mapped;
+        }
+        return raw;
+    }
+}
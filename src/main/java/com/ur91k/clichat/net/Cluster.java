@@ -0,0 +1,366 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.util.HashRing;
+import com.ur91k.clichat.util.Logger;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Links this server to the other nodes of a cluster and decides which node owns each room.
+ *
+ * <p>Rooms are placed on a {@link HashRing} of the nodes that are up, so every
+ * node agrees on a room's owner once their links settle. The owner sequences,
+ * persists and fans out the room's messages; other nodes forward messages from
+ * their users to it, subscribe to the rooms their users are in, and hand what
+ * the owner relays back to their own members. Relayed messages travel as their
+ * binary frame payload, so nothing is re-encoded on the way.</p>
+ *
+ * <p>Each node dials every other node on its client port and sends only on the
+ * link it dialled, so everything one node sends another arrives in order.
+ * Frames arriving on links other nodes dialled are handed to {@link #handle}.</p>
+ *
+ * <p>A link is accepted only from a listed node's address and with the shared
+ * secret. Links are plain {@code ws://}, so the secret and the relayed traffic
+ * cross the network in the clear: keep the nodes on a private network, or
+ * tunnel their ports over TLS.</p>
+ *
+ * <pre>
+ * op       u8       1 subscribe, 2 unsubscribe, 3 publish (to the owner), 4 deliver (from the owner)
+ * room     string   varint byte length + UTF-8 bytes
+ * [seq     varint]  subscribe: the last message number the subscriber has delivered in the room
+ * [payload]         publish and deliver: one binary message or batch, as sent to clients
+ * </pre>
+ */
+public class Cluster {
+    private static final Logger logger = Logger.getLogger(Cluster.class);
+
+    /** Handshake header naming the dialling node; its presence marks a link rather than a client. */
+    static final String NODE_HEADER = "Clichat-Node";
+    static final String SECRET_HEADER = "Clichat-Cluster-Secret";
+
+    private static final int RING_REPLICAS = 128;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final int OP_SUBSCRIBE = 1;
+    private static final int OP_UNSUBSCRIBE = 2;
+    private static final int OP_PUBLISH = 3;
+    private static final int OP_DELIVER = 4;
+
+    /**
+     * What arrives from other nodes, called on the network thread of the link it came in on.
+     */
+    interface Listener {
+        /**
+         * A node has users in a room this node owns and wants its messages.
+         *
+         * @param seq number of the last message the node delivered in the room, or 0
+         */
+        void onSubscribe(String node, String room, long seq);
+        void onUnsubscribe(String node, String room);
+        /** A message from another node's user, for a room this node owns. */
+        void onPublish(String room, PreparedMessage prepared);
+        /** A message the owner of a room has sequenced, for this node's members. Not yet decoded. */
+        void onDeliver(String room, ByteBuffer payload);
+        /** Nodes went up or down, so rooms may have changed owner. */
+        void onMembershipChanged();
+    }
+
+    private final ClusterSettings settings;
+    private final Listener listener;
+    private final Map<String, Link> links = new LinkedHashMap<>();  // Fixed after construction
+    private final ScheduledExecutorService reconnects;
+    private final LongAdder framesOut = new LongAdder();
+    private final LongAdder framesIn = new LongAdder();
+    private final LongAdder framesDropped = new LongAdder();
+    private volatile HashRing ring;
+    private volatile boolean closed;
+
+    Cluster(ClusterSettings settings, Listener listener) {
+        if (settings.getNode() == null || !settings.getNodes().contains(settings.getNode())) {
+            throw new IllegalArgumentException("This node (" + settings.getNode() + ") must be one of the cluster nodes "
+                + settings.getNodes());
+        }
+        if (settings.getSecret() == null) {
+            throw new IllegalArgumentException("Cluster mode needs a shared secret (--cluster-secret)");
+        }
+        this.settings = new ClusterSettings(settings);
+        this.listener = listener;
+        for (String node : settings.getNodes()) {
+            if (!node.equals(settings.getNode())) {
+                links.put(node, new Link(node));
+            }
+        }
+        this.reconnects = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-links");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ring = new HashRing(List.of(settings.getNode()), RING_REPLICAS);
+    }
+
+    /**
+     * Starts dialling the other nodes. Links that drop are redialled until {@link #close()}.
+     */
+    void start() {
+        logger.info("Joining cluster as {} with {}", settings.getNode(), links.keySet());
+        for (Link link : links.values()) {
+            link.resolve();
+            link.connect();
+        }
+    }
+
+    /** This node's address. */
+    public String getNode() { return settings.getNode(); }
+
+    /** The node that owns a room right now. */
+    public String ownerOf(String room) {
+        return ring.nodeFor(room);
+    }
+
+    public boolean owns(String room) {
+        return settings.getNode().equals(ownerOf(room));
+    }
+
+    /** Nodes currently on the ring: this one and every node whose link is up. */
+    public List<String> getLiveNodes() { return ring.getNodes(); }
+
+    public long getFramesOut() { return framesOut.sum(); }
+    public long getFramesIn() { return framesIn.sum(); }
+    public long getFramesDropped() { return framesDropped.sum(); }
+
+    /**
+     * One line per node, for operators.
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("This node: %s, %d of %d node(s) up; relayed %d frame(s) out, %d in, %d dropped",
+            settings.getNode(), ring.getNodes().size(), settings.getNodes().size(), getFramesOut(), getFramesIn(),
+            getFramesDropped()));
+        for (Link link : links.values()) {
+            lines.add("  " + link.node + ": " + (link.isOpen() ? "up" : "down"));
+        }
+        return lines;
+    }
+
+    /**
+     * Checks a handshake from a dialling node: it must come from the address
+     * the node it names resolves to and carry the cluster's secret.
+     *
+     * @param remote address the handshake came from
+     * @return the node's address, or null if the handshake is not from a node of this cluster
+     */
+    String authenticate(ClientHandshake request, InetAddress remote) {
+        String node = request.getFieldValue(NODE_HEADER);
+        Link link = links.get(node);
+        if (link == null || !link.addresses.contains(remote)) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(settings.getSecret().getBytes(StandardCharsets.UTF_8),
+                request.getFieldValue(SECRET_HEADER).getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        return node;
+    }
+
+    static boolean isLink(ClientHandshake request) {
+        return request.hasFieldValue(NODE_HEADER);
+    }
+
+    void subscribe(String node, String room, long seq) {
+        ByteBuffer number = ByteBuffer.allocate(10);
+        putVarLong(number, seq);
+        send(node, frame(OP_SUBSCRIBE, room, number.flip()));
+    }
+
+    void unsubscribe(String node, String room) {
+        send(node, frame(OP_UNSUBSCRIBE, room, null));
+    }
+
+    /**
+     * Hands a message from one of this node's users to the room's owner.
+     */
+    void forward(String owner, String room, PreparedMessage prepared) {
+        send(owner, frame(OP_PUBLISH, room, prepared.frame(WireFormat.BINARY).payload()));
+    }
+
+    /**
+     * Passes a message or batch this node sequenced on to the other nodes with members in the room.
+     * The relay frame is built once and shared by all of them.
+     */
+    void relay(Collection<String> nodes, String room, PreparedMessage prepared) {
+        ByteBuffer frame = frame(OP_DELIVER, room, prepared.frame(WireFormat.BINARY).payload());
+        for (String node : nodes) {
+            send(node, frame.duplicate());
+        }
+    }
+
+    /**
+     * Handles a frame from another node's link.
+     *
+     * @throws IllegalArgumentException if the frame is malformed
+     */
+    void handle(String from, ByteBuffer frame) {
+        framesIn.increment();
+        int op = frame.get() & 0xFF;
+        String room = BinaryMessageCodec.readString(frame);
+        switch (op) {
+            case OP_SUBSCRIBE:
+                listener.onSubscribe(from, room, frame.hasRemaining() ? BinaryMessageCodec.readVarLong(frame) : 0);
+                break;
+            case OP_UNSUBSCRIBE:
+                listener.onUnsubscribe(from, room);
+                break;
+            case OP_PUBLISH:
+                listener.onPublish(room, PreparedMessage.fromBinary(frame.slice()));
+                break;
+            case OP_DELIVER:
+                listener.onDeliver(room, frame.slice());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown relay op from " + from + ": " + op);
+        }
+    }
+
+    private static ByteBuffer frame(int op, String room, ByteBuffer payload) {
+        byte[] id = room.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(1 + 5 + id.length + (payload != null ? payload.remaining() : 0));
+        frame.put((byte) op);
+        putVarLong(frame, id.length);
+        frame.put(id);
+        if (payload != null) {
+            frame.put(payload.duplicate());
+        }
+        return frame.flip();
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void send(String node, ByteBuffer frame) {
+        Link link = links.get(node);
+        try {
+            if (link == null) {
+                throw new WebsocketNotConnectedException();
+            }
+            link.send(frame);
+            framesOut.increment();
+        } catch (WebsocketNotConnectedException e) {
+            // Down since the ring was last rebuilt; its rooms move once the close is seen
+            framesDropped.increment();
+            logger.debug("Dropping relay frame for {}: not connected", node);
+        }
+    }
+
+    private synchronized void rebuildRing() {
+        List<String> live = new ArrayList<>();
+        live.add(settings.getNode());
+        for (Link link : links.values()) {
+            if (link.isOpen()) {
+                live.add(link.node);
+            }
+        }
+        HashRing updated = new HashRing(live, RING_REPLICAS);
+        if (!updated.getNodes().equals(ring.getNodes())) {
+            ring = updated;
+            logger.info("Cluster nodes up: {}", updated.getNodes());
+            listener.onMembershipChanged();
+        }
+    }
+
+    /**
+     * Stops redialling and closes the links.
+     */
+    void close() {
+        closed = true;
+        reconnects.shutdownNow();
+        for (Link link : links.values()) {
+            link.close();
+        }
+    }
+
+    /**
+     * The link this node dials to another; used for sending only.
+     */
+    private class Link extends WebSocketClient {
+        final String node;
+        volatile Set<InetAddress> addresses = Set.of();  // Where links from this node may come from
+
+        Link(String node) {
+            super(URI.create("ws://" + node));
+            this.node = node;
+            addHeader(NODE_HEADER, settings.getNode());
+            addHeader(SECRET_HEADER, settings.getSecret());
+            setTcpNoDelay(true);
+        }
+
+        /**
+         * Looks the node's host up again, before each dial, in case its address has changed.
+         */
+        void resolve() {
+            try {
+                addresses = Set.of(InetAddress.getAllByName(getURI().getHost()));
+            } catch (UnknownHostException e) {
+                logger.warn("Cannot resolve cluster node {}: {}", node, e.getMessage());
+            }
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            logger.info("Linked to cluster node {}", node);
+            rebuildRing();
+        }
+
+        @Override
+        public void onMessage(String message) {
+            // Nothing is sent back on a link this node dialled
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            if (closed) {
+                return;
+            }
+            logger.debug("Link to {} closed ({}: {})", node, code, reason);
+            rebuildRing();
+            try {
+                reconnects.schedule(() -> {
+                    if (!closed) {
+                        resolve();
+                        reconnect();
+                    }
+                }, RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closing
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            logger.debug("Link to {} failed: {}", node, ex.getMessage());
+        }
+    }
+}
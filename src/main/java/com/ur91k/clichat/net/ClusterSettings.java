@@ -0,0 +1,81 @@
+package com.ur91k.clichat.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Membership of a server cluster: every node's address and which one this is.
+ *
+ * <p>Every node is started with the same node list. Nodes connect to each
+ * other on their regular client port, so each address must be the
+ * {@code host:port} the other nodes can reach it at. Links are only accepted
+ * from those addresses and with the shared secret, which is required; both
+ * travel unencrypted, so nodes belong on a private network.</p>
+ */
+public class ClusterSettings {
+    private String node;
+    private List<String> nodes = List.of();
+    private String secret;  // Required to run as a cluster
+
+    public ClusterSettings() {}
+
+    public ClusterSettings(ClusterSettings other) {
+        this.node = other.node;
+        this.nodes = other.nodes;
+        this.secret = other.secret;
+    }
+
+    /** This node's address as it appears in the node list. */
+    public String getNode() { return node; }
+    /** Every node's address, this one included. */
+    public List<String> getNodes() { return nodes; }
+    /** Shared secret nodes present when linking up; null until set, and a cluster will not start without it. */
+    public String getSecret() { return secret; }
+
+    public void setNode(String node) {
+        this.node = checkAddress(node);
+    }
+
+    /**
+     * Sets the node list from a comma-separated string such as
+     * {@code 10.0.0.1:8887,10.0.0.2:8887}.
+     */
+    public void setNodes(String list) {
+        List<String> parsed = new ArrayList<>();
+        for (String entry : list.split(",")) {
+            if (!entry.isBlank()) {
+                String address = checkAddress(entry.trim());
+                if (!parsed.contains(address)) {
+                    parsed.add(address);
+                }
+            }
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("Cluster node list is empty");
+        }
+        this.nodes = List.copyOf(parsed);
+    }
+
+    public void setSecret(String secret) {
+        this.secret = secret == null || secret.isEmpty() ? null : secret;
+    }
+
+    private static String checkAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        int port;
+        try {
+            port = colon > 0 ? Integer.parseInt(address.substring(colon + 1)) : -1;
+        } catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Expected host:port, got " + address);
+        }
+        return address;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cluster(node=%s, nodes=%s, secret=%s)", node, nodes, secret != null ? "set" : "none");
+    }
+}
@@ -0,0 +1,284 @@
+package com.ur91k.clichat.net;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.enums.Opcode;
+import org.java_websocket.exceptions.InvalidDataException;
+import org.java_websocket.extensions.CompressionExtension;
+import org.java_websocket.extensions.ExtensionRequestData;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate (RFC 7692) driven by {@link DeflateSettings}.
+ * One instance is negotiated per connection; the draft copies the configured
+ * prototype for every handshake.
+ */
+public class DeflateExtension extends CompressionExtension {
+    private static final String NAME = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+    private static final int MAX_INFLATED_SIZE = 1 << 20;
+
+    private static final ThreadLocal<Deflater> STANDALONE = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final DeflateSettings settings;
+
+    // Negotiated per connection
+    private boolean contextTakeover;
+    private boolean peerContextTakeover;
+    private int grantedPeerWindowBits = -1;
+    private Deflater deflater;
+    private Inflater inflater;
+    private int inflatedSize;
+
+    public DeflateExtension(DeflateSettings settings) {
+        this.settings = new DeflateSettings(settings);
+        this.contextTakeover = settings.isContextTakeover();
+        this.peerContextTakeover = settings.isPeerContextTakeover();
+    }
+
+    /**
+     * Returns the negotiated deflate extension of a connection, or null if it runs uncompressed.
+     */
+    public static DeflateExtension of(WebSocket conn) {
+        if (conn.getDraft() instanceof Draft_6455 draft && draft.getExtension() instanceof DeflateExtension deflate) {
+            return deflate;
+        }
+        return null;
+    }
+
+    /**
+     * Whether a payload of this size is sent compressed.
+     */
+    public boolean compresses(int payloadLength) {
+        return payloadLength >= settings.getThreshold();
+    }
+
+    /**
+     * True when our side compresses every message independently, so one
+     * compressed frame is valid for every connection with the same settings.
+     */
+    public boolean isSharedCompression() {
+        return !contextTakeover;
+    }
+
+    public int getLevel() { return settings.getLevel(); }
+
+    /**
+     * Compresses a whole message without context, as used for shared frames.
+     * The trailing 0x00 0x00 0xFF 0xFF block marker is stripped per RFC 7692.
+     */
+    public static byte[] compressStandalone(ByteBuffer payload, int level) {
+        Deflater deflater = STANDALONE.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        return deflate(deflater, payload);
+    }
+
+    private static byte[] deflate(Deflater deflater, ByteBuffer payload) {
+        deflater.setInput(payload.duplicate());
+        byte[] out = new byte[Math.max(64, payload.remaining() / 2 + 16)];
+        int size = 0;
+        while (true) {
+            int written = deflater.deflate(out, size, out.length - size, Deflater.SYNC_FLUSH);
+            size += written;
+            if (size < out.length) {
+                break;
+            }
+            out = Arrays.copyOf(out, out.length * 2);
+        }
+        if (size >= TAIL.length && Arrays.equals(out, size - TAIL.length, size, TAIL, 0, TAIL.length)) {
+            size -= TAIL.length;
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    @Override
+    public void encodeFrame(Framedata inputFrame) {
+        // Only whole data messages are compressed; fragments and small payloads go out as-is
+        if (!(inputFrame instanceof DataFrame) || inputFrame.getOpcode() == Opcode.CONTINUOUS
+                || !inputFrame.isFin() || !compresses(inputFrame.getPayloadData().remaining())) {
+            return;
+        }
+        if (deflater == null) {
+            deflater = new Deflater(settings.getLevel(), true);
+        }
+        byte[] compressed = deflate(deflater, inputFrame.getPayloadData());
+        if (!contextTakeover) {
+            deflater.reset();
+        }
+        ((DataFrame) inputFrame).setRSV1(true);
+        ((FramedataImpl1) inputFrame).setPayload(ByteBuffer.wrap(compressed));
+    }
+
+    @Override
+    public void decodeFrame(Framedata inputFrame) throws InvalidDataException {
+        if (!(inputFrame instanceof DataFrame)) {
+            return;
+        }
+        if (inputFrame.getOpcode() == Opcode.CONTINUOUS && inputFrame.isRSV1()) {
+            throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, "RSV1 set on continuation frame");
+        }
+        if (inputFrame.getOpcode() != Opcode.CONTINUOUS) {
+            inflatedSize = 0;
+        }
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        ByteBuffer output = ByteBuffer.allocate(Math.max(256, inputFrame.getPayloadData().remaining() * 4));
+        try {
+            output = inflate(inputFrame.getPayloadData(), output);
+            if (inputFrame.isFin()) {
+                output = inflate(ByteBuffer.wrap(TAIL), output);
+                if (!peerContextTakeover) {
+                    inflater.reset();
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidDataException(CloseFrame.POLICY_VALIDATION, e.getMessage());
+        }
+        output.flip();
+        ((FramedataImpl1) inputFrame).setPayload(output);
+    }
+
+    private ByteBuffer inflate(ByteBuffer input, ByteBuffer output) throws DataFormatException, InvalidDataException {
+        inflater.setInput(input.duplicate());
+        while (true) {
+            if (!output.hasRemaining()) {
+                output = ByteBuffer.allocate(output.capacity() * 2).put(output.flip());
+            }
+            int inflated = inflater.inflate(output);
+            inflatedSize += inflated;
+            if (inflatedSize > MAX_INFLATED_SIZE) {
+                throw new InvalidDataException(CloseFrame.TOOBIG, "Inflated message exceeds " + MAX_INFLATED_SIZE + " bytes");
+            }
+            if (inflated == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                return output;
+            }
+        }
+    }
+
+    @Override
+    public boolean acceptProvidedExtensionAsServer(String inputExtension) {
+        for (String offer : inputExtension.split(",")) {
+            ExtensionRequestData data = ExtensionRequestData.parseExtensionRequest(offer);
+            if (!NAME.equalsIgnoreCase(data.getExtensionName())) {
+                continue;
+            }
+            Map<String, String> params = data.getExtensionParameters();
+
+            // The JDK deflater cannot shrink its window, so refuse offers that require it
+            String serverBits = params.get(SERVER_MAX_WINDOW_BITS);
+            if (serverBits != null && !serverBits.isEmpty() && parseBits(serverBits) < DeflateSettings.MAX_WINDOW_BITS) {
+                continue;
+            }
+            contextTakeover = settings.isContextTakeover() && !params.containsKey(SERVER_NO_CONTEXT_TAKEOVER);
+            peerContextTakeover = settings.isPeerContextTakeover() && !params.containsKey(CLIENT_NO_CONTEXT_TAKEOVER);
+            grantedPeerWindowBits = -1;
+            if (params.containsKey(CLIENT_MAX_WINDOW_BITS)) {
+                String offered = params.get(CLIENT_MAX_WINDOW_BITS);
+                int bits = settings.getWindowBits();
+                if (offered != null && !offered.isEmpty()) {
+                    bits = Math.min(bits, parseBits(offered));
+                }
+                if (bits < DeflateSettings.MAX_WINDOW_BITS) {
+                    grantedPeerWindowBits = bits;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean acceptProvidedExtensionAsClient(String inputExtension) {
+        for (String response : inputExtension.split(",")) {
+            ExtensionRequestData data = ExtensionRequestData.parseExtensionRequest(response);
+            if (!NAME.equalsIgnoreCase(data.getExtensionName())) {
+                continue;
+            }
+            Map<String, String> params = data.getExtensionParameters();
+            String clientBits = params.get(CLIENT_MAX_WINDOW_BITS);
+            if (clientBits != null && !clientBits.isEmpty() && parseBits(clientBits) < DeflateSettings.MAX_WINDOW_BITS) {
+                return false;
+            }
+            // As a client "our" compressor is the client's
+            contextTakeover = settings.isContextTakeover() && !params.containsKey(CLIENT_NO_CONTEXT_TAKEOVER);
+            peerContextTakeover = !params.containsKey(SERVER_NO_CONTEXT_TAKEOVER);
+            return true;
+        }
+        return false;
+    }
+
+    private static int parseBits(String value) {
+        try {
+            return Integer.parseInt(value.trim().replace("\"", ""));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String getProvidedExtensionAsClient() {
+        StringBuilder offer = new StringBuilder(NAME);
+        if (!settings.isContextTakeover()) {
+            offer.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        if (!settings.isPeerContextTakeover()) {
+            offer.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        return offer.toString();
+    }
+
+    @Override
+    public String getProvidedExtensionAsServer() {
+        StringBuilder response = new StringBuilder(NAME);
+        if (!contextTakeover) {
+            response.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if (!peerContextTakeover) {
+            response.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        if (grantedPeerWindowBits > 0) {
+            response.append("; ").append(CLIENT_MAX_WINDOW_BITS).append('=').append(grantedPeerWindowBits);
+        }
+        return response.toString();
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new DeflateExtension(settings);
+    }
+
+    @Override
+    public void reset() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateExtension[contextTakeover=" + contextTakeover + ", peerContextTakeover=" + peerContextTakeover + "]";
+    }
+}
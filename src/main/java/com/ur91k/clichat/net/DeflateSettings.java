@@ -0,0 +1,79 @@
+package com.ur91k.clichat.net;
+
+import java.util.zip.Deflater;
+
+/**
+ * Tuning for the permessage-deflate extension (RFC 7692).
+ *
+ * <p>With context takeover disabled on our side every message is compressed
+ * independently, so the server compresses a broadcast once and shares the
+ * compressed frame between all recipients. Enabling it keeps a sliding
+ * window per connection: better ratios on repetitive chat, but one
+ * compression pass per recipient and a deflater kept alive per socket.</p>
+ *
+ * <p>The JDK's Deflater always uses a 15-bit window, so {@code windowBits}
+ * only limits the peer's compressor (client_max_window_bits); offers asking
+ * us for a smaller window are declined and the connection runs uncompressed.</p>
+ */
+public class DeflateSettings {
+    public static final int MAX_WINDOW_BITS = 15;
+    public static final int MIN_WINDOW_BITS = 8;
+
+    private boolean contextTakeover = false;
+    private boolean peerContextTakeover = true;
+    private int windowBits = MAX_WINDOW_BITS;
+    private int threshold = 128;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    public DeflateSettings() {}
+
+    public DeflateSettings(DeflateSettings other) {
+        this.contextTakeover = other.contextTakeover;
+        this.peerContextTakeover = other.peerContextTakeover;
+        this.windowBits = other.windowBits;
+        this.threshold = other.threshold;
+        this.level = other.level;
+    }
+
+    /** Whether our compressor keeps its window between messages. */
+    public boolean isContextTakeover() { return contextTakeover; }
+    /** Whether the peer's compressor may keep its window between messages. */
+    public boolean isPeerContextTakeover() { return peerContextTakeover; }
+    /** Largest LZ77 window (as a power of two) the peer may use when compressing. */
+    public int getWindowBits() { return windowBits; }
+    /** Payloads smaller than this many bytes are sent uncompressed. */
+    public int getThreshold() { return threshold; }
+    /** java.util.zip compression level, 0-9 or -1 for the default. */
+    public int getLevel() { return level; }
+
+    public void setContextTakeover(boolean contextTakeover) { this.contextTakeover = contextTakeover; }
+    public void setPeerContextTakeover(boolean peerContextTakeover) { this.peerContextTakeover = peerContextTakeover; }
+
+    public void setWindowBits(int windowBits) {
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("Window bits must be between " + MIN_WINDOW_BITS
+                + " and " + MAX_WINDOW_BITS + ": " + windowBits);
+        }
+        this.windowBits = windowBits;
+    }
+
+    public void setThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    public void setLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("deflate(level=%d, threshold=%d, contextTakeover=%s, peerContextTakeover=%s, windowBits=%d)",
+            level, threshold, contextTakeover, peerContextTakeover, windowBits);
+    }
+}
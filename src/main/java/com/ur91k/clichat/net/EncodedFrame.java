@@ -0,0 +1,151 @@
+package com.ur91k.clichat.net;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.DefaultExtension;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A complete, unmasked server-to-client WebSocket frame encoded once into a
+ * read-only direct buffer. The same frame can be handed to any number of
+ * connections; each recipient gets its own view of the shared bytes, so
+ * broadcasting costs no per-recipient serialization, framing or copying.
+ */
+public final class EncodedFrame {
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int FIN = 0x80;
+    private static final int RSV1 = 0x40;
+
+    private final ByteBuffer frame;   // header + payload
+    private final int headerLength;
+    private final boolean text;
+    private final boolean compressed;
+
+    private EncodedFrame(ByteBuffer frame, int headerLength, boolean text, boolean compressed) {
+        this.frame = frame.asReadOnlyBuffer();
+        this.headerLength = headerLength;
+        this.text = text;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Frames a UTF-8 text payload.
+     */
+    public static EncodedFrame text(String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return encode(bytes, 0, bytes.length, true, false);
+    }
+
+    /**
+     * Frames a range of already UTF-8 encoded text. The bytes are copied and not retained.
+     */
+    public static EncodedFrame text(byte[] utf8, int offset, int length) {
+        return encode(utf8, offset, length, true, false);
+    }
+
+    /**
+     * Frames a binary payload. The array is copied and not retained.
+     */
+    public static EncodedFrame binary(byte[] payload) {
+        return encode(payload, 0, payload.length, false, false);
+    }
+
+    /**
+     * Frames a range of a binary payload. The bytes are copied and not retained.
+     */
+    public static EncodedFrame binary(byte[] payload, int offset, int length) {
+        return encode(payload, offset, length, false, false);
+    }
+
+    /**
+     * Compresses this frame's payload once, without context, into a permessage-deflate frame
+     * that any connection negotiated for shared compression can receive.
+     */
+    public EncodedFrame deflate(int level) {
+        byte[] deflated = DeflateExtension.compressStandalone(payload(), level);
+        return encode(deflated, 0, deflated.length, text, true);
+    }
+
+    private static EncodedFrame encode(byte[] payload, int offset, int length, boolean text, boolean compressed) {
+        int headerLength = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(headerLength + length);
+
+        buffer.put((byte) (FIN | (compressed ? RSV1 : 0) | (text ? OPCODE_TEXT : OPCODE_BINARY)));
+        if (length < 126) {
+            buffer.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            buffer.put((byte) 126);
+            buffer.putShort((short) length);
+        } else {
+            buffer.put((byte) 127);
+            buffer.putLong(length);
+        }
+        buffer.put(payload, offset, length);
+        buffer.flip();
+        return new EncodedFrame(buffer, headerLength, text, compressed);
+    }
+
+    /**
+     * Queues this frame on a connection.
+     * Plain RFC 6455 connections get the pre-built bytes directly (see
+     * {@link RawFrameWriter}); anything the library still has to transform
+     * (extensions, non-standard drafts, test doubles), or every frame if raw
+     * writes are disabled, falls back to a regular frame send of the same payload.
+     */
+    public void sendTo(WebSocket conn) {
+        if (!conn.isOpen()) {
+            return;
+        }
+        if (canWriteRaw(conn) && RawFrameWriter.write(conn, frame.duplicate())) {
+            return;
+        }
+        if (compressed) {
+            throw new IllegalStateException("Compressed frame sent to a connection without shared deflate");
+        } else {
+            // Extensions such as permessage-deflate need an array-backed payload
+            ByteBuffer payload = payload();
+            byte[] copy = new byte[payload.remaining()];
+            payload.get(copy);
+            DataFrame fallback = text ? new TextFrame() : new BinaryFrame();
+            fallback.setPayload(ByteBuffer.wrap(copy));
+            fallback.setFin(true);
+            // A context-takeover compressor must see messages in the order they hit the wire
+            synchronized (conn) {
+                conn.sendFrame(fallback);
+            }
+        }
+    }
+
+    private boolean canWriteRaw(WebSocket conn) {
+        if (!(conn.getDraft() instanceof Draft_6455)) {
+            return false;
+        }
+        IExtension extension = ((Draft_6455) conn.getDraft()).getExtension();
+        if (extension instanceof DeflateExtension deflate) {
+            // Anything the connection would not compress itself can skip its compressor
+            return compressed ? deflate.isSharedCompression() : !deflate.compresses(getPayloadLength());
+        }
+        return !compressed && extension.getClass() == DefaultExtension.class;
+    }
+
+    /**
+     * Returns a read-only view of the payload without the frame header.
+     */
+    public ByteBuffer payload() {
+        ByteBuffer view = frame.duplicate();
+        view.position(headerLength);
+        return view.slice();
+    }
+
+    public boolean isText() { return text; }
+    public boolean isCompressed() { return compressed; }
+    public int getPayloadLength() { return frame.limit() - headerLength; }
+    public int getFrameLength() { return frame.limit(); }
+}
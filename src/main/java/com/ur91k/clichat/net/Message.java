@@ -2,6 +2,7 @@ package com.ur91k.clichat.net;
 
 import org.joml.Vector4f;
 import java.time.LocalDateTime;
+import java.util.Locale;
 import java.time.format.DateTimeFormatter;
 
 /**
@@ -21,7 +22,9 @@ public class Message {
         BAN,           // User was banned
         NICK_CHANGE,    // User changed nickname
         COLOR_CHANGE,   // User changed color
-        ROOM_UPDATE     // Room name or color changed
+        ROOM_UPDATE,    // Room name or color changed
+        SESSION,        // Token a client can resume its session with; empty when there is none
+        RESUME          // Client asks to pick up a dropped session
     }
     
     private final Type type;
@@ -35,6 +38,9 @@ public class Message {
     private String targetId;   // For commands targeting users
     private String oldValue;   // For changes (old nickname, old color)
     private String newValue;   // For changes (new nickname, new color)
+    private String room;       // Id of the room the message belongs to; null for server-wide messages
+    private SenderProfile profile;  // The sender fields as one numbered profile; null if they have none
+    private long seq;          // Position in its room's sequence, from 1; 0 if not numbered
     
     public Message(Type type, String senderId, String senderName, Vector4f senderColor, String content) {
         this.type = type;
@@ -45,6 +51,19 @@ public class Message {
         this.timestamp = LocalDateTime.now();
     }
     
+    /**
+     * Creates a message whose sender fields are a profile's, sharing its strings and color.
+     */
+    Message(Type type, SenderProfile profile, String content) {
+        this.type = type;
+        this.senderId = profile.id();
+        this.senderName = profile.name();
+        this.senderColor = profile.color();
+        this.content = content;
+        this.timestamp = LocalDateTime.now();
+        this.profile = profile;
+    }
+    
     /**
      * Creates a system message
      */
@@ -60,6 +79,16 @@ public class Message {
         return new Message(Type.CHAT, senderId, senderName, senderColor, content);
     }
     
+    /**
+     * Creates a private message; the recipient's name is kept in targetId
+     */
+    public static Message direct(String senderId, String senderName, Vector4f senderColor, String recipientName,
+            String content) {
+        Message msg = new Message(Type.CHAT, senderId, senderName, senderColor, content);
+        msg.targetId = recipientName;
+        return msg;
+    }
+    
     /**
      * Creates a join notification
      */
@@ -68,6 +97,16 @@ public class Message {
             senderName + " joined the chat");
     }
     
+    /**
+     * Creates a notification that a user entered a room
+     */
+    public static Message join(String senderId, String senderName, Vector4f senderColor, String roomId) {
+        Message msg = new Message(Type.JOIN, senderId, senderName, senderColor,
+            senderName + " joined #" + roomId);
+        msg.room = roomId;
+        return msg;
+    }
+    
     /**
      * Creates a leave notification
      */
@@ -76,6 +115,16 @@ public class Message {
             senderName + " left the chat");
     }
     
+    /**
+     * Creates a notification that a user left a room
+     */
+    public static Message leave(String senderId, String senderName, Vector4f senderColor, String roomId) {
+        Message msg = new Message(Type.LEAVE, senderId, senderName, senderColor,
+            senderName + " left #" + roomId);
+        msg.room = roomId;
+        return msg;
+    }
+    
     /**
      * Creates a nickname change notification
      */
@@ -93,23 +142,58 @@ public class Message {
     public static Message colorChange(String senderId, String senderName, Vector4f oldColor, Vector4f newColor) {
         Message msg = new Message(Type.COLOR_CHANGE, senderId, senderName, newColor,
             senderName + " changed their color");
-        msg.oldValue = oldColor.toString();
-        msg.newValue = newColor.toString();
+        msg.oldValue = formatColor(oldColor);
+        msg.newValue = formatColor(newColor);
         return msg;
     }
     
     /**
-     * Creates a room update notification
+     * Creates a room update notification, telling a client which room it is in.
+     * The new value carries "name;r,g,b,a".
      */
-    public static Message roomUpdate(String roomName, Vector4f roomColor) {
+    public static Message roomUpdate(String roomId, String roomName, Vector4f roomColor) {
         Message msg = new Message(Type.ROOM_UPDATE, "system", "System",
             new Vector4f(0.8f, 0.8f, 0.8f, 1.0f),
-            "Room updated: " + roomName);
-        msg.oldValue = "";  // TODO: Store old room info
-        msg.newValue = roomName + ";" + roomColor.toString();
+            "Now chatting in #" + roomName);
+        msg.room = roomId;
+        msg.newValue = roomName + ";" + formatColor(roomColor);
         return msg;
     }
     
+    /**
+     * Creates a session notice, giving a client the token to resume its session
+     * with after a dropped connection, and the name and color it has. An empty
+     * token tells a client that asked to resume that there is nothing to resume.
+     */
+    public static Message session(String senderId, String senderName, Vector4f senderColor, String token) {
+        return new Message(Type.SESSION, senderId, senderName, senderColor, token);
+    }
+    
+    /**
+     * Formats a color as "r,g,b,a", the form used in change and room update values.
+     */
+    public static String formatColor(Vector4f color) {
+        return String.format(Locale.ROOT, "%.3f,%.3f,%.3f,%.3f", color.x, color.y, color.z, color.w);
+    }
+    
+    /**
+     * Parses a color written by {@link #formatColor}.
+     *
+     * @throws IllegalArgumentException if the value is not four comma-separated numbers
+     */
+    public static Vector4f parseColor(String value) {
+        String[] components = value.split(",");
+        if (components.length != 4) {
+            throw new IllegalArgumentException("Invalid color: " + value);
+        }
+        return new Vector4f(
+            Float.parseFloat(components[0].trim()),
+            Float.parseFloat(components[1].trim()),
+            Float.parseFloat(components[2].trim()),
+            Float.parseFloat(components[3].trim())
+        );
+    }
+    
     /**
      * Formats the message for display in the terminal
      */
@@ -118,6 +202,9 @@ public class Message {
         
         switch (type) {
             case CHAT:
+                if (targetId != null && !targetId.isEmpty()) {
+                    return String.format("[%s] %s -> %s: %s", time, senderName, targetId, content);
+                }
                 return String.format("[%s] %s: %s", time, senderName, content);
             case SYSTEM:
             case JOIN:
@@ -148,15 +235,28 @@ public class Message {
     public String getSenderId() { return senderId; }
     public String getSenderName() { return senderName; }
     public Vector4f getSenderColor() { return new Vector4f(senderColor); }
+    Vector4f senderColor() { return senderColor; }  // Codecs only; avoids a copy per encode
     public String getContent() { return content; }
     public LocalDateTime getTimestamp() { return timestamp; }
     public String getTargetId() { return targetId; }
     public String getOldValue() { return oldValue; }
     public String getNewValue() { return newValue; }
+    public String getRoom() { return room; }
+    /**
+     * Position of the message in its room, counting from 1 with no gaps. 0 for
+     * messages outside any room's sequence, such as private or system messages.
+     * A ROOM_UPDATE carries the position of the last message sent before it went live.
+     */
+    public long getSeq() { return seq; }
+    SenderProfile getProfile() { return profile; }
     
     // Setters for additional metadata
     public void setTargetId(String targetId) { this.targetId = targetId; }
     public void setOldValue(String oldValue) { this.oldValue = oldValue; }
     public void setNewValue(String newValue) { this.newValue = newValue; }
+    public void setRoom(String room) { this.room = room; }
     public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
+    public void setSeq(long seq) { this.seq = seq; }
+    /** Marks the message as sent under a profile; its sender fields must already match it. */
+    void setProfile(SenderProfile profile) { this.profile = profile; }
 } 
\ No newline at end of file
@@ -1,99 +1,124 @@
 package com.ur91k.clichat.net;
 
-import com.google.gson.*;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import org.joml.Vector4f;
-import java.lang.reflect.Type;
+
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
-public class MessageAdapter implements JsonSerializer<Message>, JsonDeserializer<Message> {
+/**
+ * Streams {@link Message} objects to and from JSON without intermediate JsonObject trees.
+ * Optional fields are only written when they carry a value.
+ */
+public class MessageAdapter extends TypeAdapter<Message> {
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-    private final Gson gson = new GsonBuilder()
-        .registerTypeAdapter(Vector4f.class, new Vector4fAdapter())
-        .create();
+
+    /**
+     * Shared Gson instance with the chat adapters registered. Gson is thread-safe,
+     * so the server, client and profile code all reuse this one.
+     */
+    public static final Gson GSON = newGsonBuilder().create();
+
+    /**
+     * Creates a builder with the chat adapters registered, for callers that need extra settings.
+     */
+    public static GsonBuilder newGsonBuilder() {
+        return new GsonBuilder()
+            .registerTypeAdapter(Vector4f.class, new Vector4fAdapter())
+            .registerTypeAdapter(Message.class, new MessageAdapter().nullSafe())
+            .registerTypeAdapter(Request.class, new RequestAdapter().nullSafe());
+    }
 
     @Override
-    public JsonElement serialize(Message src, Type typeOfSrc, JsonSerializationContext context) {
-        JsonObject obj = new JsonObject();
-        
+    public void write(JsonWriter out, Message src) throws IOException {
+        out.beginObject();
+
         // Required fields
-        obj.addProperty("type", src.getType().name());
-        obj.addProperty("senderId", src.getSenderId());
-        obj.addProperty("senderName", src.getSenderName());
-        obj.add("senderColor", gson.toJsonTree(src.getSenderColor()));
-        obj.addProperty("content", src.getContent());
-        obj.addProperty("timestamp", src.getTimestamp().format(DATE_FORMAT));
-        
+        out.name("type").value(src.getType().name());
+        out.name("senderId").value(src.getSenderId());
+        out.name("senderName").value(src.getSenderName());
+        out.name("senderColor");
+        Vector4fAdapter.writeInline(out, src.senderColor());
+        out.name("content").value(src.getContent());
+        out.name("timestamp").value(src.getTimestamp().format(DATE_FORMAT));
+
         // Optional fields
-        if (src.getTargetId() != null) {
-            obj.addProperty("targetId", src.getTargetId());
+        writeOptional(out, "targetId", src.getTargetId());
+        writeOptional(out, "oldValue", src.getOldValue());
+        writeOptional(out, "newValue", src.getNewValue());
+        writeOptional(out, "room", src.getRoom());
+        if (src.getSeq() != 0) {
+            out.name("seq").value(src.getSeq());
         }
-        if (src.getOldValue() != null) {
-            obj.addProperty("oldValue", src.getOldValue());
-        }
-        if (src.getNewValue() != null) {
-            obj.addProperty("newValue", src.getNewValue());
+
+        out.endObject();
+    }
+
+    private static void writeOptional(JsonWriter out, String name, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            out.name(name).value(value);
         }
-        
-        return obj;
     }
 
     @Override
-    public Message deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) 
-            throws JsonParseException {
-        JsonObject obj = json.getAsJsonObject();
-        
-        // Parse required fields
-        Message.Type type = Message.Type.valueOf(obj.get("type").getAsString());
-        String senderId = obj.get("senderId").getAsString();
-        String senderName = obj.get("senderName").getAsString();
-        Vector4f senderColor = gson.fromJson(obj.get("senderColor"), Vector4f.class);
-        String content = obj.get("content").getAsString();
-        
-        // Create message
-        Message message = new Message(type, senderId, senderName, senderColor, content);
-        
-        // Set timestamp if present
-        if (obj.has("timestamp")) {
-            LocalDateTime timestamp = LocalDateTime.parse(obj.get("timestamp").getAsString(), DATE_FORMAT);
-            message.setTimestamp(timestamp);
-        }
-        
-        // Set optional fields if present
-        if (obj.has("targetId")) {
-            message.setTargetId(obj.get("targetId").getAsString());
-        }
-        if (obj.has("oldValue")) {
-            message.setOldValue(obj.get("oldValue").getAsString());
-        }
-        if (obj.has("newValue")) {
-            message.setNewValue(obj.get("newValue").getAsString());
+    public Message read(JsonReader in) throws IOException {
+        Message.Type type = null;
+        String senderId = null;
+        String senderName = null;
+        Vector4f senderColor = null;
+        String content = null;
+        LocalDateTime timestamp = null;
+        String targetId = null;
+        String oldValue = null;
+        String newValue = null;
+        String room = null;
+        long seq = 0;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type" -> type = Message.Type.valueOf(in.nextString());
+                case "senderId" -> senderId = in.nextString();
+                case "senderName" -> senderName = in.nextString();
+                case "senderColor" -> senderColor = Vector4fAdapter.readInline(in);
+                case "content" -> content = in.nextString();
+                case "timestamp" -> timestamp = LocalDateTime.parse(in.nextString(), DATE_FORMAT);
+                case "targetId" -> targetId = in.nextString();
+                case "oldValue" -> oldValue = in.nextString();
+                case "newValue" -> newValue = in.nextString();
+                case "room" -> room = in.nextString();
+                case "seq" -> seq = in.nextLong();
+                default -> in.skipValue();
+            }
         }
-        
-        return message;
-    }
+        in.endObject();
 
-    public static class Vector4fAdapter implements JsonSerializer<Vector4f>, JsonDeserializer<Vector4f> {
-        @Override
-        public JsonElement serialize(Vector4f src, Type typeOfSrc, JsonSerializationContext context) {
-            JsonObject obj = new JsonObject();
-            obj.addProperty("x", src.x);
-            obj.addProperty("y", src.y);
-            obj.addProperty("z", src.z);
-            obj.addProperty("w", src.w);
-            return obj;
+        if (type == null || senderId == null || senderName == null || senderColor == null || content == null) {
+            throw new JsonParseException("Message is missing required fields");
         }
 
-        @Override
-        public Vector4f deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) 
-            throws JsonParseException {
-            JsonObject obj = json.getAsJsonObject();
-            return new Vector4f(
-                obj.get("x").getAsFloat(),
-                obj.get("y").getAsFloat(),
-                obj.get("z").getAsFloat(),
-                obj.get("w").getAsFloat()
-            );
+        // Create message
+        Message message = new Message(type, senderId, senderName, senderColor, content);
+        if (timestamp != null) {
+            message.setTimestamp(timestamp);
         }
+        message.setTargetId(targetId);
+        message.setOldValue(oldValue);
+        message.setNewValue(newValue);
+        message.setRoom(room);
+        message.setSeq(seq);
+        return message;
     }
-} 
\ No newline at end of file
+}
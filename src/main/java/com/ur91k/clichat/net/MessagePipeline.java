@@ -0,0 +1,315 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.util.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Carries everything bound for a room through sequence, persist and fan-out
+ * stages over one pre-allocated ring of events.
+ *
+ * <p>Publishing claims the next slot, which fixes the event's place in the
+ * sequence. The first stage numbers each room message in its room's sequence
+ * (see {@link Message#getSeq()}) as it takes it, so numbers follow ring order
+ * without a lock. Each stage then runs on its own thread, takes every event that
+ * has become ready since its last turn as one batch, and advances a cursor
+ * that only it writes. A stage never passes the one before it, and
+ * publishers wait while the ring is full of events the last stage has not
+ * reached. Decoding, validation and flood filtering happen earlier, on the
+ * sender's inbound lane.</p>
+ */
+public class MessagePipeline {
+    private static final Logger logger = Logger.getLogger(MessagePipeline.class);
+    private static final int SPIN_TRIES = 200;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Event[] slots;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong fullWaits = new AtomicLong();
+    private final Stage[] stages;
+    private final BiConsumer<Room, PreparedMessage> deliver;
+    private volatile boolean running = true;
+
+    private static final class Event {
+        volatile long published = -1;  // Sequence the slot currently holds
+        Room room;
+        PreparedMessage prepared;
+        Runnable task;  // Runs on the room's lane in sequence instead of a delivery
+    }
+
+    /**
+     * How far one stage has got.
+     *
+     * @param depth events ready for the stage that it has not processed yet
+     * @param events events processed so far
+     * @param batches turns taken to process them
+     */
+    public record StageStats(String name, long depth, long events, long batches) {}
+
+    /**
+     * @param capacity ring size, a power of two
+     * @param persist hands a message to the chat log, or null when chat is not persisted
+     * @param deliver batches or delivers a message; called on the room's lane
+     */
+    MessagePipeline(int capacity, Consumer<PreparedMessage> persist, BiConsumer<Room, PreparedMessage> deliver) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Pipeline capacity must be a power of two: " + capacity);
+        }
+        this.slots = new Event[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Event();
+        }
+        this.mask = capacity - 1;
+        this.deliver = deliver;
+        List<Stage> list = new ArrayList<>();
+        if (persist != null) {
+            list.add(new Stage("persist", list.size()) {
+                @Override
+                void handle(Event event) {
+                    if (event.prepared != null) {
+                        persist.accept(event.prepared);
+                    }
+                }
+            });
+        }
+        list.add(new FanoutStage(list.size()));
+        this.stages = list.toArray(new Stage[0]);
+        for (Stage stage : stages) {
+            stage.thread = new Thread(stage, "pipeline-" + stage.name);
+            stage.thread.setDaemon(true);
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Queues a message for a room. Blocks while the ring is full.
+     *
+     * @return false if the pipeline has been closed
+     */
+    boolean publish(Room room, PreparedMessage prepared) {
+        return publish(room, prepared, null);
+    }
+
+    /**
+     * Queues a task to run on a room's lane after everything published before it.
+     *
+     * @return false if the pipeline has been closed
+     */
+    boolean execute(Room room, Runnable task) {
+        return publish(room, null, task);
+    }
+
+    private boolean publish(Room room, PreparedMessage prepared, Runnable task) {
+        if (!running) {
+            return false;
+        }
+        long seq = claimed.getAndIncrement();
+        Stage last = stages[stages.length - 1];
+        if (seq - slots.length > last.cursor) {
+            fullWaits.incrementAndGet();
+            int spins = 0;
+            while (seq - slots.length > last.cursor) {
+                if (!running) {
+                    return false;
+                }
+                if (spins++ < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                }
+            }
+        }
+        Event event = slots[(int) (seq & mask)];
+        event.room = room;
+        event.prepared = prepared;
+        event.task = task;
+        event.published = seq;
+        stages[0].wake();
+        return true;
+    }
+
+    /**
+     * Stops taking events and waits for the stages to finish those already published.
+     */
+    void close() throws InterruptedException {
+        running = false;
+        for (Stage stage : stages) {
+            stage.wake();
+            stage.thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /** Each stage's backlog and progress, in pipeline order. */
+    public List<StageStats> getStats() {
+        List<StageStats> stats = new ArrayList<>(stages.length);
+        for (Stage stage : stages) {
+            long ahead = stage.index == 0 ? claimed.get() - 1 : stages[stage.index - 1].cursor;
+            long cursor = stage.cursor;
+            stats.add(new StageStats(stage.name, Math.max(0, ahead - cursor), cursor + 1, stage.batches));
+        }
+        return stats;
+    }
+
+    /** Times a publisher found the ring full and had to wait. */
+    public long getFullWaits() { return fullWaits.get(); }
+    public int getCapacity() { return slots.length; }
+
+    private abstract class Stage implements Runnable {
+        final String name;
+        final int index;
+        Thread thread;
+        volatile long cursor = -1;  // Last sequence processed; written by this stage only
+        volatile long batches;      // Written by this stage only
+        volatile boolean waiting;
+
+        Stage(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        abstract void handle(Event event);
+
+        /** Called once a batch has been handled, before the cursor moves past it. */
+        void endBatch() {
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            while (true) {
+                long last = waitFor(next);
+                if (last < next) {
+                    // Closed, and everything before this stage is done and handled
+                    if (!running && (index == 0 || !stages[index - 1].thread.isAlive()) && available(next) < next) {
+                        break;
+                    }
+                    continue;
+                }
+                for (long seq = next; seq <= last; seq++) {
+                    try {
+                        Event event = slots[(int) (seq & mask)];
+                        if (index == 0 && event.prepared != null) {
+                            event.prepared.sequence(event.room);
+                        }
+                        handle(event);
+                    } catch (RuntimeException e) {
+                        logger.error("Pipeline stage {} failed on event {}: {}", name, seq, e.getMessage());
+                    }
+                }
+                endBatch();
+                batches++;
+                cursor = last;
+                next = last + 1;
+                if (index + 1 < stages.length) {
+                    stages[index + 1].wake();
+                }
+            }
+        }
+
+        /**
+         * Returns the last sequence this stage may process, which is below {@code next} if nothing is ready.
+         */
+        long available(long next) {
+            if (index > 0) {
+                return stages[index - 1].cursor;
+            }
+            // Publishers finish out of order: stop at the first slot not yet filled in
+            long last = next - 1;
+            while (last - next < mask && slots[(int) ((last + 1) & mask)].published == last + 1) {
+                last++;
+            }
+            return last;
+        }
+
+        private long waitFor(long next) {
+            for (int spins = 0; ; spins++) {
+                long last = available(next);
+                if (last >= next || !running) {
+                    return last;
+                }
+                if (spins < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                // Announce the park, then look again so a publish in between is not missed
+                waiting = true;
+                last = available(next);
+                if (last >= next) {
+                    waiting = false;
+                    return last;
+                }
+                LockSupport.parkNanos(this, PARK_NANOS);
+                waiting = false;
+            }
+        }
+
+        void wake() {
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * Hands each batch on to the room lanes, one lane task per room per batch
+     * with the room's events in sequence. Rooms then deliver in parallel.
+     */
+    private final class FanoutStage extends Stage {
+        private final Map<Room, List<Runnable>> byRoom = new LinkedHashMap<>();
+
+        FanoutStage(int index) {
+            super("fanout", index);
+        }
+
+        @Override
+        void handle(Event event) {
+            Room room = event.room;
+            Runnable work;
+            if (event.task != null) {
+                work = event.task;
+            } else {
+                PreparedMessage prepared = event.prepared;
+                work = () -> deliver.accept(room, prepared);
+            }
+            // Last stage: release the references so the slot does not pin them until it is reused
+            event.room = null;
+            event.prepared = null;
+            event.task = null;
+            byRoom.computeIfAbsent(room, r -> new ArrayList<>()).add(work);
+        }
+
+        @Override
+        void endBatch() {
+            for (Map.Entry<Room, List<Runnable>> entry : byRoom.entrySet()) {
+                List<Runnable> work = entry.getValue();
+                try {
+                    entry.getKey().lane().execute(work.size() == 1 ? work.get(0) : () -> runAll(work));
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Dropping {} event(s) for #{}: server is stopping", work.size(), entry.getKey().getId());
+                }
+            }
+            byRoom.clear();
+        }
+
+        private void runAll(List<Runnable> work) {
+            for (Runnable task : work) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Room task failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.util.Logger;
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded queue of frames waiting to be written to one client.
+ *
+ * <p>Senders only enqueue; a drain task on the shared scheduler hands frames
+ * to the socket. It keeps at most {@link #MAX_IN_FLIGHT} frames in the
+ * library's own (unbounded) write queue, so a stalled client backs up here,
+ * where the limits and the slow-consumer policy apply. Once the socket has
+ * drained below {@link #RESUME_IN_FLIGHT}, {@link #onSocketWrite()} resumes the drain.
+ * The count comes from {@link RawFrameWriter#queued}, which only reads it on
+ * the library version it was verified against.</p>
+ */
+public class OutboundQueue {
+    private static final Logger logger = Logger.getLogger(OutboundQueue.class);
+    private static final int MAX_IN_FLIGHT = 32;
+    private static final int RESUME_IN_FLIGHT = 8;
+    private static final long RETRY_DELAY_MILLIS = 50;  // Only matters if a socket write wakeup is missed
+
+    private final WebSocket conn;
+    private final OutboundSettings settings;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean awaitingSocket = new AtomicBoolean();
+
+    // Guarded by this
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long bytes;
+    private long dropped;
+    private boolean closed;
+
+    private record Entry(EncodedFrame frame, String key, boolean pinned) {}
+
+    public OutboundQueue(WebSocket conn, OutboundSettings settings, ScheduledExecutorService scheduler) {
+        this.conn = conn;
+        this.settings = new OutboundSettings(settings);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the key under which a message may replace an older queued one,
+     * or null if every copy of it must be delivered.
+     */
+    public static String coalesceKey(Message message) {
+        switch (message.getType()) {
+            case NICK_CHANGE:
+            case COLOR_CHANGE:
+                return message.getType() + ":" + message.getSenderId();
+            case ROOM_UPDATE:
+                return message.getType().name();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Queues a frame for this client, applying the slow-consumer policy if the queue is full.
+     *
+     * @param key coalescing key from {@link #coalesceKey}, or null
+     * @return false if the frame was not queued because the queue is closed or the client was disconnected
+     */
+    public boolean offer(EncodedFrame frame, String key) {
+        return offer(frame, key, false);
+    }
+
+    /**
+     * Queues a frame that later frames depend on, such as a sender profile. It is
+     * never dropped to make room, though it still counts toward the limits.
+     *
+     * @return false if the frame was not queued because the queue is closed or the client was disconnected
+     */
+    public boolean offerPinned(EncodedFrame frame) {
+        return offer(frame, null, true);
+    }
+
+    private boolean offer(EncodedFrame frame, String key, boolean pinned) {
+        boolean overflow = false;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (key != null && settings.getPolicy() == OutboundSettings.Policy.COALESCE) {
+                removeKey(key);
+            }
+            entries.addLast(new Entry(frame, key, pinned));
+            bytes += frame.getFrameLength();
+            while (isOverLimit() && !entries.isEmpty()) {
+                if (settings.getPolicy() == OutboundSettings.Policy.DISCONNECT) {
+                    overflow = true;
+                    break;
+                }
+                if (!dropOldest()) {
+                    break;  // Only pinned frames left
+                }
+            }
+        }
+        if (overflow) {
+            logger.warn("Disconnecting slow consumer {}", conn.getRemoteSocketAddress());
+            close();
+            conn.close(CloseFrame.TRY_AGAIN_LATER, "Slow consumer");
+            return false;
+        }
+        schedule();
+        return true;
+    }
+
+    private void removeKey(String key) {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (key.equals(entry.key())) {
+                it.remove();
+                bytes -= entry.frame().getFrameLength();
+                dropped++;
+                return;
+            }
+        }
+    }
+
+    private boolean dropOldest() {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (!entry.pinned()) {
+                it.remove();
+                bytes -= entry.frame().getFrameLength();
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isOverLimit() {
+        return entries.size() > settings.getMaxMessages() || bytes > settings.getMaxBytes();
+    }
+
+    /**
+     * Discards everything queued and refuses further frames.
+     */
+    public synchronized void close() {
+        closed = true;
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Called on the selector thread after bytes were written to this client's socket.
+     */
+    public void onSocketWrite() {
+        if (awaitingSocket.get() && inFlight() <= RESUME_IN_FLIGHT) {
+            resume();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            submit(this::drain, 0);
+        }
+    }
+
+    private void resume() {
+        // Whoever clears the flag owns the drain; the other wakeup is a no-op
+        if (awaitingSocket.compareAndSet(true, false)) {
+            submit(this::drain, 0);
+        }
+    }
+
+    private void submit(Runnable task, long delayMillis) {
+        try {
+            scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);  // Server is shutting down
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            if (!conn.isOpen()) {
+                close();
+                scheduled.set(false);
+                return;
+            }
+            if (inFlight() >= MAX_IN_FLIGHT) {
+                awaitingSocket.set(true);
+                submit(this::resume, RETRY_DELAY_MILLIS);
+                // The socket may have drained before the flag was visible to the selector thread
+                if (inFlight() < MAX_IN_FLIGHT && awaitingSocket.compareAndSet(true, false)) {
+                    continue;
+                }
+                return;
+            }
+            Entry entry;
+            synchronized (this) {
+                entry = entries.pollFirst();
+                if (entry != null) {
+                    bytes -= entry.frame().getFrameLength();
+                }
+            }
+            if (entry == null) {
+                scheduled.set(false);
+                // An offer that saw scheduled == true just before we cleared it is ours to send
+                if (isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                entry.frame().sendTo(conn);
+            } catch (RuntimeException e) {
+                logger.error("Error writing to {}: {}", conn.getRemoteSocketAddress(), e.getMessage());
+            }
+        }
+    }
+
+    private int inFlight() {
+        return RawFrameWriter.queued(conn);
+    }
+
+    private synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /** Frames currently waiting. */
+    public synchronized int size() { return entries.size(); }
+    /** Bytes currently waiting. */
+    public synchronized long getBytes() { return bytes; }
+    /** Frames dropped or replaced because the queue was full. */
+    public synchronized long getDropped() { return dropped; }
+}
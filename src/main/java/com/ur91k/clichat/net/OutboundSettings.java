@@ -0,0 +1,64 @@
+package com.ur91k.clichat.net;
+
+/**
+ * Limits for the queue of frames waiting to be written to one client.
+ *
+ * <p>The queue sits in front of the socket, so a client on a slow link
+ * backs up only its own queue. When it is full the policy decides what
+ * gives: the oldest frames, superseded state updates, or the connection.</p>
+ */
+public class OutboundSettings {
+    public enum Policy {
+        /** Drop the oldest queued frames to make room. */
+        DROP_OLDEST,
+        /** Replace queued nick, color and room updates with newer ones, then drop the oldest. */
+        COALESCE,
+        /** Close the connection. */
+        DISCONNECT
+    }
+
+    private int maxMessages = 1024;
+    private long maxBytes = 1 << 20;
+    private Policy policy = Policy.DROP_OLDEST;
+
+    public OutboundSettings() {}
+
+    public OutboundSettings(OutboundSettings other) {
+        this.maxMessages = other.maxMessages;
+        this.maxBytes = other.maxBytes;
+        this.policy = other.policy;
+    }
+
+    /** Most frames that may wait for one client. */
+    public int getMaxMessages() { return maxMessages; }
+    /** Most bytes that may wait for one client. */
+    public long getMaxBytes() { return maxBytes; }
+    /** What happens when a client's queue is full. */
+    public Policy getPolicy() { return policy; }
+
+    public void setMaxMessages(int maxMessages) {
+        if (maxMessages < 1) {
+            throw new IllegalArgumentException("Queue length must be positive: " + maxMessages);
+        }
+        this.maxMessages = maxMessages;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Queue size must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public void setPolicy(Policy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy must not be null");
+        }
+        this.policy = policy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("outbound(maxMessages=%d, maxBytes=%d, policy=%s)", maxMessages, maxBytes, policy);
+    }
+}
@@ -0,0 +1,222 @@
+package com.ur91k.clichat.net;
+
+import org.java_websocket.WebSocket;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A message, or a batch of messages, paired with its encoded frames, built lazily
+ * and at most once per wire format (and once more per format when shared
+ * compression is in use). Frames are immutable, so a racing duplicate encode is harmless.
+ */
+public final class PreparedMessage {
+    private static final WireFormat[] FORMATS = WireFormat.values();
+
+    private final Message message;          // null for a batch
+    private final List<PreparedMessage> parts;  // null for a single message
+    private final EncodedFrame[] frames = new EncodedFrame[FORMATS.length];
+    private final EncodedFrame[] deflatedFrames = new EncodedFrame[FORMATS.length];
+    private EncodedFrame interned;          // Binary, senders as profile references
+    private EncodedFrame deflatedInterned;
+
+    public PreparedMessage(Message message) {
+        this.message = message;
+        this.parts = null;
+    }
+
+    private PreparedMessage(List<PreparedMessage> parts) {
+        this.message = null;
+        this.parts = parts;
+    }
+
+    /**
+     * Packs several messages into one batch frame. Each part keeps its own frames,
+     * so they can still be sent one by one to peers that cannot unpack batches.
+     */
+    public static PreparedMessage batch(List<PreparedMessage> parts) {
+        for (PreparedMessage part : parts) {
+            if (part.isBatch()) {
+                throw new IllegalArgumentException("Batches cannot be nested");
+            }
+        }
+        return new PreparedMessage(List.copyOf(parts));
+    }
+
+    /**
+     * Rebuilds a message or batch from a binary payload, such as one relayed by
+     * another cluster node. The received bytes become its binary frames, so
+     * binary clients are sent exactly what arrived; other formats are encoded
+     * from the decoded message when first needed.
+     *
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    static PreparedMessage fromBinary(ByteBuffer payload) {
+        if (!payload.hasRemaining() || (payload.get(payload.position()) & 0xFF) != BinaryMessageCodec.BATCH_TAG) {
+            return fromBinarySingle(payload);
+        }
+        PreparedMessage batch;
+        try {
+            ByteBuffer in = payload.duplicate();
+            in.get();
+            int count = (int) BinaryMessageCodec.readVarLong(in);
+            if (count < 0 || count > in.remaining()) {
+                throw new IllegalArgumentException("Invalid batch size: " + count);
+            }
+            List<PreparedMessage> parts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = (int) BinaryMessageCodec.readVarLong(in);
+                if (length < 0 || length > in.remaining()) {
+                    throw new IllegalArgumentException("Invalid batch entry length: " + length);
+                }
+                ByteBuffer entry = in.slice();
+                entry.limit(length);
+                parts.add(fromBinarySingle(entry));
+                in.position(in.position() + length);
+            }
+            batch = new PreparedMessage(List.copyOf(parts));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+        batch.frames[WireFormat.BINARY.ordinal()] = EncodedFrame.binary(bytes(payload));
+        return batch;
+    }
+
+    private static PreparedMessage fromBinarySingle(ByteBuffer payload) {
+        byte[] bytes = bytes(payload);
+        PreparedMessage prepared = new PreparedMessage(BinaryMessageCodec.decode(ByteBuffer.wrap(bytes)));
+        prepared.frames[WireFormat.BINARY.ordinal()] = EncodedFrame.binary(bytes);
+        return prepared;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Numbers a room message, or each room message in a batch, in the room's
+     * sequence, and drops any frames built without the number. Called by the
+     * pipeline before the message is shared with anything else.
+     */
+    void sequence(Room room) {
+        if (parts != null) {
+            for (PreparedMessage part : parts) {
+                part.sequence(room);
+            }
+        } else if (message.getRoom() != null) {
+            message.setSeq(room.nextSeq());
+        } else {
+            return;  // Server-wide; may be shared between rooms
+        }
+        Arrays.fill(frames, null);
+        Arrays.fill(deflatedFrames, null);
+        interned = null;
+        deflatedInterned = null;
+    }
+
+    public EncodedFrame frame(WireFormat format) {
+        EncodedFrame frame = frames[format.ordinal()];
+        if (frame == null) {
+            frame = parts == null ? format.encode(message) : format.encodeBatch(partFrames(format));
+            frames[format.ordinal()] = frame;
+        }
+        return frame;
+    }
+
+    private List<EncodedFrame> partFrames(WireFormat format) {
+        List<EncodedFrame> encoded = new ArrayList<>(parts.size());
+        for (PreparedMessage part : parts) {
+            encoded.add(part.frame(format));
+        }
+        return encoded;
+    }
+
+    private EncodedFrame deflatedFrame(WireFormat format, int level) {
+        EncodedFrame frame = deflatedFrames[format.ordinal()];
+        if (frame == null) {
+            frame = frame(format).deflate(level);
+            deflatedFrames[format.ordinal()] = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * The binary frame with each sender given as a reference to its
+     * {@link SenderProfile}; messages without one keep their sender fields.
+     */
+    EncodedFrame internedFrame() {
+        EncodedFrame frame = interned;
+        if (frame == null) {
+            if (parts != null) {
+                List<EncodedFrame> encoded = new ArrayList<>(parts.size());
+                for (PreparedMessage part : parts) {
+                    encoded.add(part.internedFrame());
+                }
+                frame = BinaryMessageCodec.encodeBatchFrame(encoded);
+            } else if (message.getProfile() != null) {
+                frame = BinaryMessageCodec.encodeFrame(message, true);
+            } else {
+                frame = frame(WireFormat.BINARY);
+            }
+            interned = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * Picks the interned binary frame (see {@link #internedFrame()}) matching the
+     * connection's negotiated compression.
+     */
+    EncodedFrame internedFrameFor(WebSocket conn) {
+        EncodedFrame frame = internedFrame();
+        DeflateExtension deflate = DeflateExtension.of(conn);
+        if (sharesCompressed(deflate, frame)) {
+            EncodedFrame deflated = deflatedInterned;
+            if (deflated == null) {
+                deflated = frame.deflate(deflate.getLevel());
+                deflatedInterned = deflated;
+            }
+            frame = deflated;
+        }
+        return frame;
+    }
+
+    /**
+     * True if a connection gets the compressed frame shared by every connection
+     * with its settings. Those frames can only be written raw (see {@link RawFrameWriter}).
+     */
+    private static boolean sharesCompressed(DeflateExtension deflate, EncodedFrame frame) {
+        return deflate != null && deflate.isSharedCompression() && deflate.compresses(frame.getPayloadLength())
+            && RawFrameWriter.isEnabled();
+    }
+
+    /**
+     * Picks the frame matching the connection's format and negotiated compression.
+     */
+    public EncodedFrame frameFor(WebSocket conn, WireFormat format) {
+        EncodedFrame frame = frame(format);
+        DeflateExtension deflate = DeflateExtension.of(conn);
+        if (sharesCompressed(deflate, frame)) {
+            frame = deflatedFrame(format, deflate.getLevel());
+        }
+        return frame;
+    }
+
+    /**
+     * Writes the frame matching the connection's format and negotiated compression.
+     */
+    public void sendTo(WebSocket conn, WireFormat format) {
+        frameFor(conn, format).sendTo(conn);
+    }
+
+    public boolean isBatch() { return parts != null; }
+    /** The message, or null for a batch. */
+    public Message getMessage() { return message; }
+    /** The batched messages, or null for a single message. */
+    public List<PreparedMessage> getParts() { return parts; }
+}
@@ -0,0 +1,82 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.util.TokenBucket;
+
+/**
+ * Per-connection flood limits. Each kind of request has its own token bucket;
+ * commands share the chat bucket. Every refused request costs a strike, strikes
+ * come back slowly, and a client that runs out of them is disconnected.
+ */
+public class RateLimitSettings {
+    /**
+     * A sustained rate plus how many requests may arrive back to back.
+     */
+    public static class Limit {
+        private final double perSecond;
+        private final int burst;
+
+        public Limit(double perSecond, int burst) {
+            if (perSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Rate and burst must be positive: " + perSecond + ":" + burst);
+            }
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+
+        /**
+         * Parses "rate:burst", e.g. "5:10" for five per second with bursts of ten.
+         */
+        public static Limit parse(String value) {
+            String[] parts = value.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected rate:burst, got " + value);
+            }
+            return new Limit(Double.parseDouble(parts[0]), Integer.parseInt(parts[1]));
+        }
+
+        public double getPerSecond() { return perSecond; }
+        public int getBurst() { return burst; }
+
+        TokenBucket newBucket() {
+            return new TokenBucket(perSecond, burst);
+        }
+
+        @Override
+        public String toString() {
+            return perSecond + "/s burst " + burst;
+        }
+    }
+
+    private Limit chat = new Limit(5, 10);
+    private Limit nick = new Limit(0.1, 3);
+    private Limit color = new Limit(0.2, 5);
+    private Limit strikes = new Limit(1.0 / 30, 10);
+
+    public RateLimitSettings() {}
+
+    public RateLimitSettings(RateLimitSettings other) {
+        this.chat = other.chat;
+        this.nick = other.nick;
+        this.color = other.color;
+        this.strikes = other.strikes;
+    }
+
+    /** Chat messages and commands. */
+    public Limit getChat() { return chat; }
+    /** Nickname changes. */
+    public Limit getNick() { return nick; }
+    /** Color changes. */
+    public Limit getColor() { return color; }
+    /** Refused requests tolerated before disconnecting, and how fast they are forgiven. */
+    public Limit getStrikes() { return strikes; }
+
+    public void setChat(Limit chat) { this.chat = chat; }
+    public void setNick(Limit nick) { this.nick = nick; }
+    public void setColor(Limit color) { this.color = color; }
+    public void setStrikes(Limit strikes) { this.strikes = strikes; }
+
+    @Override
+    public String toString() {
+        return String.format("limits(chat=%s, nick=%s, color=%s, strikes=%s)", chat, nick, color, strikes);
+    }
+}
@@ -0,0 +1,100 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.util.Logger;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Queues pre-built frame bytes on a connection, skipping the library's per-recipient framing.
+ *
+ * <p>This is the one place that reaches into Java-WebSocket internals: it adds
+ * the bytes to the public {@code WebSocketImpl.outQueue} and signals
+ * {@code onWriteDemand}, the last two steps of {@code WebSocketImpl.write(ByteBuffer)}
+ * in Java-WebSocket {@value #VERIFIED_VERSION}, and it reads the length of that
+ * queue for {@link OutboundQueue}'s backpressure. The regular send path cannot take a
+ * shared buffer: it frames a fresh copy of every payload, and its trace logging
+ * reads the buffer's backing array even with tracing off, which measurably
+ * slows fan-out. Like that path, a frame is only queued on an open
+ * connection; one that starts closing in between gets the frame after its
+ * close frame, where the peer ignores it.</p>
+ *
+ * <p>Raw writes are enabled only when the library on the classpath is the
+ * version this was verified against. With any other version, frames go
+ * through {@link WebSocket#sendFrame}, shared compression is turned off and
+ * the library's queue is never read.</p>
+ */
+final class RawFrameWriter {
+    private static final Logger logger = Logger.getLogger(RawFrameWriter.class);
+
+    static final String VERIFIED_VERSION = "1.5.3";
+    private static final String VERSION = libraryVersion();
+    private static final boolean ENABLED = VERIFIED_VERSION.equals(VERSION);
+
+    private RawFrameWriter() {}
+
+    /** True if frames can be written raw; false means every frame is sent through the library. */
+    static boolean isEnabled() { return ENABLED; }
+
+    /** The Java-WebSocket version on the classpath, or "unknown". */
+    static String getLibraryVersion() { return VERSION; }
+
+    /**
+     * Queues a complete frame on an open connection.
+     *
+     * @return false if raw writes are disabled or the connection is not the library's own,
+     *         in which case nothing was queued
+     */
+    static boolean write(WebSocket conn, ByteBuffer frame) {
+        if (!ENABLED || !(conn instanceof WebSocketImpl impl)) {
+            return false;
+        }
+        if (impl.isOpen()) {
+            impl.outQueue.add(frame);
+            impl.getWebSocketListener().onWriteDemand(impl);
+        }
+        return true;
+    }
+
+    /**
+     * Counts the frames the library has yet to write to a connection.
+     *
+     * <p>Without raw writes the library's queue is not read and this is always 0,
+     * so frames are handed on as they come and a stalled client backs up in the
+     * library rather than in its {@link OutboundQueue}.</p>
+     */
+    static int queued(WebSocket conn) {
+        return ENABLED && conn instanceof WebSocketImpl impl ? impl.outQueue.size() : 0;
+    }
+
+    /**
+     * Logs which way frames will be written. Called once at server start.
+     */
+    static void logMode() {
+        if (ENABLED) {
+            logger.debug("Writing shared frames directly (Java-WebSocket {})", VERSION);
+        } else {
+            logger.warn("Java-WebSocket {} is not {}, the version shared frames were verified against; "
+                + "sending them through the library instead, without shared compression or outbound queue limits",
+                VERSION, VERIFIED_VERSION);
+        }
+    }
+
+    private static String libraryVersion() {
+        try (InputStream in = WebSocketImpl.class.getResourceAsStream(
+                "/META-INF/maven/org.java-websocket/Java-WebSocket/pom.properties")) {
+            if (in != null) {
+                Properties properties = new Properties();
+                properties.load(in);
+                return properties.getProperty("version", "unknown");
+            }
+        } catch (IOException e) {
+            // Treated as unknown
+        }
+        return "unknown";
+    }
+}
@@ -0,0 +1,72 @@
+package com.ur91k.clichat.net;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a {@link ChatClient} finds its way back after losing its connection.
+ *
+ * <p>Attempts back off exponentially from the initial delay up to the cap,
+ * and each wait is drawn at random from zero up to that bound ("full
+ * jitter"), so clients dropped together by a restarting server come back
+ * spread out instead of all at once. Requests made while offline are held,
+ * up to a limit, and sent in order once the session is back.</p>
+ */
+public class ReconnectSettings {
+    private long initialDelayMillis = 500;
+    private long maxDelayMillis = 30_000;
+    private int maxQueued = 100;
+
+    public ReconnectSettings() {}
+
+    public ReconnectSettings(ReconnectSettings other) {
+        this.initialDelayMillis = other.initialDelayMillis;
+        this.maxDelayMillis = other.maxDelayMillis;
+        this.maxQueued = other.maxQueued;
+    }
+
+    /** Upper bound of the wait before the first attempt; doubles with each failed one. */
+    public long getInitialDelayMillis() { return initialDelayMillis; }
+    /** Largest upper bound the wait grows to. */
+    public long getMaxDelayMillis() { return maxDelayMillis; }
+    /** Requests held while offline; more are refused until the session is back. */
+    public int getMaxQueued() { return maxQueued; }
+
+    public void setInitialDelayMillis(long initialDelayMillis) {
+        if (initialDelayMillis < 1) {
+            throw new IllegalArgumentException("Reconnect delay must be positive: " + initialDelayMillis);
+        }
+        this.initialDelayMillis = initialDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis < 1) {
+            throw new IllegalArgumentException("Reconnect delay cap must be positive: " + maxDelayMillis);
+        }
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("Offline queue size cannot be negative: " + maxQueued);
+        }
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Picks the wait before an attempt, given how many have failed since the connection was lost.
+     */
+    long delayMillis(int failedAttempts) {
+        long bound = initialDelayMillis;
+        for (int i = 0; i < failedAttempts && bound < maxDelayMillis; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, Math.max(maxDelayMillis, initialDelayMillis));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("reconnect(initial=%dms, max=%dms, maxQueued=%d)", initialDelayMillis, maxDelayMillis,
+            maxQueued);
+    }
+}
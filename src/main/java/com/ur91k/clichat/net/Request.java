@@ -0,0 +1,90 @@
+package com.ur91k.clichat.net;
+
+import org.joml.Vector4f;
+
+/**
+ * What a client asks the server to do: a message type and its one argument.
+ *
+ * <p>Requests say nothing about who sent them. The server stamps every message
+ * it builds from one with the sender's id, name and color as it knows them, and
+ * with its own clock. The content is the text for CHAT and COMMAND, the
+ * nickname for JOIN and NICK_CHANGE, empty for COLOR_CHANGE and the session
+ * token for RESUME. JOIN and COLOR_CHANGE also carry a color, and RESUME the
+ * number of the last room message the client saw.</p>
+ *
+ * <p>Clients only send requests to servers that list
+ * {@link WireFormat#FEATURE_REQUESTS} in their handshake; older servers are sent
+ * full messages, and servers read full messages from older clients as requests
+ * (see {@link #of(Message)}).</p>
+ */
+public record Request(Message.Type type, String content, Vector4f color, long seq) {
+
+    public Request(Message.Type type, String content, Vector4f color) {
+        this(type, content, color, 0);
+    }
+
+    public static Request join(String name, Vector4f color) {
+        return new Request(Message.Type.JOIN, name, new Vector4f(color));
+    }
+
+    public static Request chat(String text) {
+        return new Request(Message.Type.CHAT, text, null);
+    }
+
+    public static Request nickChange(String newName) {
+        return new Request(Message.Type.NICK_CHANGE, newName, null);
+    }
+
+    public static Request colorChange(Vector4f color) {
+        return new Request(Message.Type.COLOR_CHANGE, "", new Vector4f(color));
+    }
+
+    public static Request command(String line) {
+        return new Request(Message.Type.COMMAND, line, null);
+    }
+
+    /**
+     * Asks to pick up a dropped session in place of joining.
+     *
+     * @param seq number of the last message seen in the session's room, or 0 if unknown
+     */
+    public static Request resume(String token, long seq) {
+        return new Request(Message.Type.RESUME, token, null, seq);
+    }
+
+    /**
+     * Reads the request a full message from an older client stands for. Its
+     * sender id, timestamp and the other fields the server sets itself are ignored.
+     */
+    static Request of(Message message) {
+        switch (message.getType()) {
+            case JOIN:
+                return new Request(Message.Type.JOIN, message.getSenderName(), message.getSenderColor());
+            case NICK_CHANGE:
+                return new Request(Message.Type.NICK_CHANGE, message.getNewValue(), null);
+            case COLOR_CHANGE:
+                return new Request(Message.Type.COLOR_CHANGE, "", message.getSenderColor());
+            default:
+                return new Request(message.getType(), message.getContent(), null);
+        }
+    }
+
+    /**
+     * Builds the full message an older server expects for this request.
+     */
+    Message toMessage(String senderId, String senderName, Vector4f senderColor) {
+        switch (type) {
+            case JOIN:
+                return Message.join(senderId, content, color);
+            case CHAT:
+                return Message.chat(senderId, senderName, senderColor, content);
+            case NICK_CHANGE:
+                return Message.nickChange(senderId, senderName, content, senderColor);
+            case COLOR_CHANGE:
+                // Servers take the old color from their own record of the sender
+                return Message.colorChange(senderId, senderName, color, color);
+            default:
+                return new Message(type, senderId, senderName, senderColor, content);
+        }
+    }
+}
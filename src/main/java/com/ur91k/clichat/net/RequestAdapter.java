@@ -0,0 +1,83 @@
+package com.ur91k.clichat.net;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.joml.Vector4f;
+
+import java.io.IOException;
+
+/**
+ * Streams {@link Request} objects to and from JSON: {@code {"type":..,"content":..}}
+ * plus {@code "color"} and {@code "seq"} for the requests that carry them.
+ *
+ * <p>Also reads the full message objects older clients send, picking out only
+ * the fields a request needs, so the server never parses the rest.</p>
+ */
+public class RequestAdapter extends TypeAdapter<Request> {
+    @Override
+    public void write(JsonWriter out, Request src) throws IOException {
+        out.beginObject();
+        out.name("type").value(src.type().name());
+        out.name("content").value(src.content());
+        if (src.color() != null) {
+            out.name("color");
+            Vector4fAdapter.writeInline(out, src.color());
+        }
+        if (src.seq() != 0) {
+            out.name("seq").value(src.seq());
+        }
+        out.endObject();
+    }
+
+    @Override
+    public Request read(JsonReader in) throws IOException {
+        Message.Type type = null;
+        String content = null;
+        Vector4f color = null;
+        long seq = 0;
+        String senderName = null;  // Only in full messages
+        String newValue = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type" -> type = Message.Type.valueOf(in.nextString());
+                case "content" -> content = in.nextString();
+                case "color", "senderColor" -> color = Vector4fAdapter.readInline(in);
+                case "senderName" -> senderName = in.nextString();
+                case "newValue" -> newValue = in.nextString();
+                case "seq" -> seq = in.nextLong();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (type == null) {
+            throw new JsonParseException("Request is missing its type");
+        }
+        if (senderName != null) {
+            // A full message from an older client
+            switch (type) {
+                case JOIN -> content = senderName;
+                case COLOR_CHANGE -> content = "";
+                case NICK_CHANGE -> {
+                    content = newValue;
+                    color = null;
+                }
+                default -> color = null;
+            }
+        }
+        if (content == null) {
+            throw new JsonParseException("Request is missing its content");
+        }
+        return new Request(type, content, color, seq);
+    }
+}
@@ -0,0 +1,163 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.util.HistoryRing;
+import com.ur91k.clichat.util.SerialExecutor;
+import org.java_websocket.WebSocket;
+import org.joml.Vector4f;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A chat room: its members and the lane its broadcasts are fanned out on.
+ * Broadcasts to one room are delivered in order; different rooms fan out in parallel.
+ *
+ * <p>The node that owns the room numbers its messages (see {@link Message#getSeq()}).
+ * The counter is the room's own, so numbering needs no lock shared between rooms.</p>
+ */
+public class Room {
+    public static final String DEFAULT_ID = "main_room";
+    private static final Pattern VALID_ID = Pattern.compile("[a-z0-9_-]{1,32}");
+    private static final int LANE_BUDGET = 32;  // Broadcasts per turn before yielding the worker
+
+    private final String id;
+    private final Vector4f color;
+    private final Set<WebSocket> members = ConcurrentHashMap.newKeySet();
+    private final Set<String> subscribers = ConcurrentHashMap.newKeySet();  // Cluster nodes relayed to
+    private final SerialExecutor lane;
+    private final HistoryRing<PreparedMessage> history;  // null = no backfill
+    private Batcher batcher;  // null unless batching is enabled
+    private final AtomicLong lastSeq = new AtomicLong();  // Last number handed out or heard of
+    private volatile long position;  // Written on the lane only: number of the last message delivered here
+
+    // Lane only: the backlog batch, reused by joiners until the next chat message
+    private PreparedMessage backlog;
+    private long backlogNext = -1;
+
+    Room(String id, Vector4f color, Executor fanout, int historySize) {
+        this.id = id;
+        this.color = new Vector4f(color);
+        this.lane = new SerialExecutor(fanout, LANE_BUDGET);
+        this.history = historySize > 0 ? new HistoryRing<>(historySize) : null;
+    }
+
+    /**
+     * Normalizes user input such as "#Lobby" into a room id.
+     *
+     * @return the id, or null if the name is not a valid room name
+     */
+    public static String toId(String name) {
+        String id = name.trim().toLowerCase(Locale.ROOT);
+        if (id.startsWith("#")) {
+            id = id.substring(1);
+        }
+        return VALID_ID.matcher(id).matches() ? id : null;
+    }
+
+    /**
+     * Picks a stable pastel color for a room from its id.
+     */
+    static Vector4f colorFor(String id) {
+        float hue = (id.hashCode() & 0xFFFF) / (float) 0x10000;
+        float r = Math.abs(hue * 6 - 3) - 1;
+        float g = 2 - Math.abs(hue * 6 - 2);
+        float b = 2 - Math.abs(hue * 6 - 4);
+        return new Vector4f(pastel(r), pastel(g), pastel(b), 1.0f);
+    }
+
+    private static float pastel(float channel) {
+        return 0.5f + 0.5f * Math.max(0f, Math.min(1f, channel));
+    }
+
+    public boolean isDefault() { return DEFAULT_ID.equals(id); }
+
+    public String getId() { return id; }
+    public Vector4f getColor() { return new Vector4f(color); }
+    public int getMemberCount() { return members.size(); }
+
+    /** True once nobody here or on another node needs the room, unless it is the default room. */
+    boolean isIdle() {
+        return members.isEmpty() && subscribers.isEmpty() && !isDefault();
+    }
+
+    Set<WebSocket> members() { return members; }
+    /** Other cluster nodes with members here, when this node owns the room. */
+    Set<String> subscribers() { return subscribers; }
+    SerialExecutor lane() { return lane; }
+    Batcher batcher() { return batcher; }
+    void setBatcher(Batcher batcher) { this.batcher = batcher; }
+
+    /**
+     * Numbers the next message, following on from the last one this node
+     * delivered or heard of in case the room has just moved here.
+     */
+    long nextSeq() {
+        return lastSeq.updateAndGet(last -> Math.max(last, position) + 1);
+    }
+
+    /**
+     * Notes a number handed out by a node that owned the room before, so numbering carries on past it.
+     */
+    void seen(long seq) {
+        lastSeq.accumulateAndGet(seq, Math::max);
+    }
+
+    /** Number of the last message delivered to members here, or 0. */
+    long position() { return position; }
+
+    /**
+     * Advances the room's position and remembers delivered chat for backfill. Runs on the lane.
+     */
+    void record(PreparedMessage prepared) {
+        if (prepared.isBatch()) {
+            for (PreparedMessage part : prepared.getParts()) {
+                record(part);
+            }
+            return;
+        }
+        Message message = prepared.getMessage();
+        if (message.getSeq() > position) {
+            position = message.getSeq();
+        }
+        if (history != null && message.getType() == Message.Type.CHAT) {
+            history.add(prepared);
+        }
+    }
+
+    /**
+     * Returns recent chat as one batch, or null if there is none. The batch and
+     * its frames are shared by everyone joining until the next message. Runs on the lane.
+     */
+    PreparedMessage backlog() {
+        if (history == null || history.getNext() == 0) {
+            return null;
+        }
+        if (backlogNext != history.getNext()) {
+            List<PreparedMessage> recent = history.snapshot();
+            backlog = PreparedMessage.batch(recent);
+            backlogNext = history.getNext();
+        }
+        return backlog;
+    }
+
+    /**
+     * Returns the recent chat numbered after a position as one batch, or null
+     * if there is none, for a client resuming its session. Runs on the lane.
+     */
+    PreparedMessage backlogAfter(long seq) {
+        if (history == null) {
+            return null;
+        }
+        List<PreparedMessage> recent = history.snapshot();
+        int from = 0;
+        while (from < recent.size() && recent.get(from).getMessage().getSeq() <= seq) {
+            from++;
+        }
+        return from < recent.size() ? PreparedMessage.batch(recent.subList(from, recent.size())) : null;
+    }
+}
@@ -0,0 +1,42 @@
+package com.ur91k.clichat.net;
+
+import org.joml.Vector4f;
+
+/**
+ * One identity a user sent messages under: their id, name and color, numbered
+ * so that frames can refer to it instead of repeating it.
+ *
+ * <p>Profiles never change; a nickname or color change makes a new one, so
+ * replayed history still shows each message as it was sent. The server sends a
+ * profile to a client once, before the first frame that refers to it.</p>
+ */
+final class SenderProfile {
+    private final int ref;
+    private final String id;
+    private final String name;
+    private final Vector4f color;
+    private volatile EncodedFrame frame;  // Built on first use; shared by every client
+
+    SenderProfile(int ref, String id, String name, Vector4f color) {
+        this.ref = ref;
+        this.id = id;
+        this.name = name;
+        this.color = new Vector4f(color);
+    }
+
+    /** The binary profile record announcing this profile to a client. */
+    EncodedFrame frame() {
+        EncodedFrame built = frame;
+        if (built == null) {
+            built = BinaryMessageCodec.encodeProfileFrame(this);
+            frame = built;
+        }
+        return built;
+    }
+
+    int ref() { return ref; }
+    String id() { return id; }
+    String name() { return name; }
+    /** Shared by every message decoded against this profile, so never modified. */
+    Vector4f color() { return color; }
+}
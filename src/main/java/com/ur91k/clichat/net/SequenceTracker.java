@@ -0,0 +1,92 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.util.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follows the message numbers of the rooms a client is in, to spot messages it
+ * missed or received twice (see {@link Message#getSeq()}).
+ *
+ * <p>A ROOM_UPDATE gives the number live messages follow on from. Until the
+ * first live message arrives, lower numbers are the room's backlog being
+ * replayed and pass unchecked; after it, each number should be one more than
+ * the last. A position of 0 is unknown, as when the room has only just been
+ * set up on a cluster node that does not own it, so the first live number is
+ * taken as it comes. Used on the client's network thread only; the counters
+ * may be read from anywhere.</p>
+ */
+final class SequenceTracker {
+    private static final Logger logger = Logger.getLogger(SequenceTracker.class);
+
+    private final Map<String, Position> positions = new HashMap<>();
+    private volatile long missed;
+    private volatile long duplicates;
+
+    private static final class Position {
+        long last;  // 0 = unknown
+        boolean replaying;
+
+        Position(long last, boolean replaying) {
+            this.last = last;
+            this.replaying = replaying;
+        }
+    }
+
+    /**
+     * Checks a received message against its room's sequence.
+     *
+     * @return false if the message was already received and should be dropped
+     */
+    boolean accept(Message message) {
+        String room = message.getRoom();
+        long seq = message.getSeq();
+        if (room == null) {
+            return true;
+        }
+        if (message.getType() == Message.Type.ROOM_UPDATE) {
+            positions.put(room, new Position(seq, true));
+            return true;
+        }
+        if (seq == 0) {
+            return true;  // Not numbered, e.g. from an older server
+        }
+        Position position = positions.get(room);
+        if (position == null) {
+            position = new Position(seq - 1, false);
+            positions.put(room, position);
+        }
+        if (seq <= position.last) {
+            if (position.replaying) {
+                return true;
+            }
+            duplicates++;
+            logger.debug("Dropping duplicate message {} in #{}", seq, room);
+            return false;
+        }
+        position.replaying = false;
+        if (position.last != 0 && seq != position.last + 1) {
+            missed += seq - position.last - 1;
+            logger.debug("Missed {} message(s) in #{} before message {}", seq - position.last - 1, room, seq);
+        }
+        position.last = seq;
+        return true;
+    }
+
+    /** Number of the last message seen in a room, the backlog counting as seen; 0 if unknown. */
+    long last(String room) {
+        Position position = positions.get(room);
+        return position != null ? position.last : 0;
+    }
+
+    /** Forgets every room, for a new connection. */
+    void reset() {
+        positions.clear();
+    }
+
+    /** Messages skipped over in room sequences so far. */
+    long getMissed() { return missed; }
+    /** Messages received again and dropped so far. */
+    long getDuplicates() { return duplicates; }
+}
@@ -0,0 +1,137 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.metrics.LatencyHistogram;
+import com.ur91k.clichat.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a {@link ChatServer} counts about itself. The instruments live in a
+ * {@link MetricsRegistry}, which the server adds its queue depth gauges to.
+ */
+public class ServerMetrics {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final long startMillis = System.currentTimeMillis();
+    private final LongAdder[] received = new LongAdder[Message.Type.values().length];
+    private final LongAdder[] sent = new LongAdder[Message.Type.values().length];
+
+    final LongAdder connectionsOpened;
+    final LongAdder connectionsRefused;
+    final LongAdder sessionsResumed;
+    final LongAdder messageErrors;
+    final LongAdder bytesIn;
+    final LongAdder bytesOut;
+    final LatencyHistogram decodeTime;
+    final LatencyHistogram fanoutTime;
+
+    ServerMetrics() {
+        registry.gauge("clichat_start_time_seconds", "When the server started, in seconds since the epoch",
+            () -> startMillis / 1000);
+        connectionsOpened = registry.counter("clichat_connections_opened_total", "Connections accepted and handshaken");
+        connectionsRefused = registry.counter("clichat_connections_refused_total",
+            "Connections refused at accept because the address is banned");
+        sessionsResumed = registry.counter("clichat_sessions_resumed_total",
+            "Dropped sessions picked up again on a new connection");
+        for (Message.Type type : Message.Type.values()) {
+            received[type.ordinal()] = registry.counter("clichat_messages_received_total",
+                "Messages received from clients, by type", "type", label(type));
+        }
+        for (Message.Type type : Message.Type.values()) {
+            sent[type.ordinal()] = registry.counter("clichat_messages_sent_total",
+                "Messages queued to clients, by type; a broadcast counts once per recipient", "type", label(type));
+        }
+        messageErrors = registry.counter("clichat_message_errors_total", "Messages that failed to decode or handle");
+        bytesIn = registry.counter("clichat_received_bytes_total", "Bytes read from client sockets");
+        bytesOut = registry.counter("clichat_sent_bytes_total", "Bytes written to client sockets");
+        decodeTime = registry.histogram("clichat_decode_seconds", "Time to decode an inbound message");
+        fanoutTime = registry.histogram("clichat_fanout_seconds",
+            "Time to queue a room message or batch for every member");
+    }
+
+    private static String label(Message.Type type) {
+        return type.name().toLowerCase(Locale.ROOT);
+    }
+
+    void received(Message.Type type) {
+        if (type != null) {
+            received[type.ordinal()].increment();
+        }
+    }
+
+    void sent(Message.Type type, int recipients) {
+        if (type != null && recipients > 0) {
+            sent[type.ordinal()].add(recipients);
+        }
+    }
+
+    /**
+     * Traffic and latency lines for {@code /stats}.
+     */
+    List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        lines.add("In: " + byType(received) + ", " + formatBytes(bytesIn.sum()) + "; errors " + messageErrors.sum());
+        lines.add("Out: " + byType(sent) + ", " + formatBytes(bytesOut.sum()));
+        lines.add("Decode: " + describe(decodeTime.snapshot()));
+        lines.add("Fan-out: " + describe(fanoutTime.snapshot()));
+        return lines;
+    }
+
+    private static String byType(LongAdder[] counters) {
+        long total = 0;
+        StringBuilder types = new StringBuilder();
+        for (Message.Type type : Message.Type.values()) {
+            long count = counters[type.ordinal()].sum();
+            if (count > 0) {
+                total += count;
+                types.append(types.length() == 0 ? "" : ", ").append(label(type)).append(' ').append(count);
+            }
+        }
+        return total + " message(s)" + (types.length() > 0 ? " (" + types + ")" : "");
+    }
+
+    private static String describe(LatencyHistogram.Snapshot snapshot) {
+        if (snapshot.count() == 0) {
+            return "no samples";
+        }
+        return String.format("p50 %s, p99 %s, p99.9 %s, max %s over %d", formatNanos(snapshot.percentile(0.5)),
+            formatNanos(snapshot.percentile(0.99)), formatNanos(snapshot.percentile(0.999)),
+            formatNanos(snapshot.max()), snapshot.count());
+    }
+
+    static String formatNanos(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + " ns";
+        }
+        if (nanos < 10_000_000) {
+            return nanos / 1000 + " us";
+        }
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KiB", bytes / 1024.0);
+        }
+        return String.format("%.1f MiB", bytes / (1024.0 * 1024));
+    }
+
+    /** Every instrument, including the gauges the server registered. */
+    public MetricsRegistry getRegistry() { return registry; }
+    public long getStartMillis() { return startMillis; }
+    public long getReceived(Message.Type type) { return received[type.ordinal()].sum(); }
+    public long getSent(Message.Type type) { return sent[type.ordinal()].sum(); }
+    public long getConnectionsOpened() { return connectionsOpened.sum(); }
+    public long getConnectionsRefused() { return connectionsRefused.sum(); }
+    public long getSessionsResumed() { return sessionsResumed.sum(); }
+    public long getMessageErrors() { return messageErrors.sum(); }
+    public long getBytesIn() { return bytesIn.sum(); }
+    public long getBytesOut() { return bytesOut.sum(); }
+    public LatencyHistogram getDecodeTime() { return decodeTime; }
+    public LatencyHistogram getFanoutTime() { return fanoutTime; }
+}
@@ -0,0 +1,102 @@
+package com.ur91k.clichat.net;
+
+import com.ur91k.clichat.store.LogSettings;
+
+/**
+ * Tunables for a {@link ChatServer}, filled in from command line flags by the launcher.
+ */
+public class ServerOptions {
+    private DeflateSettings deflate;  // null = compression disabled
+    private int fanoutThreads = Runtime.getRuntime().availableProcessors();
+    private int handlerThreads = Runtime.getRuntime().availableProcessors();  // 0 = handle on the network thread
+    private OutboundSettings outbound = new OutboundSettings();
+    private BatchSettings batch;      // null = batching disabled
+    private RateLimitSettings rateLimits = new RateLimitSettings();  // null = no flood limits
+    private String banFile = "bans.json";  // null = bans are not persisted
+    private int historySize = 50;
+    private int pipelineCapacity = 16384;
+    private int metricsPort;          // 0 = no metrics endpoint
+    private int resumeGraceMillis = 60_000;  // 0 = dropped sessions end at once
+    private LogSettings log;          // null = chat is not persisted
+    private ClusterSettings cluster;  // null = standalone
+
+    /** permessage-deflate settings, or null when compression is disabled. */
+    public DeflateSettings getDeflate() { return deflate; }
+    /** Worker threads shared by all rooms for delivering broadcasts. */
+    public int getFanoutThreads() { return fanoutThreads; }
+    /** Threads decoding and handling inbound messages, or 0 to handle them on the network thread. */
+    public int getHandlerThreads() { return handlerThreads; }
+    /** Per-client write queue limits and slow-consumer policy. */
+    public OutboundSettings getOutbound() { return outbound; }
+    /** Broadcast batching settings, or null when batching is disabled. */
+    public BatchSettings getBatch() { return batch; }
+    /** Per-client flood limits, or null when they are disabled. */
+    public RateLimitSettings getRateLimits() { return rateLimits; }
+    /** File the ban list is loaded from and saved to, or null to keep bans in memory only. */
+    public String getBanFile() { return banFile; }
+    /** Chat messages kept per room and replayed to clients joining it; 0 disables backfill. */
+    public int getHistorySize() { return historySize; }
+    /** Slots in the ring room messages are sequenced, persisted and fanned out through. */
+    public int getPipelineCapacity() { return pipelineCapacity; }
+    /** Loopback port serving Prometheus metrics, or 0 when the endpoint is off. */
+    public int getMetricsPort() { return metricsPort; }
+    /**
+     * How long a session whose connection dropped is kept for its client to
+     * resume, before the others are told it left; 0 disables resuming.
+     */
+    public int getResumeGraceMillis() { return resumeGraceMillis; }
+    /** Durable chat log settings, or null when chat is not persisted. */
+    public LogSettings getLog() { return log; }
+    /** Cluster membership, or null when the server runs standalone. */
+    public ClusterSettings getCluster() { return cluster; }
+
+    public void setDeflate(DeflateSettings deflate) { this.deflate = deflate; }
+    public void setOutbound(OutboundSettings outbound) { this.outbound = outbound; }
+    public void setBatch(BatchSettings batch) { this.batch = batch; }
+    public void setRateLimits(RateLimitSettings rateLimits) { this.rateLimits = rateLimits; }
+    public void setBanFile(String banFile) { this.banFile = banFile; }
+    public void setLog(LogSettings log) { this.log = log; }
+    public void setCluster(ClusterSettings cluster) { this.cluster = cluster; }
+
+    public void setHistorySize(int historySize) {
+        if (historySize < 0) {
+            throw new IllegalArgumentException("History size cannot be negative: " + historySize);
+        }
+        this.historySize = historySize;
+    }
+
+    public void setFanoutThreads(int fanoutThreads) {
+        if (fanoutThreads < 1) {
+            throw new IllegalArgumentException("Fan-out threads must be positive: " + fanoutThreads);
+        }
+        this.fanoutThreads = fanoutThreads;
+    }
+
+    public void setHandlerThreads(int handlerThreads) {
+        if (handlerThreads < 0) {
+            throw new IllegalArgumentException("Handler threads cannot be negative: " + handlerThreads);
+        }
+        this.handlerThreads = handlerThreads;
+    }
+
+    public void setPipelineCapacity(int pipelineCapacity) {
+        if (pipelineCapacity < 2 || Integer.bitCount(pipelineCapacity) != 1) {
+            throw new IllegalArgumentException("Pipeline capacity must be a power of two: " + pipelineCapacity);
+        }
+        this.pipelineCapacity = pipelineCapacity;
+    }
+
+    public void setResumeGraceMillis(int resumeGraceMillis) {
+        if (resumeGraceMillis < 0) {
+            throw new IllegalArgumentException("Resume grace period cannot be negative: " + resumeGraceMillis);
+        }
+        this.resumeGraceMillis = resumeGraceMillis;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("Invalid metrics port: " + metricsPort);
+        }
+        this.metricsPort = metricsPort;
+    }
+}
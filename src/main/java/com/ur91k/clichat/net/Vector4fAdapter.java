@@ -1,29 +1,63 @@
 package com.ur91k.clichat.net;
 
-import com.google.gson.*;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import org.joml.Vector4f;
-import java.lang.reflect.Type;
 
-public class Vector4fAdapter implements JsonSerializer<Vector4f>, JsonDeserializer<Vector4f> {
+import java.io.IOException;
+
+/**
+ * Streams a Vector4f as {"x":..,"y":..,"z":..,"w":..} without building a JSON tree.
+ */
+public class Vector4fAdapter extends TypeAdapter<Vector4f> {
     @Override
-    public JsonElement serialize(Vector4f src, Type typeOfSrc, JsonSerializationContext context) {
-        JsonObject obj = new JsonObject();
-        obj.addProperty("x", src.x);
-        obj.addProperty("y", src.y);
-        obj.addProperty("z", src.z);
-        obj.addProperty("w", src.w);
-        return obj;
+    public void write(JsonWriter out, Vector4f src) throws IOException {
+        if (src == null) {
+            out.nullValue();
+            return;
+        }
+        writeInline(out, src);
     }
 
     @Override
-    public Vector4f deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) 
-            throws JsonParseException {
-        JsonObject obj = json.getAsJsonObject();
-        return new Vector4f(
-            obj.get("x").getAsFloat(),
-            obj.get("y").getAsFloat(),
-            obj.get("z").getAsFloat(),
-            obj.get("w").getAsFloat()
-        );
+    public Vector4f read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return readInline(in);
+    }
+
+    /**
+     * Writes a non-null vector at the writer's current position.
+     */
+    static void writeInline(JsonWriter out, Vector4f src) throws IOException {
+        out.beginObject();
+        out.name("x").value(src.x);
+        out.name("y").value(src.y);
+        out.name("z").value(src.z);
+        out.name("w").value(src.w);
+        out.endObject();
+    }
+
+    /**
+     * Reads a vector object at the reader's current position. Missing components default to 0.
+     */
+    static Vector4f readInline(JsonReader in) throws IOException {
+        Vector4f result = new Vector4f();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "x" -> result.x = (float) in.nextDouble();
+                case "y" -> result.y = (float) in.nextDouble();
+                case "z" -> result.z = (float) in.nextDouble();
+                case "w" -> result.w = (float) in.nextDouble();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return result;
     }
-} 
\ No newline at end of file
+}
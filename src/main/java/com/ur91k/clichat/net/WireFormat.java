@@ -0,0 +1,109 @@
+package com.ur91k.clichat.net;
+
+import org.java_websocket.handshake.Handshakedata;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Message encodings a connection can use, negotiated through Sec-WebSocket-Protocol.
+ * Peers that offer no subprotocol (older clients and servers) fall back to JSON.
+ */
+public enum WireFormat {
+    JSON("clichat.json.v1"),
+    BINARY("clichat.bin.v" + BinaryMessageCodec.VERSION);
+
+    /** Handshake header listing optional features a peer understands, comma separated. */
+    public static final String FEATURES_HEADER = "Clichat-Features";
+    /** Feature: the client unpacks batch frames (see {@link #encodeBatch}). */
+    public static final String FEATURE_BATCH = "batch";
+    /**
+     * Feature: the client keeps the sender profiles it is sent and accepts binary
+     * messages that refer to them (see {@link BinaryMessageCodec}).
+     */
+    public static final String FEATURE_SENDERS = "senders";
+    /** Feature, offered by servers: the server takes slim {@link Request}s in place of full messages. */
+    public static final String FEATURE_REQUESTS = "requests";
+    /**
+     * Feature: a client that understands SESSION messages and resumes dropped
+     * sessions; offered by servers that keep them for it.
+     */
+    public static final String FEATURE_RESUME = "resume";
+
+    private final String protocol;
+
+    WireFormat(String protocol) {
+        this.protocol = protocol;
+    }
+
+    public String getProtocol() { return protocol; }
+
+    /**
+     * Encodes a message into a shareable frame in this format.
+     */
+    public EncodedFrame encode(Message message) {
+        return this == BINARY
+            ? BinaryMessageCodec.encodeFrame(message)
+            : EncodedFrame.text(MessageAdapter.GSON.toJson(message));
+    }
+
+    /**
+     * Packs already encoded messages into one frame: a JSON array of the message
+     * objects, or a binary batch record (see {@link BinaryMessageCodec}).
+     */
+    public EncodedFrame encodeBatch(List<EncodedFrame> parts) {
+        if (this == BINARY) {
+            return BinaryMessageCodec.encodeBatchFrame(parts);
+        }
+        int length = 2 + Math.max(0, parts.size() - 1);  // brackets and commas
+        for (EncodedFrame part : parts) {
+            length += part.getPayloadLength();
+        }
+        byte[] json = new byte[length];
+        int position = 0;
+        json[position++] = '[';
+        for (int i = 0; i < parts.size(); i++) {
+            if (i > 0) {
+                json[position++] = ',';
+            }
+            ByteBuffer payload = parts.get(i).payload();
+            int size = payload.remaining();
+            payload.get(json, position, size);
+            position += size;
+        }
+        json[position++] = ']';
+        return EncodedFrame.text(json, 0, position);
+    }
+
+    /**
+     * Checks whether a peer's handshake lists a feature.
+     */
+    public static boolean hasFeature(Handshakedata handshake, String feature) {
+        for (String offered : handshake.getFieldValue(FEATURES_HEADER).split(",")) {
+            if (offered.trim().equalsIgnoreCase(feature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Subprotocols offered by a peer, most preferred first. The trailing empty
+     * protocol accepts peers that do not send the header at all.
+     */
+    public static List<IProtocol> protocols() {
+        return List.of(new Protocol(BINARY.protocol), new Protocol(JSON.protocol), new Protocol(""));
+    }
+
+    /**
+     * Maps a negotiated subprotocol back to its format.
+     */
+    public static WireFormat of(IProtocol negotiated) {
+        if (negotiated != null && BINARY.protocol.equals(negotiated.getProvidedProtocol())) {
+            return BINARY;
+        }
+        return JSON;
+    }
+}
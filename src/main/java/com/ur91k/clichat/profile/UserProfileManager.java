@@ -1,7 +1,6 @@
 package com.ur91k.clichat.profile;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.ur91k.clichat.net.MessageAdapter;
 import org.joml.Vector4f;
@@ -14,9 +13,8 @@ import java.util.*;
 
 public class UserProfileManager {
     private static final String PROFILES_FILE = "profiles.json";
-    private static final Gson gson = new GsonBuilder()
+    private static final Gson gson = MessageAdapter.newGsonBuilder()
         .setPrettyPrinting()
-        .registerTypeAdapter(Vector4f.class, new MessageAdapter.Vector4fAdapter())
         .create();
     
     private Map<String, UserProfile> profiles;
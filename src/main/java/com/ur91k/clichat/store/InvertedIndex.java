@@ -0,0 +1,179 @@
+package com.ur91k.clichat.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Term index over log records, split into independent shards (one per room).
+ *
+ * <p>Each shard numbers its documents densely in the order they arrive and
+ * keeps, per term, a {@link PostingList} of those numbers. Documents also record
+ * their log sequence number and timestamp, so a time filter becomes a range
+ * of document numbers and hits map straight back to log reads.</p>
+ */
+public class InvertedIndex {
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+
+    /**
+     * A page of hits, newest first.
+     *
+     * @param total matches across all pages
+     * @param seqs log sequence numbers of the hits on this page
+     */
+    public record Result(int total, long[] seqs) {}
+
+    private static final class Shard {
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        final Map<String, PostingList> postings = new HashMap<>();
+        long[] seqs = new long[64];
+        long[] times = new long[64];
+        int docs;
+    }
+
+    /**
+     * Indexes a record. Records must arrive in log order, which also keeps timestamps ascending per shard.
+     */
+    public void add(String shardKey, long seq, long timestamp, Collection<String> terms) {
+        Shard shard = shards.computeIfAbsent(shardKey, key -> new Shard());
+        shard.lock.writeLock().lock();
+        try {
+            if (shard.docs > 0 && shard.seqs[shard.docs - 1] >= seq) {
+                return;  // Already indexed
+            }
+            if (shard.docs == shard.seqs.length) {
+                shard.seqs = Arrays.copyOf(shard.seqs, shard.docs * 2);
+                shard.times = Arrays.copyOf(shard.times, shard.docs * 2);
+            }
+            int doc = shard.docs;
+            shard.seqs[doc] = seq;
+            shard.times[doc] = timestamp;
+            shard.docs++;
+            for (String term : terms) {
+                shard.postings.computeIfAbsent(term, t -> new PostingList()).add(doc);
+            }
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds records in one shard containing every term, written between two times (inclusive).
+     *
+     * @param offset hits to skip, counting from the newest
+     * @param limit largest number of hits to return
+     * @throws IllegalArgumentException if the offset or limit is negative
+     */
+    public Result search(String shardKey, Collection<String> terms, long fromMillis, long toMillis, int offset,
+            int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Negative search window: offset " + offset + ", limit " + limit);
+        }
+        Shard shard = shards.get(shardKey);
+        if (shard == null || terms.isEmpty()) {
+            return new Result(0, new long[0]);
+        }
+        shard.lock.readLock().lock();
+        try {
+            List<PostingList> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                PostingList list = shard.postings.get(term);
+                if (list == null) {
+                    return new Result(0, new long[0]);
+                }
+                lists.add(list);
+            }
+            // Drive from the rarest term so the others are only probed
+            lists.sort(Comparator.comparingInt(PostingList::count));
+            int first = lowerBound(shard.times, shard.docs, fromMillis);
+            int end = toMillis == Long.MAX_VALUE ? shard.docs : lowerBound(shard.times, shard.docs, toMillis + 1);
+
+            int[] hits = new int[Math.min(lists.get(0).count(), 1024)];
+            int total = 0;
+            PostingList.Cursor driver = lists.get(0).cursor();
+            PostingList.Cursor[] others = new PostingList.Cursor[lists.size() - 1];
+            for (int i = 0; i < others.length; i++) {
+                others[i] = lists.get(i + 1).cursor();
+            }
+            int doc = driver.advance(first);
+            candidates:
+            while (doc >= 0 && doc < end) {
+                for (PostingList.Cursor other : others) {
+                    int found = other.advance(doc);
+                    if (found < 0) {
+                        break candidates;
+                    }
+                    if (found != doc) {
+                        doc = driver.advance(found);
+                        continue candidates;
+                    }
+                }
+                if (total == hits.length) {
+                    hits = Arrays.copyOf(hits, total * 2);
+                }
+                hits[total++] = doc;
+                doc = driver.next();
+            }
+
+            int count = offset >= total ? 0 : Math.min(limit, total - offset);
+            long[] seqs = new long[count];
+            for (int i = 0; i < count; i++) {
+                seqs[i] = shard.seqs[hits[total - 1 - offset - i]];
+            }
+            return new Result(total, seqs);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    private static int lowerBound(long[] values, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Documents indexed across all shards. */
+    public long getDocCount() {
+        long total = 0;
+        for (Shard shard : shards.values()) {
+            shard.lock.readLock().lock();
+            try {
+                total += shard.docs;
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return total;
+    }
+
+    /** Bytes used by encoded posting lists across all shards. */
+    public long getPostingBytes() {
+        long total = 0;
+        for (Shard shard : shards.values()) {
+            shard.lock.readLock().lock();
+            try {
+                for (PostingList list : shard.postings.values()) {
+                    total += list.byteSize();
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return total;
+    }
+}
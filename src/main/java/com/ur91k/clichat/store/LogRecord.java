@@ -0,0 +1,13 @@
+package com.ur91k.clichat.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One record read back from a {@link SegmentedLog}.
+ *
+ * @param seq position in the log, starting at 0 and increasing by one per record
+ * @param timestamp wall clock time the record was written, in epoch milliseconds; never decreases
+ * @param payload the bytes that were appended
+ */
+public record LogRecord(long seq, long timestamp, ByteBuffer payload) {
+}
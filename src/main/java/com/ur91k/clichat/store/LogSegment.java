@@ -0,0 +1,349 @@
+package com.ur91k.clichat.store;
+
+import com.ur91k.clichat.util.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * One file of a {@link SegmentedLog}, named after the sequence number of its first
+ * record, plus a sparse index of (seq, timestamp, position) entries in a sibling file.
+ *
+ * <p>Record layout: {@code int length, int crc32c, long seq, long timestamp, payload},
+ * where length and checksum cover everything after the checksum.</p>
+ *
+ * <p>Only the log's writer thread appends. Readers use positional reads and see
+ * records up to {@link #end}, which is published after each group is written.</p>
+ */
+final class LogSegment {
+    private static final Logger logger = Logger.getLogger(LogSegment.class);
+    static final int HEAD_BYTES = 24;   // length, crc, seq, timestamp
+    private static final int BODY_PREFIX = 16;
+    private static final int INDEX_ENTRY_BYTES = 24;
+
+    final long baseSeq;
+    private final Path path;
+    private final Path indexPath;
+    private final FileChannel channel;
+    private final int indexInterval;
+    private final ByteBuffer staging;   // Shared with the other segments; writer thread only
+    private final ByteBuffer indexStaging = ByteBuffer.allocate(INDEX_ENTRY_BYTES * 64);
+    private FileChannel indexChannel;   // null once sealed
+    private volatile long end;          // Bytes of complete records, visible to readers
+    private long written;               // Bytes written or staged; writer only
+    private long nextSeq;
+    private long lastIndexed = Long.MIN_VALUE / 2;
+
+    // Sparse index, guarded by this
+    private long[] indexSeqs = new long[16];
+    private long[] indexTimes = new long[16];
+    private long[] indexPositions = new long[16];
+    private int indexSize;
+
+    private LogSegment(Path directory, long baseSeq, FileChannel channel, int indexInterval, ByteBuffer staging) {
+        this.baseSeq = baseSeq;
+        this.path = directory.resolve(fileName(baseSeq, ".log"));
+        this.indexPath = directory.resolve(fileName(baseSeq, ".idx"));
+        this.channel = channel;
+        this.indexInterval = indexInterval;
+        this.staging = staging;
+        this.nextSeq = baseSeq;
+    }
+
+    static String fileName(long baseSeq, String extension) {
+        return String.format("%020d%s", baseSeq, extension);
+    }
+
+    /**
+     * Creates an empty segment that takes appends.
+     */
+    static LogSegment create(Path directory, long baseSeq, int indexInterval, ByteBuffer staging) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(fileName(baseSeq, ".log")),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        LogSegment segment = new LogSegment(directory, baseSeq, channel, indexInterval, staging);
+        segment.indexChannel = FileChannel.open(segment.indexPath, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment. The active one is always scanned, which drops a
+     * torn tail left by a crash; sealed ones are only scanned if their index is missing.
+     */
+    static LogSegment open(Path directory, long baseSeq, int indexInterval, ByteBuffer staging, boolean active)
+            throws IOException {
+        Path path = directory.resolve(fileName(baseSeq, ".log"));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(directory, baseSeq, channel, indexInterval, staging);
+        if (active || !segment.loadIndex()) {
+            segment.scan();
+            segment.indexChannel = FileChannel.open(segment.indexPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            segment.writeIndex();
+            if (!active) {
+                segment.seal();
+            }
+        }
+        return segment;
+    }
+
+    private boolean loadIndex() throws IOException {
+        if (!Files.exists(indexPath) || Files.size(indexPath) == 0 || Files.size(indexPath) % INDEX_ENTRY_BYTES != 0) {
+            return false;
+        }
+        ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        while (entries.hasRemaining()) {
+            addIndex(entries.getLong(), entries.getLong(), entries.getLong());
+        }
+        end = channel.size();
+        written = end;
+        return true;
+    }
+
+    private void scan() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer head = ByteBuffer.allocate(HEAD_BYTES);
+        CRC32C crc = new CRC32C();
+        while (position + HEAD_BYTES <= size) {
+            head.clear();
+            readFully(head, position);
+            head.flip();
+            int length = head.getInt();
+            int checksum = head.getInt();
+            if (length < BODY_PREFIX || position + 8 + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + 8);
+            body.flip();
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            long seq = body.getLong(0);
+            maybeIndex(seq, body.getLong(8), position);
+            nextSeq = seq + 1;
+            position += 8 + length;
+        }
+        if (position < size) {
+            logger.warn("Dropping {} bytes of incomplete records from {}", size - position, path);
+            channel.truncate(position);
+        }
+        end = position;
+        written = position;
+    }
+
+    private void writeIndex() throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate(indexSize * INDEX_ENTRY_BYTES);
+        synchronized (this) {
+            for (int i = 0; i < indexSize; i++) {
+                entries.putLong(indexSeqs[i]).putLong(indexTimes[i]).putLong(indexPositions[i]);
+            }
+        }
+        entries.flip();
+        while (entries.hasRemaining()) {
+            indexChannel.write(entries);
+        }
+    }
+
+    /** Bytes in the segment, including records not yet flushed. */
+    long size() { return written; }
+    /** Sequence number the next record appended here gets. */
+    long nextSeq() { return nextSeq; }
+
+    /**
+     * Stages a record; it reaches the file on the next {@link #flush()}.
+     */
+    void append(long seq, long timestamp, ByteBuffer payload) throws IOException {
+        int length = BODY_PREFIX + payload.remaining();
+        long position = written;
+        if (8 + length > staging.capacity()) {
+            flush();
+            ByteBuffer record = ByteBuffer.allocate(8 + length);
+            encode(record, length, seq, timestamp, payload);
+            writeFully(record.flip(), position);
+        } else {
+            if (8 + length > staging.remaining()) {
+                flushStaging();
+            }
+            encode(staging, length, seq, timestamp, payload);
+        }
+        written += 8 + length;
+        nextSeq = seq + 1;
+        maybeIndex(seq, timestamp, position);
+    }
+
+    private static void encode(ByteBuffer target, int length, long seq, long timestamp, ByteBuffer payload) {
+        int start = target.position();
+        target.putInt(length).putInt(0).putLong(seq).putLong(timestamp).put(payload.duplicate());
+        CRC32C crc = new CRC32C();
+        crc.update(target.duplicate().position(start + 8).limit(start + 8 + length));
+        target.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void maybeIndex(long seq, long timestamp, long position) throws IOException {
+        if (position - lastIndexed < indexInterval) {
+            return;
+        }
+        lastIndexed = position;
+        if (indexChannel == null) {
+            addIndex(seq, timestamp, position);  // Loading: the records are already readable
+            return;
+        }
+        if (indexStaging.remaining() < INDEX_ENTRY_BYTES) {
+            flush();
+        }
+        indexStaging.putLong(seq).putLong(timestamp).putLong(position);
+    }
+
+    private synchronized void addIndex(long seq, long timestamp, long position) {
+        if (indexSize == indexSeqs.length) {
+            indexSeqs = Arrays.copyOf(indexSeqs, indexSize * 2);
+            indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+        }
+        indexSeqs[indexSize] = seq;
+        indexTimes[indexSize] = timestamp;
+        indexPositions[indexSize] = position;
+        indexSize++;
+    }
+
+    /**
+     * Writes staged records and index entries to the files and makes the records visible to readers.
+     */
+    void flush() throws IOException {
+        flushStaging();
+        end = written;
+        // Index entries are published only once the records they point at are readable
+        indexStaging.flip();
+        for (int i = indexStaging.position(); i < indexStaging.limit(); i += INDEX_ENTRY_BYTES) {
+            addIndex(indexStaging.getLong(i), indexStaging.getLong(i + 8), indexStaging.getLong(i + 16));
+        }
+        if (indexChannel != null) {
+            while (indexStaging.hasRemaining()) {
+                indexChannel.write(indexStaging);
+            }
+        }
+        indexStaging.clear();
+    }
+
+    private void flushStaging() throws IOException {
+        staging.flip();
+        writeFully(staging, written - staging.remaining());
+        staging.clear();
+    }
+
+    /** Forces written records and index entries to disk. */
+    void force() throws IOException {
+        channel.force(false);
+        if (indexChannel != null) {
+            indexChannel.force(false);
+        }
+    }
+
+    /**
+     * Flushes, forces and stops taking appends. The segment stays open for reads.
+     */
+    void seal() throws IOException {
+        flush();
+        force();
+        if (indexChannel != null) {
+            indexChannel.close();
+            indexChannel = null;
+        }
+    }
+
+    void close() throws IOException {
+        if (indexChannel != null) {
+            seal();
+        }
+        channel.close();
+    }
+
+    /** Timestamp of the first record, or Long.MAX_VALUE if the segment is empty. */
+    synchronized long firstTimestamp() {
+        return indexSize > 0 ? indexTimes[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Reads records with {@code seq >= fromSeq} and {@code timestamp >= fromMillis}
+     * in order, until {@code timestamp > toMillis} or {@code out} holds {@code max} records.
+     *
+     * @return true if the scan stopped because it passed {@code toMillis} or hit {@code max}
+     */
+    boolean read(long fromSeq, long fromMillis, long toMillis, int max, List<LogRecord> out) throws IOException {
+        long limit = end;
+        long position = startPosition(fromSeq, fromMillis);
+        ByteBuffer head = ByteBuffer.allocate(HEAD_BYTES);
+        while (position < limit) {
+            if (out.size() >= max) {
+                return true;
+            }
+            head.clear();
+            readFully(head, position);
+            head.flip();
+            int length = head.getInt();
+            head.getInt();
+            long seq = head.getLong();
+            long timestamp = head.getLong();
+            if (timestamp > toMillis) {
+                return true;
+            }
+            if (seq >= fromSeq && timestamp >= fromMillis) {
+                ByteBuffer payload = ByteBuffer.allocate(length - BODY_PREFIX);
+                readFully(payload, position + HEAD_BYTES);
+                out.add(new LogRecord(seq, timestamp, payload.flip()));
+            }
+            position += 8 + length;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the last indexed position at or before the first record that could match.
+     */
+    private synchronized long startPosition(long fromSeq, long fromMillis) {
+        int low = 0;
+        int high = indexSize - 1;
+        long position = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            // Nothing before an entry can match if the entry is not past fromSeq, or is
+            // older than fromMillis (several records can share a millisecond)
+            if (indexSeqs[mid] <= fromSeq || indexTimes[mid] < fromMillis) {
+                position = indexPositions[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + path);
+            }
+            position += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
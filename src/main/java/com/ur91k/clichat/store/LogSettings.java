@@ -0,0 +1,101 @@
+package com.ur91k.clichat.store;
+
+/**
+ * Tuning for a {@link SegmentedLog}.
+ *
+ * <p>The writer commits in groups: it drains everything queued since its last
+ * pass, writes it with one call and then applies the fsync policy once for the
+ * whole group. {@link FsyncPolicy#ALWAYS} therefore costs one fsync per group,
+ * not per record, and groups grow on their own as load rises.</p>
+ */
+public class LogSettings {
+    public static final int MIN_SEGMENT_BYTES = 64 * 1024;
+
+    /** When written records are forced to disk. */
+    public enum FsyncPolicy {
+        /** After every group commit. Appends wait rather than drop when the writer falls behind. */
+        ALWAYS,
+        /** At most once per {@code fsyncIntervalMillis}; a crash loses at most that much. */
+        INTERVAL,
+        /** Left to the operating system. */
+        NEVER
+    }
+
+    private String directory = "chatlog";
+    private int segmentBytes = 64 * 1024 * 1024;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+    private int fsyncIntervalMillis = 1000;
+    private int indexIntervalBytes = 4096;
+    private int queueCapacity = 65536;
+
+    public LogSettings() {}
+
+    public LogSettings(LogSettings other) {
+        this.directory = other.directory;
+        this.segmentBytes = other.segmentBytes;
+        this.fsyncPolicy = other.fsyncPolicy;
+        this.fsyncIntervalMillis = other.fsyncIntervalMillis;
+        this.indexIntervalBytes = other.indexIntervalBytes;
+        this.queueCapacity = other.queueCapacity;
+    }
+
+    /** Directory the segment and index files live in. */
+    public String getDirectory() { return directory; }
+    /** Size at which the active segment is sealed and a new one started. */
+    public int getSegmentBytes() { return segmentBytes; }
+    public FsyncPolicy getFsyncPolicy() { return fsyncPolicy; }
+    /** Longest gap between fsyncs under {@link FsyncPolicy#INTERVAL}. */
+    public int getFsyncIntervalMillis() { return fsyncIntervalMillis; }
+    /** Bytes of records between sparse index entries. */
+    public int getIndexIntervalBytes() { return indexIntervalBytes; }
+    /** Records that may wait for the writer before appends are dropped, or wait themselves under ALWAYS. */
+    public int getQueueCapacity() { return queueCapacity; }
+
+    public void setDirectory(String directory) {
+        if (directory == null || directory.isBlank()) {
+            throw new IllegalArgumentException("Log directory must not be empty");
+        }
+        this.directory = directory;
+    }
+
+    public void setSegmentBytes(int segmentBytes) {
+        if (segmentBytes < MIN_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_BYTES + ": " + segmentBytes);
+        }
+        this.segmentBytes = segmentBytes;
+    }
+
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        if (fsyncPolicy == null) {
+            throw new IllegalArgumentException("Fsync policy must not be null");
+        }
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    public void setFsyncIntervalMillis(int fsyncIntervalMillis) {
+        if (fsyncIntervalMillis < 1) {
+            throw new IllegalArgumentException("Fsync interval must be positive: " + fsyncIntervalMillis);
+        }
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    public void setIndexIntervalBytes(int indexIntervalBytes) {
+        if (indexIntervalBytes < 1) {
+            throw new IllegalArgumentException("Index interval must be positive: " + indexIntervalBytes);
+        }
+        this.indexIntervalBytes = indexIntervalBytes;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("log(directory=%s, segmentBytes=%d, fsync=%s, fsyncIntervalMillis=%d, indexIntervalBytes=%d)",
+            directory, segmentBytes, fsyncPolicy, fsyncIntervalMillis, indexIntervalBytes);
+    }
+}
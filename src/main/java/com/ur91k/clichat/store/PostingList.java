@@ -0,0 +1,78 @@
+package com.ur91k.clichat.store;
+
+import java.util.Arrays;
+
+/**
+ * Ascending document ids stored as varint-encoded gaps, typically one or two bytes per entry.
+ * Not thread-safe; {@link InvertedIndex} guards each shard's lists.
+ */
+final class PostingList {
+    private byte[] bytes = new byte[8];
+    private int length;
+    private int last = -1;
+    private int count;
+
+    /**
+     * Appends a document. Ids must not decrease; a repeat of the last id is ignored.
+     */
+    void add(int doc) {
+        if (doc <= last) {
+            return;
+        }
+        int gap = doc - last;  // At least 1, since last starts at -1
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        while ((gap & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        bytes[length++] = (byte) gap;
+        last = doc;
+        count++;
+    }
+
+    int count() { return count; }
+    /** Encoded size, for stats. */
+    int byteSize() { return length; }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the list forward, decoding one gap at a time.
+     */
+    final class Cursor {
+        private int position;
+        private int doc = -1;
+
+        /** Returns the next document, or -1 at the end. */
+        int next() {
+            if (position >= length) {
+                return doc = -1;
+            }
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return doc += gap;
+        }
+
+        /** Returns the first document at or after {@code target}, or -1 if there is none. */
+        int advance(int target) {
+            int current = doc;
+            while (current < target) {
+                current = next();
+                if (current < 0) {
+                    return -1;
+                }
+            }
+            return current;
+        }
+    }
+}
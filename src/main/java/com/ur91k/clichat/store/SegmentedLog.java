@@ -0,0 +1,340 @@
+package com.ur91k.clichat.store;
+
+import com.ur91k.clichat.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Durable append-only log of opaque records, split into segment files.
+ *
+ * <p>{@link #append} hands the payload to a writer thread and returns. If the
+ * writer has fallen too far behind, a log fsynced on every commit
+ * ({@link LogSettings.FsyncPolicy#ALWAYS}) makes the caller wait for room,
+ * so nothing it accepted is lost; under the other policies the record is
+ * dropped and counted instead, keeping chat flowing. The writer commits in groups and rolls to a new segment once the active
+ * one reaches its size limit. Each segment keeps a sparse index so range
+ * reads by sequence number or time seek close to their start instead of
+ * scanning the whole log.</p>
+ */
+public class SegmentedLog implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(SegmentedLog.class);
+    private static final int GROUP_LIMIT = 4096;
+    private static final int STAGING_BYTES = 256 * 1024;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long DROP_WARNING_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long BACKPRESSURE_POLL_MILLIS = 100;  // How often a waiting append rechecks for close
+
+    private final LogSettings settings;
+    private final Path directory;
+    private final BlockingQueue<ByteBuffer> queue;
+    private final ByteBuffer staging;  // Record buffer shared by all segments; writer thread only
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong lastDropWarning = new AtomicLong(System.nanoTime() - DROP_WARNING_NANOS);
+    private volatile List<LogSegment> segments;  // Oldest first; replaced on roll
+    private volatile boolean running = true;
+    private volatile RecordListener listener;
+
+    private volatile long nextSeq;  // Written by the writer thread only
+
+    // Writer thread only
+    private LogSegment active;
+    private long lastTimestamp;
+    private final long[] groupSeqs = new long[GROUP_LIMIT];
+    private final long[] groupTimes = new long[GROUP_LIMIT];
+
+    /**
+     * Receives records once they are written. Called on the writer thread, so it must be quick.
+     */
+    @FunctionalInterface
+    public interface RecordListener {
+        void onRecord(long seq, long timestamp, ByteBuffer payload);
+    }
+
+    private SegmentedLog(LogSettings settings, Path directory, List<LogSegment> segments, ByteBuffer staging) {
+        this.settings = new LogSettings(settings);
+        this.directory = directory;
+        this.staging = staging;
+        this.queue = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        this.segments = List.copyOf(segments);
+        this.active = segments.get(segments.size() - 1);
+        this.nextSeq = active.nextSeq();
+        this.writer = new Thread(this::run, "chat-log-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens the log in the configured directory, creating it if needed, and starts the writer.
+     */
+    public static SegmentedLog open(LogSettings settings) throws IOException {
+        Path directory = Path.of(settings.getDirectory());
+        Files.createDirectories(directory);
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                .filter(name -> name.matches("\\d{20}\\.log"))
+                .forEach(name -> bases.add(Long.parseLong(name.substring(0, 20))));
+        }
+        bases.sort(null);
+
+        List<LogSegment> segments = new ArrayList<>();
+        ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_BYTES);
+        try {
+            for (int i = 0; i < bases.size(); i++) {
+                segments.add(LogSegment.open(directory, bases.get(i), settings.getIndexIntervalBytes(), staging,
+                    i == bases.size() - 1));
+            }
+            if (segments.isEmpty()) {
+                segments.add(LogSegment.create(directory, 0, settings.getIndexIntervalBytes(), staging));
+            }
+        } catch (IOException e) {
+            for (LogSegment segment : segments) {
+                closeQuietly(segment);
+            }
+            throw e;
+        }
+        SegmentedLog log = new SegmentedLog(settings, directory, segments, staging);
+        log.writer.start();
+        logger.info("Opened chat log in {}: {} segment(s), next seq {}", directory, segments.size(), log.nextSeq);
+        return log;
+    }
+
+    /**
+     * Queues a record for writing. The buffer's remaining bytes are written
+     * later on the writer thread, so they must not change afterwards. Under
+     * {@link LogSettings.FsyncPolicy#ALWAYS} this waits while the queue is full.
+     *
+     * @return false if the record was dropped because the log is closed or, unless
+     *         every commit is fsynced, because its queue is full
+     */
+    public boolean append(ByteBuffer payload) {
+        if (tryAppend(payload)) {
+            return true;
+        }
+        if (settings.getFsyncPolicy() == LogSettings.FsyncPolicy.ALWAYS && awaitRoom(payload)) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        long last = lastDropWarning.get();
+        if (running && System.nanoTime() - last >= DROP_WARNING_NANOS
+                && lastDropWarning.compareAndSet(last, System.nanoTime())) {
+            logger.warn("Chat log is falling behind; {} record(s) dropped so far", dropped.get());
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the writer to make room for a record, holding up the caller
+     * and whatever feeds it until then.
+     *
+     * @return false if the log closed or the caller was interrupted first
+     */
+    private boolean awaitRoom(ByteBuffer payload) {
+        stalls.incrementAndGet();
+        ByteBuffer record = payload.duplicate();
+        try {
+            while (running) {
+                if (queue.offer(record, BACKPRESSURE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Like {@link #append}, but a refused record is not counted as dropped, for callers that retry.
+     */
+    public boolean tryAppend(ByteBuffer payload) {
+        return running && queue.offer(payload.duplicate());
+    }
+
+    private void run() {
+        List<ByteBuffer> group = new ArrayList<>(GROUP_LIMIT);
+        long lastForce = System.nanoTime();
+        boolean dirty = false;
+        long pollMillis = settings.getFsyncPolicy() == LogSettings.FsyncPolicy.INTERVAL
+            ? Math.min(IDLE_POLL_MILLIS, settings.getFsyncIntervalMillis()) : IDLE_POLL_MILLIS;
+        try {
+            while (running || !queue.isEmpty()) {
+                ByteBuffer first = queue.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    queue.drainTo(group, GROUP_LIMIT - 1);
+                    for (int i = 0; i < group.size(); i++) {
+                        write(group.get(i), i);
+                    }
+                    active.flush();
+                    notifyListener(group);
+                    group.clear();
+                    groups.incrementAndGet();
+                    dirty = true;
+                }
+                if (dirty && shouldForce(lastForce)) {
+                    active.force();
+                    fsyncs.incrementAndGet();
+                    lastForce = System.nanoTime();
+                    dirty = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error("Chat log writer failed, no further records will be written: {}", e.getMessage());
+            running = false;
+            queue.clear();
+        } finally {
+            for (LogSegment segment : segments) {
+                closeQuietly(segment);
+            }
+        }
+    }
+
+    private boolean shouldForce(long lastForce) {
+        switch (settings.getFsyncPolicy()) {
+            case ALWAYS:
+                return true;
+            case INTERVAL:
+                return System.nanoTime() - lastForce >= TimeUnit.MILLISECONDS.toNanos(settings.getFsyncIntervalMillis());
+            default:
+                return false;
+        }
+    }
+
+    private void write(ByteBuffer payload, int slot) throws IOException {
+        long recordBytes = LogSegment.HEAD_BYTES + payload.remaining();
+        groupSeqs[slot] = -1;
+        if (recordBytes > settings.getSegmentBytes()) {
+            logger.warn("Skipping {} byte record larger than a segment", payload.remaining());
+            return;
+        }
+        if (active.size() + recordBytes > settings.getSegmentBytes()) {
+            roll();
+        }
+        lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        active.append(nextSeq, lastTimestamp, payload);
+        groupSeqs[slot] = nextSeq;
+        groupTimes[slot] = lastTimestamp;
+        nextSeq++;
+    }
+
+    private void notifyListener(List<ByteBuffer> group) {
+        RecordListener target = listener;
+        if (target == null) {
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            if (groupSeqs[i] < 0) {
+                continue;
+            }
+            try {
+                target.onRecord(groupSeqs[i], groupTimes[i], group.get(i).duplicate());
+            } catch (RuntimeException e) {
+                logger.error("Log listener failed on record {}: {}", groupSeqs[i], e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers the listener told about each record after it is written, or null to remove it.
+     * Records written earlier are not replayed; read them with {@link #read}.
+     */
+    public void setListener(RecordListener listener) {
+        this.listener = listener;
+    }
+
+    private void roll() throws IOException {
+        active.seal();
+        fsyncs.incrementAndGet();
+        LogSegment next = LogSegment.create(directory, nextSeq, settings.getIndexIntervalBytes(), staging);
+        List<LogSegment> list = new ArrayList<>(segments);
+        list.add(next);
+        segments = List.copyOf(list);
+        active = next;
+        logger.debug("Rolled chat log to segment {}", next.baseSeq);
+    }
+
+    /**
+     * Reads up to {@code max} records starting at sequence number {@code fromSeq}.
+     */
+    public List<LogRecord> read(long fromSeq, int max) throws IOException {
+        return read(fromSeq, Long.MIN_VALUE, Long.MAX_VALUE, max);
+    }
+
+    /**
+     * Reads up to {@code max} records written between two times, inclusive, oldest first.
+     */
+    public List<LogRecord> readBetween(long fromMillis, long toMillis, int max) throws IOException {
+        return read(0, fromMillis, toMillis, max);
+    }
+
+    private List<LogRecord> read(long fromSeq, long fromMillis, long toMillis, int max) throws IOException {
+        List<LogSegment> snapshot = segments;
+        List<LogRecord> out = new ArrayList<>(Math.min(max, 256));
+        // Segments are in seq and time order: skip those that end before the range starts
+        int start = 0;
+        for (int i = snapshot.size() - 1; i > 0; i--) {
+            LogSegment segment = snapshot.get(i);
+            if (segment.baseSeq <= fromSeq || segment.firstTimestamp() < fromMillis) {
+                start = i;
+                break;
+            }
+        }
+        for (int i = start; i < snapshot.size(); i++) {
+            if (snapshot.get(i).read(fromSeq, fromMillis, toMillis, max, out)) {
+                break;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Stops accepting records, writes everything already queued, forces it to disk and closes the files.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(LogSegment segment) {
+        try {
+            segment.close();
+        } catch (IOException e) {
+            logger.error("Error closing log segment {}: {}", segment.baseSeq, e.getMessage());
+        }
+    }
+
+    /** Sequence number the next record written will get, which is also the number of records written. */
+    public long getNextSeq() { return nextSeq; }
+    /** Records dropped because the writer could not keep up or the log was closed. */
+    public long getDropped() { return dropped.get(); }
+    /** Appends that had to wait for the writer because the queue was full; only under ALWAYS. */
+    public long getStalls() { return stalls.get(); }
+    /** Group commits so far; records per group is the batching the writer achieved. */
+    public long getGroups() { return groups.get(); }
+    /** Records queued for the writer and not yet written. */
+    public int getQueued() { return queue.size(); }
+    public long getFsyncs() { return fsyncs.get(); }
+    public int getSegmentCount() { return segments.size(); }
+    public LogSettings getSettings() { return new LogSettings(settings); }
+}
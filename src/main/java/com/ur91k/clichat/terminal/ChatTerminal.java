@@ -10,6 +10,7 @@ public class ChatTerminal extends BaseTerminal {
     // Chat-specific constants
     private static final Vector4f CONNECTED_COLOR = rgb(0x71BD42);  // Green
     private static final Vector4f DISCONNECTED_COLOR = rgb(0xC43B4B);  // Red
+    private static final Vector4f CONNECTING_COLOR = rgb(0xD9A53B);  // Amber
     private static final Vector4f IP_COLOR = rgb(0xa09999);  // Grey
     private static final Vector4f TIMESTAMP_COLOR = IP_COLOR;  // Use same grey for timestamps
     
@@ -91,7 +92,14 @@ public class ChatTerminal extends BaseTerminal {
         int x = PADDING;
         
         // Render connection status
-        Vector4f statusColor = statusText.equals("CONNECTED") ? CONNECTED_COLOR : DISCONNECTED_COLOR;
+        Vector4f statusColor;
+        if (statusText.equals("CONNECTED")) {
+            statusColor = CONNECTED_COLOR;
+        } else if (statusText.startsWith("CONNECTING") || statusText.startsWith("RECONNECTING")) {
+            statusColor = CONNECTING_COLOR;
+        } else {
+            statusColor = DISCONNECTED_COLOR;
+        }
         textRenderer.renderText(statusText, x, PADDING, statusColor);
         x += statusText.length() * charWidth;
         
@@ -0,0 +1,82 @@
+package com.ur91k.clichat.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring assigning keys to nodes.
+ *
+ * <p>Each node sits at many points on the ring and owns the keys hashing up to
+ * each of them, so keys spread evenly and adding or removing a node only moves
+ * the keys next to its points. The hash does not depend on the JVM, so every
+ * process given the same nodes maps every key the same way. Immutable.</p>
+ */
+public final class HashRing {
+    private final List<String> nodes;
+    private final long[] points;     // Sorted
+    private final String[] owners;   // owners[i] sits at points[i]
+
+    /**
+     * @param replicas points per node; more spreads keys more evenly
+     */
+    public HashRing(Collection<String> nodes, int replicas) {
+        if (replicas < 1) {
+            throw new IllegalArgumentException("Replicas must be positive: " + replicas);
+        }
+        this.nodes = List.copyOf(new TreeSet<>(nodes));
+        int count = this.nodes.size() * replicas;
+        long[][] entries = new long[count][];
+        for (int n = 0; n < this.nodes.size(); n++) {
+            for (int r = 0; r < replicas; r++) {
+                entries[n * replicas + r] = new long[] {hash(this.nodes.get(n) + "#" + r), n};
+            }
+        }
+        // Ties go to the lower node name, the same way everywhere
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[count];
+        this.owners = new String[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = entries[i][0];
+            owners[i] = this.nodes.get((int) entries[i][1]);
+        }
+    }
+
+    /**
+     * Returns the node owning a key: the first point at or after the key's hash,
+     * wrapping around. Null if the ring has no nodes.
+     */
+    public String nodeFor(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /** The nodes on the ring, sorted. */
+    public List<String> getNodes() { return nodes; }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with MurmurHash3's mixer so
+     * that similar keys such as "node#1" and "node#2" land far apart.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
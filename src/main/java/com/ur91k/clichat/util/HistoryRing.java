@@ -0,0 +1,58 @@
+package com.ur91k.clichat.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring of the most recent items, for one writer and any number of readers.
+ *
+ * <p>Neither side locks. Each slot remembers the sequence number it was written
+ * at, so a reader that races the writer skips slots that were overwritten
+ * under it instead of returning items out of order.</p>
+ */
+public class HistoryRing<T> {
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private volatile long next;  // Sequence number of the next append; written by the single writer only
+
+    private record Slot<T>(long seq, T item) {}
+
+    public HistoryRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Appends an item, replacing the oldest once the ring is full. Only one thread may append at a time.
+     *
+     * @return the item's sequence number
+     */
+    public long add(T item) {
+        long seq = next;
+        slots.set((int) (seq % slots.length()), new Slot<>(seq, item));
+        next = seq + 1;
+        return seq;
+    }
+
+    /**
+     * Returns up to {@link #capacity()} of the most recent items, oldest first.
+     */
+    public List<T> snapshot() {
+        long end = next;
+        long start = Math.max(0, end - slots.length());
+        List<T> items = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            Slot<T> slot = slots.get((int) (seq % slots.length()));
+            if (slot != null && slot.seq() == seq) {
+                items.add(slot.item());
+            }
+        }
+        return items;
+    }
+
+    /** Sequence number the next item will get; also the number of items ever added. */
+    public long getNext() { return next; }
+    public int capacity() { return slots.length(); }
+}
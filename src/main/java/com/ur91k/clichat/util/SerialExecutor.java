@@ -0,0 +1,81 @@
+package com.ur91k.clichat.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time and in submission order on a shared pool.
+ *
+ * <p>Many lanes can share one pool. A lane occupies at most one pool thread,
+ * and gives it back after {@code budget} tasks, so a busy lane queues behind
+ * the others instead of starving them.</p>
+ */
+public class SerialExecutor implements Executor {
+    private static final Logger logger = Logger.getLogger(SerialExecutor.class);
+
+    private final Executor pool;
+    private final int budget;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    public SerialExecutor(Executor pool, int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Budget must be positive: " + budget);
+        }
+        this.pool = pool;
+        this.budget = budget;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        pending.incrementAndGet();
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                pool.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < budget; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                pending.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Task failed: {}", e.getMessage());
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // Tasks added after our last poll saw scheduled == true and relied on us
+            if (!tasks.isEmpty()) {
+                try {
+                    schedule();
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Pool shut down with {} tasks pending", pending.get());
+                }
+            }
+        }
+    }
+
+    /** Number of tasks waiting to run. */
+    public int getPending() { return pending.get(); }
+}
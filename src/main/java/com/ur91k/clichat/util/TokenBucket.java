@@ -0,0 +1,49 @@
+package com.ur91k.clichat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ *
+ * <p>Instead of a token count and a refill timestamp, the whole state is one
+ * "theoretical arrival time" (the generic cell rate algorithm): each accepted
+ * event pushes it one interval into the future, and an event is refused when
+ * that would put it more than a full bucket ahead of now. A single CAS updates it.</p>
+ */
+public class TokenBucket {
+    private final long interval;  // Nanoseconds to earn one token
+    private final long capacity;  // Nanoseconds worth of tokens the bucket holds
+    private final AtomicLong arrival;
+
+    /**
+     * @param perSecond tokens earned per second
+     * @param burst tokens the bucket holds, i.e. how many events may arrive back to back
+     */
+    public TokenBucket(double perSecond, int burst) {
+        if (perSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive: " + perSecond + ", " + burst);
+        }
+        this.interval = Math.max(1, (long) (1_000_000_000L / perSecond));
+        this.capacity = interval * burst;
+        this.arrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return false if the bucket is empty
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = arrival.get();
+            long next = (current - now > 0 ? current : now) + interval;
+            if (next - now > capacity) {
+                return false;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}